@@ -1,28 +1,104 @@
 package com.combostrap.docExec;
 
 
+import com.combostrap.docExec.util.Digest;
 import com.combostrap.docExec.util.Fs;
 import com.combostrap.docExec.util.Xdg;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
 
 
+/**
+ * A cache of the docs executed
+ * <p>
+ * The cache keeps a copy of each doc.
+ * <p>
+ * The console output of the units is kept by the hash of their inputs
+ * (ie {@link #getUnitConsole(String)}) so that a unit that has not changed is not executed again
+ * wherever it is in the doc (a bash unit of a shared session depends also on the bash units before it).
+ * <p>
+ * The freshness of a doc is checked first with its stat data (ie {@link DocCacheIndex})
+ * and only hashed when they have changed.
+ * <p>
+ * The entries are stored with a file by entry (the default) or packed in a few files (ie {@link DocCachePack}).
+ * <p>
+ * The least recently used entries are evicted when an entry is stored and the cache is above its max size
+ * or when they have not been accessed for the max age (ie {@link DocCacheUsage}).
+ * <p>
+ * The cache can be used by several processes at once (ie shards with the same doc name):
+ * an entry is written in a temporary file and moved so that a reader never sees a partial entry
+ * and the index files are written with a lock (ie {@link DocCacheLock}).
+ * <p>
+ * The console output of the units may also be shared by several hosts with a remote tier (ie {@link DocCacheRemote}).
+ */
 public class DocCache {
 
+    /**
+     * The directory of the console output of the units in the namespace directory
+     */
+    static final String CONSOLES_DIRECTORY_NAME = "_consoles";
+    private static final String CONSOLE_EXTENSION = ".out";
+    /**
+     * The index file in the namespace directory
+     */
+    static final String INDEX_FILE_NAME = "_index";
+    /**
+     * The usage file in the namespace directory
+     */
+    static final String USAGE_FILE_NAME = "_usage";
+    /**
+     * The lock file in the namespace directory (ie {@link DocCacheLock})
+     */
+    static final String LOCK_FILE_NAME = "_lock";
+    /**
+     * The prefix of the directories of doc-exec in the cache home (ie {@link DocClassCache#DIRECTORY_NAME}),
+     * a namespace can't start with it
+     */
+    static final String RESERVED_NAME_PREFIX = "_";
+    /**
+     * The kind of the console output of the units in the remote cache
+     */
+    static final String REMOTE_CONSOLES_KIND = "consoles";
 
     private final Path directory;
+    private final DocCacheStore store;
+    private final DocCacheIndex index;
+    private final DocCacheUsage usage;
+    private final long maxBytes;
+    /**
+     * The max duration without access of an entry (null, no limit)
+     */
+    private final Duration maxAge;
+    /**
+     * The remote tier (null if none)
+     */
+    private DocCacheRemote remote;
 
-    private DocCache(String name) {
+    private DocCache(String name, boolean pack, long maxBytes, Duration maxAge) {
 
         directory = Xdg.getCacheHome(DocExecutor.APP_NAME).resolve(name);
         if (!Files.exists(directory)) {
             Fs.createDirectoryIfNotExists(directory);
         }
-
+        if (pack) {
+            store = DocCachePack.create(directory);
+        } else {
+            store = DocCacheDirectoryStore.create(directory);
+        }
+        index = DocCacheIndex.load(directory.resolve(INDEX_FILE_NAME));
+        usage = DocCacheUsage.load(directory.resolve(USAGE_FILE_NAME));
+        if (!usage.isLoaded()) {
+            // A cache created before the usage was recorded or with a corrupted usage file
+            store.getEntrySizes().forEach(usage::put);
+        }
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
 
     }
 
@@ -39,20 +115,132 @@ public class DocCache {
      */
     public static DocCache get(String name) {
 
-        return new DocCache(name);
+        return get(name, false);
+
+    }
+
+    /**
+     * @param name - the namespace
+     * @param pack - if true, the entries are packed in a few files (ie {@link DocCachePack})
+     */
+    public static DocCache get(String name, boolean pack) {
+
+        return get(name, pack, Long.MAX_VALUE, null);
+
+    }
+
+    /**
+     * @param name     - the namespace
+     * @param pack     - if true, the entries are packed in a few files (ie {@link DocCachePack})
+     * @param maxBytes - the max size of the entries
+     * @param maxAge   - the max duration without access of an entry (null, no limit)
+     * @throws IllegalArgumentException if the name is reserved (ie starts with {@link #RESERVED_NAME_PREFIX})
+     */
+    public static DocCache get(String name, boolean pack, long maxBytes, Duration maxAge) {
+
+        if (name.startsWith(RESERVED_NAME_PREFIX)) {
+            throw new IllegalArgumentException("The cache name (" + name + ") should not start with (" + RESERVED_NAME_PREFIX + "), it's reserved for the doc-exec directories");
+        }
+
+        return new DocCache(name, pack, maxBytes, maxAge);
+
+    }
 
+    /**
+     * @return the usage of the entries (size, count, hits)
+     */
+    @JsonIgnore
+    public DocCacheUsage getUsage() {
+        return usage;
     }
 
     /**
-     * @return the MD5 of the path
+     * @param remote - the remote tier, read on a local miss and written when a console output is stored (null, none)
+     * @return the object for chaining
+     */
+    public DocCache setRemote(DocCacheRemote remote) {
+        this.remote = remote;
+        return this;
+    }
+
+    public DocCacheRemote getRemote() {
+        return remote;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return the MD5 of the cached copy of the path, null if not in the cache
      */
     public String getMd5(Path path) {
-        Path cacheFilePath = getPathCacheFile(path);
-        if (Files.exists(cacheFilePath)) {
-            return Fs.getMd5(cacheFilePath);
-        } else {
+        byte[] bytes = getEntry(getDocKey(path));
+        if (bytes == null) {
             return null;
         }
+        return Digest.createFromBytes(Digest.Algorithm.MD5, bytes).getHashHex();
+    }
+
+    /**
+     * @param path - the doc
+     * @return true if the doc has the same content as its cached copy
+     * The doc and its copy are read only when the stat data of the doc has changed since the last check
+     */
+    public boolean isFresh(Path path) {
+        boolean fresh = checkFreshness(path);
+        usage.count("doc", fresh);
+        return fresh;
+    }
+
+    private boolean checkFreshness(Path path) {
+        String key = getIndexKey(path);
+        if (index.getDigestIfUnchanged(key, path) != null) {
+            usage.touch(getDocKey(path));
+            return true;
+        }
+        String cachedMd5 = index.getDigest(key);
+        if (cachedMd5 == null) {
+            cachedMd5 = getMd5(path);
+        } else {
+            usage.touch(getDocKey(path));
+        }
+        if (cachedMd5 == null || !Files.exists(path)) {
+            return false;
+        }
+        String md5 = Fs.getMd5(path);
+        if (!md5.equals(cachedMd5)) {
+            return false;
+        }
+        index.put(key, path, md5);
+        return true;
+    }
+
+    /**
+     * @return the key of a doc in the index
+     */
+    private String getIndexKey(Path path) {
+        return getPathCacheFile(path).toString();
+    }
+
+    /**
+     * Write the index and the usage of the cache if they have changed
+     * (merged with the changes of the other processes that use the cache)
+     */
+    public void flush() {
+        if (remote != null) {
+            remote.flush();
+        }
+        try (DocCacheLock ignored = DocCacheLock.acquire(directory.resolve(LOCK_FILE_NAME))) {
+            index.flush();
+            usage.flush();
+        }
+        // Not with the lock, the store takes it for its own writes
+        store.flush();
     }
 
     /**
@@ -67,6 +255,20 @@ public class DocCache {
         return Paths.get(directory.toString(), relativeCachePath.toString()).normalize();
     }
 
+    /**
+     * @return the key of the cached copy of a doc in the store
+     */
+    String getDocKey(Path path) {
+        return directory.relativize(getPathCacheFile(path)).toString();
+    }
+
+    /**
+     * @return true if the entry is the cached copy of a doc (and not a console output)
+     */
+    boolean isDocKey(String key) {
+        return !key.startsWith(CONSOLES_DIRECTORY_NAME);
+    }
+
     /**
      * Cache/store this path in the cache
      *
@@ -74,12 +276,10 @@ public class DocCache {
      */
     public void store(Path path) {
         try {
-            Path cachePath = getPathCacheFile(path);
-            Path parent = cachePath.getParent();
-            if (!(Files.exists(parent))) {
-                Files.createDirectories(parent);
-            }
-            Fs.overwrite(path, cachePath);
+            String key = getIndexKey(path);
+            byte[] bytes = Files.readAllBytes(path);
+            putEntry(getDocKey(path), bytes);
+            index.put(key, path, Digest.createFromBytes(Digest.Algorithm.MD5, bytes).getHashHex());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -87,26 +287,132 @@ public class DocCache {
     }
 
     /**
-     * @param path - the path
-     * @return {@link DocUnit} for this path, null if the path is not in the cache
+     * @param key - the hash of the inputs of a unit
+     * @return the console output of the unit or null if not in the cache
      */
-    public List<DocUnit> getDocTestUnits(Path path) {
-        final Path pathCacheFile = getPathCacheFile(path);
-        if (Files.exists(pathCacheFile)) {
-            return DocParser.getDocTests(pathCacheFile);
-        } else {
+    public String getUnitConsole(String key) {
+        String entryKey = CONSOLES_DIRECTORY_NAME + "/" + key + CONSOLE_EXTENSION;
+        byte[] bytes = getEntry(entryKey);
+        if (bytes == null && remote != null) {
+            bytes = remote.get(REMOTE_CONSOLES_KIND, key);
+            usage.count("remote", bytes != null);
+            if (bytes != null) {
+                // Read-through
+                putEntry(entryKey, bytes);
+            }
+        }
+        usage.count("console", bytes != null);
+        if (bytes == null) {
             return null;
         }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Store the console output of a unit
+     *
+     * @param key     - the hash of the inputs of the unit
+     * @param console - the console output
+     */
+    public void storeUnitConsole(String key, String console) {
+        byte[] bytes = console.getBytes(StandardCharsets.UTF_8);
+        putEntry(CONSOLES_DIRECTORY_NAME + "/" + key + CONSOLE_EXTENSION, bytes);
+        if (remote != null) {
+            remote.put(REMOTE_CONSOLES_KIND, key, bytes);
+        }
+    }
+
+    private byte[] getEntry(String key) {
+        byte[] bytes = store.get(key);
+        if (bytes != null) {
+            usage.touch(key);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the keys of the entries in the store (ie for {@link DocCacheBundle})
+     */
+    Set<String> getEntryKeys() {
+        return store.getEntrySizes().keySet();
+    }
+
+    /**
+     * Read an entry without recording an access
+     */
+    byte[] readEntry(String key) {
+        return store.get(key);
+    }
+
+    /**
+     * Store a console output entry (ie restored by {@link DocCacheBundle})
+     *
+     * @throws IllegalArgumentException if the key is the key of a doc copy (ie {@link #writeDocEntry(Path, byte[])}) or is out of the cache
+     */
+    void writeEntry(String key, byte[] content) {
+        if (isDocKey(key)) {
+            throw new IllegalArgumentException("The entry key (" + key + ") is the key of a doc copy");
+        }
+        Path namespace = directory.toAbsolutePath().normalize();
+        if (!namespace.resolve(key).normalize().startsWith(namespace)) {
+            throw new IllegalArgumentException("The entry key (" + key + ") is not in the cache directory (" + directory + ")");
+        }
+        putEntry(key, content);
+    }
+
+    /**
+     * Store the copy of a doc (ie restored by {@link DocCacheBundle})
+     * <p>
+     * The doc is removed from the index, its next check compares it with this copy
+     *
+     * @param path    - the doc
+     * @param content - the content of the copy
+     */
+    void writeDocEntry(Path path, byte[] content) {
+        putEntry(getDocKey(path), content);
+        index.remove(getIndexKey(path));
+    }
+
+    private void putEntry(String key, byte[] content) {
+        store.put(key, content);
+        usage.put(key, content.length);
+        evict(key);
+    }
+
+    private void removeEntry(String key) {
+        store.remove(key);
+        usage.remove(key);
+    }
+
+    /**
+     * Delete the least recently used entries while the cache is above its max size
+     * and the entries not accessed for the max age
+     *
+     * @param storedKey - the entry just stored (never evicted)
+     */
+    private void evict(String storedKey) {
+        long minAccess = maxAge == null ? Long.MIN_VALUE : System.currentTimeMillis() - maxAge.toMillis();
+        String key;
+        while ((key = usage.getEvictable(maxBytes, minAccess, storedKey)) != null) {
+            removeEntry(key);
+            if (isDocKey(key)) {
+                index.remove(directory.resolve(key).normalize().toString());
+            }
+            DocLog.LOGGER.fine("The cache entry (" + key + ") was evicted");
+        }
     }
 
     public List<Path> purgeAll() {
+        index.clear();
+        usage.clear();
+        store.clear();
         return Fs.deleteIfExists(directory, true);
     }
 
     @SuppressWarnings("unused")
     public void purge(Path path) {
-        Path cacheFilePath = getPathCacheFile(path);
-        Fs.deleteIfExists(cacheFilePath, true);
+        index.remove(getIndexKey(path));
+        removeEntry(getDocKey(path));
     }
 
 }
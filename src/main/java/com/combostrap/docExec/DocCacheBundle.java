@@ -0,0 +1,195 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A bundle of the entries of a {@link DocCache} (ie to save the cache as a build artifact and restore it on another runner)
+ * <p>
+ * The bundle is a gzip file of the entries followed by the SHA-256 of the entries
+ * so that a truncated or corrupted bundle is rejected before any entry is restored.
+ * <p>
+ * The cached copy of a doc is keyed by its absolute path, it's then written relative to the doc path
+ * and restored under the doc path of the runner (that may be another checkout directory).
+ * The stat index and the usage are not bundled, they are host specific.
+ */
+public class DocCacheBundle {
+
+    private static final int MAGIC = 0x44454342;
+    private static final int FORMAT_VERSION = 1;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    /**
+     * The kind of an entry
+     */
+    private static final byte END = 0;
+    private static final byte DOC_ENTRY = 1;
+    private static final byte ENTRY = 2;
+    /**
+     * The keys of the entries that are not a doc copy (console outputs).
+     * A bundle is an untrusted input (ie a CI artifact), a key cannot then go out of the namespace directory
+     */
+    private static final Pattern ENTRY_KEY_PATTERN = Pattern.compile(DocCache.CONSOLES_DIRECTORY_NAME + "/[A-Za-z0-9_-]{1,128}\\.[a-z]{1,8}");
+
+    private DocCacheBundle() {
+    }
+
+    /**
+     * Write the entries of a cache in a bundle
+     *
+     * @param cache      - the cache
+     * @param bundlePath - the bundle file
+     * @param docPath    - the directory of the docs (the cached copy of the docs outside are not written)
+     * @return the number of entries written
+     */
+    public static int write(DocCache cache, Path bundlePath, Path docPath) {
+        Path docDirectory = docPath.toAbsolutePath().normalize();
+        Path root = docDirectory.getRoot();
+        // Sorted so that the same cache gives the same bundle
+        List<String> keys = cache.getEntryKeys().stream().sorted().collect(Collectors.toList());
+        int count = 0;
+        try {
+            Path parent = bundlePath.toAbsolutePath().getParent();
+            Fs.createDirectoryIfNotExists(parent);
+            // Written in a temporary file and moved so that a reader never sees a partial bundle
+            Path tempPath = Files.createTempFile(parent, null, ".tmp");
+            try (OutputStream fileOutputStream = new BufferedOutputStream(Files.newOutputStream(tempPath));
+                 GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream)) {
+                MessageDigest messageDigest = createMessageDigest();
+                DataOutputStream outputStream = new DataOutputStream(new DigestOutputStream(gzipOutputStream, messageDigest));
+                outputStream.writeInt(MAGIC);
+                outputStream.writeInt(FORMAT_VERSION);
+                for (String key : keys) {
+                    byte[] content = cache.readEntry(key);
+                    if (content == null) {
+                        // Evicted concurrently
+                        continue;
+                    }
+                    if (cache.isDocKey(key)) {
+                        Path path = root.resolve(key).normalize();
+                        if (!path.startsWith(docDirectory)) {
+                            DocLog.LOGGER.fine("The cached doc (" + path + ") is not in the doc path (" + docDirectory + ") and was not exported");
+                            continue;
+                        }
+                        outputStream.writeByte(DOC_ENTRY);
+                        // With a slash on all os
+                        outputStream.writeUTF(docDirectory.relativize(path).toString().replace(File.separatorChar, '/'));
+                    } else {
+                        outputStream.writeByte(ENTRY);
+                        outputStream.writeUTF(key);
+                    }
+                    outputStream.writeInt(content.length);
+                    outputStream.write(content);
+                    count++;
+                }
+                outputStream.writeByte(END);
+                outputStream.flush();
+                gzipOutputStream.write(messageDigest.digest());
+            }
+            Files.move(tempPath, bundlePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the cache bundle (" + bundlePath + ")", e);
+        }
+        return count;
+    }
+
+    /**
+     * Restore the entries of a bundle in a cache
+     *
+     * @param cache      - the cache
+     * @param bundlePath - the bundle file
+     * @param docPath    - the directory of the docs
+     * @return the number of entries restored
+     * @throws RuntimeException if the bundle is not valid (no entry is then restored)
+     */
+    public static int read(DocCache cache, Path bundlePath, Path docPath) {
+        Path docDirectory = docPath.toAbsolutePath().normalize();
+        // A first pass to check the digest and the keys
+        readEntries(bundlePath, null, docDirectory);
+        return readEntries(bundlePath, cache, docDirectory);
+    }
+
+    /**
+     * @param cache - the cache where to restore the entries (null, the bundle is only checked)
+     * @throws RuntimeException if the bundle is corrupted or has an entry that would be written out of the cache
+     */
+    private static int readEntries(Path bundlePath, DocCache cache, Path docDirectory) {
+        int count = 0;
+        try (InputStream fileInputStream = new BufferedInputStream(Files.newInputStream(bundlePath));
+             GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream)) {
+            MessageDigest messageDigest = createMessageDigest();
+            DataInputStream inputStream = new DataInputStream(new DigestInputStream(gzipInputStream, messageDigest));
+            if (inputStream.readInt() != MAGIC) {
+                throw new RuntimeException("The file (" + bundlePath + ") is not a cache bundle");
+            }
+            int version = inputStream.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new RuntimeException("The cache bundle (" + bundlePath + ") has the version (" + version + ") and not (" + FORMAT_VERSION + ")");
+            }
+            while (true) {
+                byte kind = inputStream.readByte();
+                if (kind == END) {
+                    break;
+                }
+                if (kind != DOC_ENTRY && kind != ENTRY) {
+                    throw new RuntimeException("The cache bundle (" + bundlePath + ") is corrupted (unknown entry kind " + kind + ")");
+                }
+                String key = inputStream.readUTF();
+                Path docFile = null;
+                if (kind == DOC_ENTRY) {
+                    docFile = docDirectory.resolve(key).normalize();
+                    if (Paths.get(key).isAbsolute() || !docFile.startsWith(docDirectory)) {
+                        throw new RuntimeException("The cache bundle (" + bundlePath + ") has a doc (" + key + ") that is not in the doc path");
+                    }
+                } else if (!ENTRY_KEY_PATTERN.matcher(key).matches()) {
+                    throw new RuntimeException("The cache bundle (" + bundlePath + ") has an invalid entry key (" + key + ")");
+                }
+                byte[] content = new byte[inputStream.readInt()];
+                inputStream.readFully(content);
+                if (cache == null) {
+                    continue;
+                }
+                if (docFile != null) {
+                    cache.writeDocEntry(docFile, content);
+                } else {
+                    cache.writeEntry(key, content);
+                }
+                count++;
+            }
+            byte[] expectedDigest = messageDigest.digest();
+            byte[] digest = new byte[expectedDigest.length];
+            new DataInputStream(gzipInputStream).readFully(digest);
+            if (!Arrays.equals(expectedDigest, digest)) {
+                throw new RuntimeException("The cache bundle (" + bundlePath + ") is corrupted (checksum mismatch)");
+            }
+        } catch (EOFException e) {
+            throw new RuntimeException("The cache bundle (" + bundlePath + ") is truncated", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the cache bundle (" + bundlePath + ")", e);
+        }
+        return count;
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A {@link DocCacheStore} with a file by entry in the namespace directory
+ * (the cached copy of a doc mirrors its path)
+ */
+class DocCacheDirectoryStore implements DocCacheStore {
+
+    private final Path directory;
+
+    private DocCacheDirectoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    static DocCacheDirectoryStore create(Path directory) {
+        return new DocCacheDirectoryStore(directory);
+    }
+
+    /**
+     * @return the file of an entry
+     */
+    Path getPath(String key) {
+        return directory.resolve(key).normalize();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        try {
+            return Files.readAllBytes(getPath(key));
+        } catch (IOException e) {
+            // Not in the cache or deleted concurrently
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) {
+        Path path = getPath(key);
+        try {
+            Fs.createDirectoryIfNotExists(path.getParent());
+            // Written in a temporary file and moved so that a reader never sees a partial entry
+            Path tempPath = Files.createTempFile(path.getParent(), null, ".tmp");
+            Files.write(tempPath, content);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to store the entry in the cache (" + path + ")", e);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        Fs.deleteIfExists(getPath(key));
+    }
+
+    /**
+     * The files of the cache that are not entries (ie the index) start with an underscore
+     * at the root of the namespace directory
+     */
+    @Override
+    public Map<String, Long> getEntrySizes() {
+        Map<String, Long> sizes = new HashMap<>();
+        if (!Files.exists(directory)) {
+            return sizes;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile)
+                    .filter(path -> !(path.getParent().equals(directory) && path.getFileName().toString().startsWith("_")))
+                    .filter(path -> !path.getFileName().toString().endsWith(".tmp"))
+                    .forEach(path -> {
+                        try {
+                            sizes.put(directory.relativize(path).toString(), Files.size(path));
+                        } catch (IOException e) {
+                            // Deleted concurrently
+                        }
+                    });
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to list the cache directory (" + directory + ")", e);
+        }
+        return sizes;
+    }
+
+    @Override
+    public void flush() {
+        // Every entry is already written
+    }
+
+    @Override
+    public void clear() {
+        // No state
+    }
+
+}
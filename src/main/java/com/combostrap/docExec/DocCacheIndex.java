@@ -0,0 +1,229 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The index of a {@link DocCache} (as the git index)
+ * <p>
+ * It records by doc the stat data (size, modification time, file key/inode) of the doc
+ * and the digest of its cached copy.
+ * When the stat data of a doc has not changed, the doc is fresh without reading it or its copy.
+ * <p>
+ * A doc modified just before its stat was recorded may be modified again in the same
+ * time granularity, its stat is then not recorded (racy) and the doc is hashed at the next check.
+ * <p>
+ * Several processes may use the same index, the changes are then merged
+ * with the index on disk when it is written (ie {@link #flush()}).
+ */
+public class DocCacheIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * A modification time closer than that to the recording time is not trusted
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private final Path indexPath;
+    private final Map<String, Entry> entries;
+    /**
+     * The entries put or removed (null value) since the load
+     */
+    private final Map<String, Entry> changes = new HashMap<>();
+
+    private DocCacheIndex(Path indexPath) {
+        this.indexPath = indexPath;
+        this.entries = read();
+    }
+
+    /**
+     * @param indexPath - the index file
+     * @return the index loaded from the file (empty if the file does not exist or is corrupted)
+     */
+    static DocCacheIndex load(Path indexPath) {
+        return new DocCacheIndex(indexPath);
+    }
+
+    /**
+     * @return the entries of the index file
+     */
+    private Map<String, Entry> read() {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!Files.exists(indexPath)) {
+            return entries;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return entries;
+            }
+            int count = inputStream.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = inputStream.readUTF();
+                Entry entry = new Entry(
+                        inputStream.readLong(),
+                        inputStream.readLong(),
+                        inputStream.readUTF(),
+                        inputStream.readUTF()
+                );
+                entries.put(key, entry);
+            }
+        } catch (IOException e) {
+            // Corrupted or deleted concurrently, the docs are hashed again
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /**
+     * @param key  - the key of the doc
+     * @param path - the doc
+     * @return the digest of the cached copy if the stat data of the doc has not changed, null otherwise
+     */
+    synchronized String getDigestIfUnchanged(String key, Path path) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.modifiedTime == -1) {
+            return null;
+        }
+        Entry stat = stat(path, entry.digest);
+        if (stat == null || !stat.hasSameStat(entry)) {
+            return null;
+        }
+        return entry.digest;
+    }
+
+    /**
+     * @param key - the key of the doc
+     * @return the digest of the cached copy recorded, null if unknown
+     */
+    synchronized String getDigest(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return entry.digest;
+    }
+
+    /**
+     * Record the stat data of a doc and the digest of its cached copy
+     *
+     * @param key    - the key of the doc
+     * @param path   - the doc
+     * @param digest - the digest of the cached copy
+     */
+    synchronized void put(String key, Path path, String digest) {
+        Entry entry = stat(path, digest);
+        if (entry == null) {
+            entries.remove(key);
+        } else {
+            entries.put(key, entry);
+        }
+        changes.put(key, entry);
+    }
+
+    synchronized void remove(String key) {
+        entries.remove(key);
+        changes.put(key, null);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        changes.clear();
+    }
+
+    /**
+     * Write the index if it has changed
+     * (in a temporary file moved so that a reader never sees a partial index)
+     * <p>
+     * The changes are applied on the index on disk that another process may have written since the load,
+     * the caller should then hold the cache lock (ie {@link DocCacheLock})
+     */
+    synchronized void flush() {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Map<String, Entry> merged = read();
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                merged.remove(change.getKey());
+            } else {
+                merged.put(change.getKey(), change.getValue());
+            }
+        }
+        entries.clear();
+        entries.putAll(merged);
+        try {
+            Fs.createDirectoryIfNotExists(indexPath.getParent());
+            Path tempPath = Files.createTempFile(indexPath.getParent(), null, ".tmp");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                outputStream.writeInt(FORMAT_VERSION);
+                outputStream.writeInt(entries.size());
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    outputStream.writeUTF(mapEntry.getKey());
+                    outputStream.writeLong(entry.size);
+                    outputStream.writeLong(entry.modifiedTime);
+                    outputStream.writeUTF(entry.fileKey);
+                    outputStream.writeUTF(entry.digest);
+                }
+            }
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changes.clear();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the cache index (" + indexPath + ")", e);
+        }
+    }
+
+    /**
+     * @return the stat data of the doc, null if it does not exist
+     */
+    private static Entry stat(Path path, String digest) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        long modifiedTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        if (System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(modifiedTime) < RACY_MILLIS) {
+            // Racy
+            modifiedTime = -1;
+        }
+        Object fileKey = attributes.fileKey();
+        return new Entry(attributes.size(), modifiedTime, fileKey == null ? "" : fileKey.toString(), digest);
+    }
+
+    private static class Entry {
+
+        private final long size;
+        /**
+         * The modification time in nanoseconds, -1 if not trusted
+         */
+        private final long modifiedTime;
+        /**
+         * The file key (ie device and inode on unix), empty if the file system has none
+         */
+        private final String fileKey;
+        private final String digest;
+
+        private Entry(long size, long modifiedTime, String fileKey, String digest) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        private boolean hasSameStat(Entry entry) {
+            return size == entry.size
+                    && modifiedTime == entry.modifiedTime
+                    && fileKey.equals(entry.fileKey);
+        }
+
+    }
+
+}
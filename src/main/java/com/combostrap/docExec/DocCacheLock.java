@@ -0,0 +1,105 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on a {@link DocCache} namespace shared by the threads and the processes
+ * that use the same cache (ie several doc-exec shards with the same doc name)
+ * <p>
+ * A file lock is held by the JVM and not by a thread, the threads are then serialized with a reentrant lock
+ * and the file is locked by the first holder only.
+ */
+class DocCacheLock implements AutoCloseable {
+
+    private static final Map<Path, Holder> HOLDERS = new ConcurrentHashMap<>();
+
+    private final Holder holder;
+
+    private DocCacheLock(Holder holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * Wait for the lock
+     *
+     * @param lockPath - the lock file (created if it does not exist)
+     * @return the lock to close to release it
+     */
+    static DocCacheLock acquire(Path lockPath) {
+        Holder holder = HOLDERS.computeIfAbsent(lockPath.toAbsolutePath().normalize(), Holder::new);
+        holder.lock();
+        return new DocCacheLock(holder);
+    }
+
+    @Override
+    public void close() {
+        holder.unlock();
+    }
+
+    private static class Holder {
+
+        private final Path lockPath;
+        private final ReentrantLock threadLock = new ReentrantLock();
+        private FileChannel channel;
+        private FileLock fileLock;
+
+        private Holder(Path lockPath) {
+            this.lockPath = lockPath;
+        }
+
+        private void lock() {
+            threadLock.lock();
+            if (threadLock.getHoldCount() > 1) {
+                return;
+            }
+            try {
+                Fs.createDirectoryIfNotExists(lockPath.getParent());
+                channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                fileLock = channel.lock();
+            } catch (IOException e) {
+                closeChannel();
+                threadLock.unlock();
+                throw new RuntimeException("Unable to lock the cache (" + lockPath + ")", e);
+            }
+        }
+
+        private void unlock() {
+            try {
+                if (threadLock.getHoldCount() == 1) {
+                    if (fileLock != null) {
+                        fileLock.release();
+                    }
+                    closeChannel();
+                }
+            } catch (IOException e) {
+                DocLog.LOGGER.warning("Unable to release the cache lock (" + lockPath + "): " + e.getMessage());
+                closeChannel();
+            } finally {
+                threadLock.unlock();
+            }
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    DocLog.LOGGER.warning("Unable to close the cache lock (" + lockPath + "): " + e.getMessage());
+                }
+            }
+            channel = null;
+            fileLock = null;
+        }
+
+    }
+
+}
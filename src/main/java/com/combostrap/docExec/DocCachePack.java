@@ -0,0 +1,596 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A {@link DocCacheStore} packed in a few files (as a git pack)
+ * <p>
+ * The entries are appended to a data file and found with an index file
+ * (entries sorted by the hash of their key) that is memory-mapped and binary searched
+ * so that a cached run opens two files whatever the number of entries.
+ * <p>
+ * The data file is append-only: a replaced or removed entry stays in the file until a compaction
+ * that copies the live entries in a new generation of the files.
+ * The generation in use is recorded in a pointer file that is replaced atomically,
+ * a reader sees then the old or the new generation but never a partial one.
+ * <p>
+ * The entries appended after the last index write are found again by scanning the end of the data file.
+ * <p>
+ * Several processes may use the same pack: the writes take the cache lock (ie {@link DocCacheLock})
+ * and catch up first with the records and the generation written by the other processes.
+ * The reads do not take the lock as a record is never modified once written.
+ */
+class DocCachePack implements DocCacheStore {
+
+    static final String PACK_FILE_PREFIX = "_pack";
+    private static final String CURRENT_EXTENSION = ".current";
+    private static final String DATA_EXTENSION = ".dat";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Version, data length, live bytes and entry count
+     */
+    private static final int INDEX_HEADER_SIZE = 4 + 8 + 8 + 4;
+    /**
+     * Key hash, record offset and record length
+     */
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+    /**
+     * The data file is compacted at flush when it has more garbage than live entries and at least this size of garbage
+     */
+    private static final long COMPACT_MIN_GARBAGE_BYTES = 1024 * 1024;
+
+    private final Path directory;
+    private final Path lockPath;
+
+    private boolean opened = false;
+    private long generation;
+    private FileChannel dataChannel;
+    /**
+     * The length of the data file (the offset of the next record)
+     */
+    private long dataLength;
+    /**
+     * The length of the records of the live entries
+     */
+    private long liveBytes;
+    /**
+     * The mapped index file (null if there is none)
+     */
+    private MappedByteBuffer indexBuffer;
+    private int indexCount;
+    /**
+     * The records appended after the index was written (a removed entry has a tombstone record)
+     */
+    private final Map<String, Record> pendingRecords = new HashMap<>();
+
+    private DocCachePack(Path directory) {
+        this.directory = directory;
+        this.lockPath = directory.resolve(DocCache.LOCK_FILE_NAME);
+    }
+
+    /**
+     * @param directory - the namespace directory of the cache
+     */
+    static DocCachePack create(Path directory) {
+        return new DocCachePack(directory);
+    }
+
+    @Override
+    public synchronized byte[] get(String key) {
+        if (!opened) {
+            try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+                open();
+            }
+        }
+        try {
+            Record record = find(key);
+            if (record == null && dataChannel.size() > dataLength) {
+                // Appended by another process (a partial record is not read)
+                scan(dataLength, false);
+                record = find(key);
+            }
+            if (record == null || record.isTombstone()) {
+                return null;
+            }
+            int keyLength = readInt(record.offset);
+            int valueLength = readInt(record.offset + 4 + keyLength);
+            ByteBuffer value = ByteBuffer.allocate(valueLength);
+            read(value, record.offset + 4 + keyLength + 4);
+            return value.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the entry (" + key + ") in the cache pack (" + getDataPath() + ")", e);
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] content) {
+        try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+            sync();
+            Record previous = find(key);
+            Record record = append(key, content);
+            if (previous != null && !previous.isTombstone()) {
+                liveBytes -= previous.length;
+            }
+            liveBytes += record.length;
+            pendingRecords.put(key, record);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+            sync();
+            Record previous = find(key);
+            if (previous == null || previous.isTombstone()) {
+                return;
+            }
+            pendingRecords.put(key, append(key, null));
+            liveBytes -= previous.length;
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> getEntrySizes() {
+        Map<String, Long> sizes = new HashMap<>();
+        try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+            sync();
+            for (IndexEntry entry : getLiveEntries()) {
+                String key = readKey(entry.offset);
+                sizes.put(key, entry.length - 4 - key.getBytes(StandardCharsets.UTF_8).length - 4);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the cache pack (" + getDataPath() + ")", e);
+        }
+        return sizes;
+    }
+
+    /**
+     * Write the index and compact the data file if it has too much garbage
+     */
+    @Override
+    public synchronized void flush() {
+        if (!opened) {
+            return;
+        }
+        try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+            sync();
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        if (!pendingRecords.isEmpty()) {
+            try {
+                // The index should not point to data that are not on the disk
+                dataChannel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to write the cache pack (" + getDataPath() + ")", e);
+            }
+            List<IndexEntry> entries = getLiveEntries();
+            writeIndex(getIndexPath(generation), entries, dataLength, liveBytes);
+            long garbageBytes = dataLength - liveBytes;
+            if (garbageBytes >= COMPACT_MIN_GARBAGE_BYTES && garbageBytes > liveBytes) {
+                compact(entries);
+            }
+        }
+        release();
+    }
+
+    @Override
+    public synchronized void clear() {
+        release();
+    }
+
+    /**
+     * Copy the live entries in a new generation of the pack files
+     * and switch to it atomically
+     */
+    synchronized void compact() {
+        try (DocCacheLock ignored = DocCacheLock.acquire(lockPath)) {
+            sync();
+            compact(getLiveEntries());
+            release();
+        }
+    }
+
+    /**
+     * @return the data file in use
+     */
+    synchronized Path getDataPath() {
+        return getDataPath(generation);
+    }
+
+    private Path getDataPath(long generation) {
+        return directory.resolve(PACK_FILE_PREFIX + "." + generation + DATA_EXTENSION);
+    }
+
+    private Path getIndexPath(long generation) {
+        return directory.resolve(PACK_FILE_PREFIX + "." + generation + INDEX_EXTENSION);
+    }
+
+    private Path getCurrentPath() {
+        return directory.resolve(PACK_FILE_PREFIX + CURRENT_EXTENSION);
+    }
+
+    /**
+     * Open the generation in use
+     * (with the cache lock so that a compaction does not delete it in between)
+     */
+    private void open() {
+        if (opened) {
+            return;
+        }
+        Fs.createDirectoryIfNotExists(directory);
+        generation = readGeneration();
+        try {
+            dataChannel = FileChannel.open(getDataPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long indexedDataLength = mapIndex(dataChannel.size());
+            pendingRecords.clear();
+            scan(indexedDataLength, true);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open the cache pack (" + getDataPath(generation) + ")", e);
+        }
+        opened = true;
+    }
+
+    /**
+     * Catch up with the other processes (with the cache lock):
+     * open the new generation if the pack was compacted, read the records appended otherwise
+     */
+    private void sync() {
+        if (!opened) {
+            open();
+            return;
+        }
+        if (readGeneration() != generation) {
+            release();
+            open();
+            return;
+        }
+        try {
+            scan(dataLength, true);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the cache pack (" + getDataPath() + ")", e);
+        }
+    }
+
+    /**
+     * @return the generation recorded in the pointer file (0 if none)
+     */
+    private long readGeneration() {
+        Path currentPath = getCurrentPath();
+        if (!Files.exists(currentPath)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Fs.toString(currentPath).trim());
+        } catch (NumberFormatException e) {
+            DocLog.LOGGER.warning("The cache pack pointer (" + currentPath + ") is corrupted, the first generation is used");
+            return 0;
+        }
+    }
+
+    /**
+     * Map the index file
+     *
+     * @return the length of the data file that the index covers
+     */
+    private long mapIndex(long dataFileLength) throws IOException {
+        indexBuffer = null;
+        indexCount = 0;
+        liveBytes = 0;
+        Path indexPath = getIndexPath(generation);
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (indexChannel.size() < INDEX_HEADER_SIZE) {
+                return 0;
+            }
+            buffer = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        int count = buffer.getInt(20);
+        long indexedDataLength = buffer.getLong(4);
+        if (buffer.getInt(0) != FORMAT_VERSION
+                || indexedDataLength > dataFileLength
+                || buffer.capacity() != INDEX_HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE) {
+            // The whole data file is scanned
+            return 0;
+        }
+        indexBuffer = buffer;
+        indexCount = count;
+        liveBytes = buffer.getLong(12);
+        return indexedDataLength;
+    }
+
+    /**
+     * Scan the records that were appended after the index was written or by another process
+     *
+     * @param truncate - if true (with the cache lock), a partial record at the end is a write that did not finish and is cut.
+     *                 Without the lock, it may be a write in progress and the scan stops before it.
+     */
+    private void scan(long position, boolean truncate) throws IOException {
+        long dataFileLength = dataChannel.size();
+        while (position + 4 <= dataFileLength) {
+            int keyLength = readInt(position);
+            if (keyLength < 0 || position + 4 + keyLength + 4 > dataFileLength) {
+                break;
+            }
+            ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            read(keyBuffer, position + 4);
+            int valueLength = readInt(position + 4 + keyLength);
+            long length = 4 + keyLength + 4 + Math.max(valueLength, 0);
+            if (position + length > dataFileLength) {
+                break;
+            }
+            String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+            Record previous = find(key);
+            if (previous != null && !previous.isTombstone()) {
+                liveBytes -= previous.length;
+            }
+            Record record = new Record(position, valueLength == -1 ? -1 : length);
+            if (!record.isTombstone()) {
+                liveBytes += length;
+            }
+            pendingRecords.put(key, record);
+            position += length;
+        }
+        if (truncate && position < dataFileLength) {
+            dataChannel.truncate(position);
+        }
+        dataLength = position;
+    }
+
+    private void release() {
+        if (dataChannel != null) {
+            try {
+                dataChannel.close();
+            } catch (IOException e) {
+                DocLog.LOGGER.warning("Unable to close the cache pack (" + getDataPath() + "): " + e.getMessage());
+            }
+        }
+        dataChannel = null;
+        indexBuffer = null;
+        indexCount = 0;
+        pendingRecords.clear();
+        opened = false;
+    }
+
+    /**
+     * @return the record of the key, null if the key was never stored
+     */
+    private Record find(String key) {
+        Record record = pendingRecords.get(key);
+        if (record != null) {
+            return record;
+        }
+        if (indexBuffer == null) {
+            return null;
+        }
+        long hash = hash(key);
+        int low = 0;
+        int high = indexCount - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getIndexHash(middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        try {
+            // Two keys may have the same hash
+            for (int i = low; i < indexCount && getIndexHash(i) == hash; i++) {
+                long offset = indexBuffer.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8);
+                if (key.equals(readKey(offset))) {
+                    return new Record(offset, indexBuffer.getInt(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE + 16));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the cache pack (" + getDataPath() + ")", e);
+        }
+        return null;
+    }
+
+    private long getIndexHash(int i) {
+        return indexBuffer.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @return the entries of the index that were not replaced and the live pending records, sorted by hash
+     */
+    private List<IndexEntry> getLiveEntries() {
+        List<IndexEntry> entries = new ArrayList<>();
+        Set<Long> pendingHashes = new HashSet<>();
+        for (Map.Entry<String, Record> pending : pendingRecords.entrySet()) {
+            long hash = hash(pending.getKey());
+            pendingHashes.add(hash);
+            Record record = pending.getValue();
+            if (!record.isTombstone()) {
+                entries.add(new IndexEntry(hash, record.offset, record.length));
+            }
+        }
+        try {
+            for (int i = 0; i < indexCount; i++) {
+                int position = INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+                long hash = indexBuffer.getLong(position);
+                long offset = indexBuffer.getLong(position + 8);
+                if (pendingHashes.contains(hash) && pendingRecords.containsKey(readKey(offset))) {
+                    continue;
+                }
+                entries.add(new IndexEntry(hash, offset, indexBuffer.getInt(position + 16)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the cache pack (" + getDataPath() + ")", e);
+        }
+        entries.sort(Comparator.comparingLong((IndexEntry entry) -> entry.hash).thenComparingLong(entry -> entry.offset));
+        return entries;
+    }
+
+    private void compact(List<IndexEntry> entries) {
+        long newGeneration = generation + 1;
+        List<IndexEntry> newEntries = new ArrayList<>(entries.size());
+        long newLength = 0;
+        try {
+            Path tempDataPath = Files.createTempFile(directory, null, ".tmp");
+            try (FileChannel newChannel = FileChannel.open(tempDataPath, StandardOpenOption.WRITE)) {
+                // Copied in the order of the data file to read it sequentially
+                List<IndexEntry> byOffset = new ArrayList<>(entries);
+                byOffset.sort(Comparator.comparingLong(entry -> entry.offset));
+                for (IndexEntry entry : byOffset) {
+                    long copied = 0;
+                    while (copied < entry.length) {
+                        copied += dataChannel.transferTo(entry.offset + copied, entry.length - copied, newChannel);
+                    }
+                    newEntries.add(new IndexEntry(entry.hash, newLength, entry.length));
+                    newLength += entry.length;
+                }
+                newChannel.force(false);
+            }
+            newEntries.sort(Comparator.comparingLong((IndexEntry entry) -> entry.hash).thenComparingLong(entry -> entry.offset));
+            Files.move(tempDataPath, getDataPath(newGeneration), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeIndex(getIndexPath(newGeneration), newEntries, newLength, newLength);
+            // The switch
+            Path tempCurrentPath = Files.createTempFile(directory, null, ".tmp");
+            Files.write(tempCurrentPath, String.valueOf(newGeneration).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempCurrentPath, getCurrentPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to compact the cache pack (" + getDataPath() + ")", e);
+        }
+        long oldGeneration = generation;
+        release();
+        generation = newGeneration;
+        Fs.deleteIfExists(getDataPath(oldGeneration));
+        Fs.deleteIfExists(getIndexPath(oldGeneration));
+    }
+
+    /**
+     * Write an index (in a temporary file moved so that a reader never sees a partial index)
+     */
+    private void writeIndex(Path indexPath, List<IndexEntry> entries, long dataLength, long liveBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(dataLength);
+        buffer.putLong(liveBytes);
+        buffer.putInt(entries.size());
+        for (IndexEntry entry : entries) {
+            buffer.putLong(entry.hash);
+            buffer.putLong(entry.offset);
+            buffer.putInt((int) entry.length);
+        }
+        try {
+            Path tempPath = Files.createTempFile(directory, null, ".tmp");
+            Files.write(tempPath, buffer.array());
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the cache pack index (" + indexPath + ")", e);
+        }
+    }
+
+    /**
+     * Append a record: key length, key, value length (-1 for a tombstone), value
+     */
+    private Record append(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? 0 : value.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + keyBytes.length + 4 + valueLength);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(value == null ? -1 : value.length);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.flip();
+        long offset = dataLength;
+        try {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += dataChannel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the entry (" + key + ") in the cache pack (" + getDataPath() + ")", e);
+        }
+        dataLength += buffer.capacity();
+        return new Record(offset, value == null ? -1 : buffer.capacity());
+    }
+
+    private String readKey(long offset) throws IOException {
+        ByteBuffer keyBuffer = ByteBuffer.allocate(readInt(offset));
+        read(keyBuffer, offset + 4);
+        return new String(keyBuffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private int readInt(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        read(buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = dataChannel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                throw new IOException("Unexpected end of the cache pack at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * FNV-1a hash of the key
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static class Record {
+
+        private final long offset;
+        /**
+         * The length of the record, -1 for a tombstone
+         */
+        private final long length;
+
+        private Record(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private boolean isTombstone() {
+            return length == -1;
+        }
+
+    }
+
+    private static class IndexEntry {
+
+        private final long hash;
+        private final long offset;
+        private final long length;
+
+        private IndexEntry(long hash, long offset, long length) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+
+    }
+
+}
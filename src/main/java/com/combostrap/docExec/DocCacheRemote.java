@@ -0,0 +1,172 @@
+package com.combostrap.docExec;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A remote tier of the {@link DocCache} shared by several hosts (ie CI jobs)
+ * <p>
+ * The protocol is a content-addressed store over HTTP:
+ * <ul>
+ * <li>`GET {url}/{kind}/{key}` returns the entry (200) or 404 if unknown</li>
+ * <li>`PUT {url}/{kind}/{key}` stores the entry</li>
+ * </ul>
+ * The key is the hash of the inputs of the entry, an entry is then never modified once stored.
+ * {@link DocCacheServer} implements it.
+ * <p>
+ * The cache is local first: the remote is read on a local miss (read-through)
+ * and the stored entries are uploaded in the background (write-back) until {@link #flush()}.
+ * The remote is disabled for the rest of the run at the first connection error
+ * so that an unreachable server does not slow down every unit.
+ */
+public class DocCacheRemote {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    /**
+     * The max duration to wait for the pending uploads at flush
+     */
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI url;
+    private final boolean readOnly;
+    private final HttpClient httpClient;
+    private final List<CompletableFuture<?>> uploads = new ArrayList<>();
+    private volatile boolean disabled = false;
+
+    private DocCacheRemote(URI url, boolean readOnly) {
+        String base = url.toString();
+        this.url = URI.create(base.endsWith("/") ? base : base + "/");
+        this.readOnly = readOnly;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * @param url      - the base url of the remote cache (ie `http://host:port/`)
+     * @param readOnly - if true, the entries are downloaded but never uploaded (ie a job that should not share its outputs)
+     */
+    public static DocCacheRemote create(URI url, boolean readOnly) {
+        if (!"http".equals(url.getScheme()) && !"https".equals(url.getScheme())) {
+            throw new IllegalArgumentException("The remote cache url (" + url + ") should be an http or https url");
+        }
+        return new DocCacheRemote(url, readOnly);
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private URI getEntryUri(String kind, String key) {
+        return url.resolve(kind + "/" + key);
+    }
+
+    /**
+     * @param kind - the kind of entry (ie consoles)
+     * @param key  - the hash of the inputs of the entry
+     * @return the entry or null if the remote does not have it or is not reachable
+     */
+    public byte[] get(String kind, String key) {
+        if (disabled) {
+            return null;
+        }
+        HttpRequest request = HttpRequest.newBuilder(getEntryUri(kind, key))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200) {
+                return response.body();
+            }
+            if (response.statusCode() != 404) {
+                DocLog.LOGGER.warning("The remote cache returned the status (" + response.statusCode() + ") for the entry (" + request.uri() + ")");
+            }
+            return null;
+        } catch (IOException e) {
+            disable(e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Upload an entry in the background
+     *
+     * @param kind    - the kind of entry (ie consoles)
+     * @param key     - the hash of the inputs of the entry
+     * @param content - the entry
+     */
+    public void put(String kind, String key, byte[] content) {
+        if (disabled || readOnly) {
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(getEntryUri(kind, key))
+                .timeout(REQUEST_TIMEOUT)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                .build();
+        CompletableFuture<?> upload = httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        disable(e);
+                        return;
+                    }
+                    if (response.statusCode() / 100 != 2) {
+                        DocLog.LOGGER.warning("The remote cache returned the status (" + response.statusCode() + ") for the upload of the entry (" + request.uri() + ")");
+                    }
+                });
+        synchronized (uploads) {
+            uploads.add(upload);
+        }
+    }
+
+    /**
+     * Wait for the pending uploads
+     */
+    public void flush() {
+        List<CompletableFuture<?>> pendingUploads;
+        synchronized (uploads) {
+            pendingUploads = new ArrayList<>(uploads);
+            uploads.clear();
+        }
+        if (pendingUploads.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(pendingUploads.toArray(new CompletableFuture[0]))
+                    .get(FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Already logged by the upload
+        } catch (TimeoutException e) {
+            DocLog.LOGGER.warning("The upload to the remote cache (" + url + ") did not finish in " + FLUSH_TIMEOUT.getSeconds() + "s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void disable(Throwable e) {
+        if (disabled) {
+            return;
+        }
+        disabled = true;
+        DocLog.LOGGER.warning("The remote cache (" + url + ") is not reachable and is disabled for this run: " + e);
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A small HTTP server that implements the protocol of {@link DocCacheRemote}
+ * <p>
+ * The entries are files in a directory (`{directory}/{kind}/{key}`).
+ * It's a stand-in for a remote cache in the tests or on a LAN, it has no authentication:
+ * it listens by default on the loopback address, the stored entries should be a SHA-256 key
+ * and their size is capped so that a client cannot fill the disk with one request.
+ */
+public class DocCacheServer implements AutoCloseable {
+
+    /**
+     * A kind or a key is a path segment without any dot so that a request cannot go out of the directory
+     */
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+    /**
+     * The key of a stored entry is the hex SHA-256 of the inputs of the entry
+     */
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+    /**
+     * The default max size of an entry (16 MiB)
+     */
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+    private static final int THREAD_COUNT = 8;
+
+    private final Path directory;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+    private final long maxEntryBytes;
+
+    private DocCacheServer(Path directory, InetSocketAddress address, long maxEntryBytes) {
+        this.directory = directory;
+        this.maxEntryBytes = maxEntryBytes;
+        Fs.createDirectoryIfNotExists(directory);
+        try {
+            this.httpServer = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to start the cache server on (" + address + ")", e);
+        }
+        this.httpServer.createContext("/", this::handle);
+        this.executor = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, DocExecutor.APP_NAME + "-cache-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpServer.setExecutor(executor);
+        this.httpServer.start();
+    }
+
+    /**
+     * Start a server on the loopback address
+     *
+     * @param directory - the directory of the entries
+     * @param port      - the port (0, any free port)
+     */
+    public static DocCacheServer start(Path directory, int port) {
+        return start(directory, InetAddress.getLoopbackAddress(), port, DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * Start a server
+     *
+     * @param directory     - the directory of the entries
+     * @param bindAddress   - the address to listen on (ie the loopback address or the address of the LAN interface)
+     * @param port          - the port (0, any free port)
+     * @param maxEntryBytes - the max size of a stored entry (a bigger upload gets a 413)
+     */
+    public static DocCacheServer start(Path directory, InetAddress bindAddress, int port, long maxEntryBytes) {
+        if (maxEntryBytes <= 0) {
+            throw new IllegalArgumentException("The max entry size (" + maxEntryBytes + ") should be positive");
+        }
+        return new DocCacheServer(directory, new InetSocketAddress(bindAddress, port), maxEntryBytes);
+    }
+
+    /**
+     * @return the url to pass to {@link DocCacheRemote#create(URI, boolean)}
+     */
+    public URI getUrl() {
+        InetSocketAddress address = httpServer.getAddress();
+        String host = address.getAddress().isAnyLocalAddress() ? "localhost" : address.getAddress().getHostAddress();
+        if (host.contains(":")) {
+            // Ipv6
+            host = "[" + host + "]";
+        }
+        return URI.create("http://" + host + ":" + address.getPort() + "/");
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] segments = exchange.getRequestURI().getPath().split("/");
+            // The path starts with a slash, the first segment is empty
+            if (segments.length != 3 || !SEGMENT_PATTERN.matcher(segments[1]).matches() || !SEGMENT_PATTERN.matcher(segments[2]).matches()) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            Path entryPath = directory.resolve(segments[1]).resolve(segments[2]);
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    byte[] bytes;
+                    try {
+                        bytes = Files.readAllBytes(entryPath);
+                    } catch (NoSuchFileException e) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    if (bytes.length == 0) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream outputStream = exchange.getResponseBody()) {
+                        outputStream.write(bytes);
+                    }
+                    return;
+                case "PUT":
+                    if (!KEY_PATTERN.matcher(segments[2]).matches()) {
+                        reject(exchange, 400);
+                        return;
+                    }
+                    String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                    if (contentLength != null && parseLength(contentLength) > maxEntryBytes) {
+                        reject(exchange, 413);
+                        return;
+                    }
+                    Fs.createDirectoryIfNotExists(entryPath.getParent());
+                    // Written in a temporary file and moved so that a reader never sees a partial entry
+                    Path tempPath = Files.createTempFile(entryPath.getParent(), null, ".tmp");
+                    try {
+                        if (!copy(exchange.getRequestBody(), tempPath)) {
+                            reject(exchange, 413);
+                            return;
+                        }
+                        Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tempPath);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                    return;
+                default:
+                    exchange.sendResponseHeaders(405, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer an upload without reading its body
+     * (the connection is closed as the unread body would be taken as the next request)
+     */
+    private static void reject(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    /**
+     * @return the length or {@link Long#MAX_VALUE} if not a number (rejected)
+     */
+    private static long parseLength(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Copy a request body (the length header may be absent with a chunked body)
+     *
+     * @return false if the body is bigger than the max entry size
+     */
+    private boolean copy(InputStream requestBody, Path target) throws IOException {
+        byte[] buffer = new byte[8192];
+        long size = 0;
+        try (InputStream inputStream = requestBody;
+             OutputStream outputStream = Files.newOutputStream(target)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                size += read;
+                if (size > maxEntryBytes) {
+                    return false;
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the server
+     */
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.combostrap.docExec;
+
+import java.util.Map;
+
+/**
+ * The storage of the entries of a {@link DocCache}
+ * (the copy of the docs and the console output of the units)
+ * <p>
+ * A key is a relative path in the namespace of the cache (ie `_consoles/hash.out`).
+ */
+interface DocCacheStore {
+
+    /**
+     * @param key - the key of the entry
+     * @return the content of the entry or null if not in the store
+     */
+    byte[] get(String key);
+
+    /**
+     * Add or replace an entry
+     *
+     * @param key     - the key of the entry
+     * @param content - the content
+     */
+    void put(String key, byte[] content);
+
+    /**
+     * @param key - the key of the entry to delete (no-op if not in the store)
+     */
+    void remove(String key);
+
+    /**
+     * @return the size of the content by key of all entries
+     */
+    Map<String, Long> getEntrySizes();
+
+    /**
+     * Write the pending state and release the opened files
+     * (the store is opened again at the next access)
+     */
+    void flush();
+
+    /**
+     * Forget the state of the store before its files are deleted
+     */
+    void clear();
+
+}
@@ -0,0 +1,282 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The usage of the entries of a {@link DocCache}
+ * <p>
+ * It records the size and the last access time of the entries, least recently used first
+ * (so that the entry to evict is always the first one) and the hit and miss count of the lookups.
+ * <p>
+ * Several processes may use the same cache, the changes are then merged
+ * with the usage on disk when it is written (ie {@link #flush()}).
+ */
+public class DocCacheUsage {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path usagePath;
+    /**
+     * The entries in access order (least recently used first)
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The hit and miss count by kind of lookup
+     */
+    private final Map<String, long[]> counts = new TreeMap<>();
+    private long size = 0;
+    private final boolean loaded;
+    /**
+     * The entries stored or removed (null value) since the last write
+     */
+    private final LinkedHashMap<String, Entry> changes = new LinkedHashMap<>();
+    /**
+     * The last access time of the entries accessed since the last write
+     */
+    private final LinkedHashMap<String, Long> accesses = new LinkedHashMap<>();
+    /**
+     * The hit and miss count since the last write
+     */
+    private final Map<String, long[]> countChanges = new TreeMap<>();
+
+    private DocCacheUsage(Path usagePath) {
+        this.usagePath = usagePath;
+        this.loaded = read(entries, counts);
+        this.size = entries.values().stream().mapToLong(entry -> entry.size).sum();
+    }
+
+    /**
+     * @param usagePath - the usage file
+     * @return the usage loaded from the file (empty if the file does not exist or is corrupted)
+     */
+    static DocCacheUsage load(Path usagePath) {
+        return new DocCacheUsage(usagePath);
+    }
+
+    /**
+     * Read the usage file
+     *
+     * @return false if there is no valid usage file
+     */
+    private boolean read(Map<String, Entry> entries, Map<String, long[]> counts) {
+        if (!Files.exists(usagePath)) {
+            return false;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(usagePath)))) {
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            int countCount = inputStream.readInt();
+            for (int i = 0; i < countCount; i++) {
+                counts.put(inputStream.readUTF(), new long[]{inputStream.readLong(), inputStream.readLong()});
+            }
+            int entryCount = inputStream.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = inputStream.readUTF();
+                entries.put(key, new Entry(inputStream.readLong(), inputStream.readLong()));
+            }
+            return true;
+        } catch (IOException e) {
+            // Corrupted or deleted concurrently, the entries are listed again from the store
+            entries.clear();
+            counts.clear();
+            return false;
+        }
+    }
+
+    /**
+     * @return false if there was no usage file (the entries of the store should be added with {@link #put(String, long)})
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Record an access to an entry
+     */
+    synchronized void touch(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            // In access order
+            accesses.remove(key);
+            accesses.put(key, entry.lastAccess);
+        }
+    }
+
+    /**
+     * Record a stored entry (it becomes the most recently used)
+     */
+    synchronized void put(String key, long entrySize) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        Entry entry = new Entry(entrySize, System.currentTimeMillis());
+        entries.put(key, entry);
+        size += entrySize;
+        changes.remove(key);
+        changes.put(key, entry);
+        accesses.remove(key);
+    }
+
+    synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+        changes.put(key, null);
+        accesses.remove(key);
+    }
+
+    /**
+     * @param maxBytes     - the max size of the entries
+     * @param minAccess    - the access time (epoch millis) before which an entry is expired
+     * @param protectedKey - a key that is never returned (ie the entry just stored)
+     * @return the least recently used entry if the size is above the max size or if it is expired, null otherwise
+     */
+    synchronized String getEvictable(long maxBytes, long minAccess, String protectedKey) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Map.Entry<String, Entry> eldest = iterator.next();
+        if (eldest.getKey().equals(protectedKey)) {
+            return null;
+        }
+        if (size > maxBytes || eldest.getValue().lastAccess < minAccess) {
+            return eldest.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Count a lookup
+     *
+     * @param kind - the kind of lookup (ie doc, console, remote)
+     * @param hit  - true if the entry was found
+     */
+    synchronized void count(String kind, boolean hit) {
+        counts.computeIfAbsent(kind, k -> new long[2])[hit ? 0 : 1]++;
+        countChanges.computeIfAbsent(kind, k -> new long[2])[hit ? 0 : 1]++;
+    }
+
+    /**
+     * @return the hit and miss count by kind of lookup
+     */
+    public synchronized Map<String, long[]> getCounts() {
+        Map<String, long[]> copy = new TreeMap<>();
+        counts.forEach((kind, count) -> copy.put(kind, count.clone()));
+        return copy;
+    }
+
+    /**
+     * @return the size of the entries in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        counts.clear();
+        size = 0;
+        changes.clear();
+        accesses.clear();
+        countChanges.clear();
+    }
+
+    /**
+     * Write the usage if it has changed
+     * (in a temporary file moved so that a reader never sees a partial file)
+     * <p>
+     * The changes are applied on the usage on disk that another process may have written since the load,
+     * the caller should then hold the cache lock (ie {@link DocCacheLock})
+     */
+    synchronized void flush() {
+        if (changes.isEmpty() && accesses.isEmpty() && countChanges.isEmpty()) {
+            return;
+        }
+        LinkedHashMap<String, Entry> mergedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        Map<String, long[]> mergedCounts = new TreeMap<>();
+        read(mergedEntries, mergedCounts);
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            mergedEntries.remove(change.getKey());
+            if (change.getValue() != null) {
+                mergedEntries.put(change.getKey(), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Long> access : accesses.entrySet()) {
+            // Not added back if evicted by another process
+            Entry entry = mergedEntries.get(access.getKey());
+            if (entry != null) {
+                entry.lastAccess = Math.max(entry.lastAccess, access.getValue());
+            }
+        }
+        for (Map.Entry<String, long[]> countChange : countChanges.entrySet()) {
+            long[] count = mergedCounts.computeIfAbsent(countChange.getKey(), k -> new long[2]);
+            count[0] += countChange.getValue()[0];
+            count[1] += countChange.getValue()[1];
+        }
+        entries.clear();
+        entries.putAll(mergedEntries);
+        counts.clear();
+        counts.putAll(mergedCounts);
+        size = entries.values().stream().mapToLong(entry -> entry.size).sum();
+        try {
+            Fs.createDirectoryIfNotExists(usagePath.getParent());
+            Path tempPath = Files.createTempFile(usagePath.getParent(), null, ".tmp");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                outputStream.writeInt(FORMAT_VERSION);
+                outputStream.writeInt(counts.size());
+                for (Map.Entry<String, long[]> count : counts.entrySet()) {
+                    outputStream.writeUTF(count.getKey());
+                    outputStream.writeLong(count.getValue()[0]);
+                    outputStream.writeLong(count.getValue()[1]);
+                }
+                outputStream.writeInt(entries.size());
+                // In access order so that the order is kept at the next load
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    outputStream.writeUTF(mapEntry.getKey());
+                    outputStream.writeLong(mapEntry.getValue().size);
+                    outputStream.writeLong(mapEntry.getValue().lastAccess);
+                }
+            }
+            Files.move(tempPath, usagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changes.clear();
+            accesses.clear();
+            countChanges.clear();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the cache usage (" + usagePath + ")", e);
+        }
+    }
+
+    private static class Entry {
+
+        private final long size;
+        /**
+         * The last access time in epoch millis
+         */
+        private long lastAccess;
+
+        private Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+    }
+
+}
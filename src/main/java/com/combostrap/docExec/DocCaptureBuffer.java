@@ -0,0 +1,194 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A buffer for the console output of a unit
+ * <p>
+ * The bytes are kept in memory until a threshold, then they are spilled to a temporary file
+ * so that a unit with a huge output does not exhaust the memory.
+ * <p>
+ * The text is read back up to a max size with a truncation marker (ie {@link #toText(long, Charset)}).
+ */
+public class DocCaptureBuffer extends OutputStream {
+
+    /**
+     * The marker added at the end of a truncated output
+     */
+    static final String TRUNCATION_MARKER = "[doc-exec: output truncated at %d of %d bytes]";
+    /**
+     * The max number of bytes of a text (the max size of an array)
+     */
+    private static final long MAX_TEXT_BYTES = Integer.MAX_VALUE - 8;
+
+    private final long memoryMaxBytes;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path spillFile;
+    private OutputStream spillStream;
+    private long size = 0;
+    private boolean closed = false;
+
+    private DocCaptureBuffer(long memoryMaxBytes) {
+        this.memoryMaxBytes = memoryMaxBytes;
+    }
+
+    /**
+     * @param memoryMaxBytes - the number of bytes kept in memory before spilling to a file
+     * @return the buffer
+     */
+    static DocCaptureBuffer create(long memoryMaxBytes) {
+        return new DocCaptureBuffer(memoryMaxBytes);
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            // ie a thread of a unit that has timed out
+            return;
+        }
+        if (spillStream == null && memory.size() + (long) len > memoryMaxBytes) {
+            spill();
+        }
+        if (spillStream != null) {
+            spillStream.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Move the bytes in memory to a temporary file
+     */
+    private void spill() throws IOException {
+        spillFile = Files.createTempFile(DocExecutor.APP_NAME + "-capture-", ".out");
+        spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+        memory.writeTo(spillStream);
+        memory = null;
+    }
+
+    /**
+     * @param s - a string to add
+     */
+    synchronized void append(String s, Charset charset) {
+        byte[] bytes = s.getBytes(charset);
+        try {
+            write(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the console output", e);
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the bytes were spilled to a file
+     */
+    public synchronized boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * @param maxBytes - the max number of bytes read
+     * @param charset  - the charset of the bytes
+     * @return the text, truncated with a marker if it's bigger than the max
+     */
+    public synchronized String toText(long maxBytes, Charset charset) {
+        // A text can't be bigger than an array
+        maxBytes = Math.min(maxBytes, MAX_TEXT_BYTES);
+        long length = Math.min(size, maxBytes);
+        byte[] bytes = new byte[(int) length];
+        try {
+            if (spillStream != null) {
+                spillStream.flush();
+                try (InputStream inputStream = Files.newInputStream(spillFile)) {
+                    int read = inputStream.readNBytes(bytes, 0, bytes.length);
+                    if (read != bytes.length) {
+                        throw new IOException("The capture file (" + spillFile + ") is shorter than expected");
+                    }
+                }
+            } else {
+                System.arraycopy(memory.toByteArray(), 0, bytes, 0, bytes.length);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the console output", e);
+        }
+        if (size <= maxBytes) {
+            return new String(bytes, charset);
+        }
+        // A character may have been cut at the truncation point
+        int end = bytes.length;
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            end = utf8End(bytes);
+        }
+        return new String(bytes, 0, end, charset) + "\n" + String.format(TRUNCATION_MARKER, maxBytes, size);
+    }
+
+    /**
+     * @param bytes - UTF-8 bytes
+     * @return the length without the incomplete sequence at the end (if any)
+     */
+    static int utf8End(byte[] bytes) {
+        int lead = bytes.length - 1;
+        // Continuation bytes (ie 10xxxxxx) of the last sequence, a sequence has at most 4 bytes
+        while (lead >= 0 && lead > bytes.length - 4 && (bytes[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < 0) {
+            return bytes.length;
+        }
+        int b = bytes[lead] & 0xFF;
+        int sequenceLength;
+        if (b >= 0xF8) {
+            // Invalid, decoded as is
+            return bytes.length;
+        } else if (b >= 0xF0) {
+            sequenceLength = 4;
+        } else if (b >= 0xE0) {
+            sequenceLength = 3;
+        } else if (b >= 0xC0) {
+            sequenceLength = 2;
+        } else {
+            // Ascii or an invalid byte that is decoded as is
+            return bytes.length;
+        }
+        if (bytes.length - lead < sequenceLength) {
+            return lead;
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Delete the spill file
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } catch (IOException e) {
+                // deleted below
+            }
+            spillStream = null;
+            Fs.deleteIfExists(spillFile);
+        }
+    }
+
+}
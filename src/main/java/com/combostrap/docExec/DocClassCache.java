@@ -0,0 +1,201 @@
+package com.combostrap.docExec;
+
+
+import com.combostrap.docExec.util.Digest;
+import com.combostrap.docExec.util.Fs;
+import com.combostrap.docExec.util.Xdg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of the bytecode of the Java units
+ * <p>
+ * The key is the hash of the source of the class, the classpath and the JDK version
+ * so that a unit that has not changed is not compiled again from one run to another.
+ * <p>
+ * The entries are evicted, least recently used first, when the total size exceeds the max size.
+ */
+public class DocClassCache {
+
+    /**
+     * The directory name in the doc-exec cache home
+     * (The other directories are the doc cache namespaces, see {@link DocCache#get(String)}, they can't start with {@link DocCache#RESERVED_NAME_PREFIX})
+     */
+    static final String DIRECTORY_NAME = "_classes";
+    private static final String ENTRY_EXTENSION = ".bin";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String environmentHash;
+    /**
+     * The actual size of the cache (computed at creation, updated at each store)
+     */
+    private long size;
+
+    private DocClassCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        Fs.createDirectoryIfNotExists(this.directory);
+        this.maxBytes = maxBytes;
+        this.environmentHash = Digest.createFromString(
+                Digest.Algorithm.SHA256,
+                String.valueOf(System.getProperty("java.class.path")),
+                "\n",
+                String.valueOf(System.getProperty("java.runtime.version"))
+        ).getHashHex();
+        this.size = getEntries().stream().mapToLong(this::getSize).sum();
+    }
+
+    /**
+     * @param maxBytes - the max size of the cache in bytes
+     * @return the class cache
+     */
+    public static DocClassCache get(long maxBytes) {
+        return get(Xdg.getCacheHome(DocExecutor.APP_NAME).resolve(DIRECTORY_NAME), maxBytes);
+    }
+
+    /**
+     * @param directory - the cache directory (ie a temporary directory in a test)
+     * @param maxBytes  - the max size of the cache in bytes
+     * @return the class cache
+     */
+    static DocClassCache get(Path directory, long maxBytes) {
+        return new DocClassCache(directory, maxBytes);
+    }
+
+    /**
+     * @param code - the source code of the class
+     * @return the key of the entry
+     */
+    private String getKey(String code) {
+        return Digest.createFromString(Digest.Algorithm.SHA256, code, "\n", environmentHash).getHashHex();
+    }
+
+    private Path getEntryPath(String code) {
+        return directory.resolve(getKey(code) + ENTRY_EXTENSION);
+    }
+
+    /**
+     * @param code - the source code of the class
+     * @return the bytecode by class name or null if not in the cache
+     */
+    public Map<String, byte[]> get(String code) {
+        Path entryPath = getEntryPath(code);
+        if (!Files.exists(entryPath)) {
+            return null;
+        }
+        Map<String, byte[]> classBytes = new HashMap<>();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryPath)))) {
+            int classCount = inputStream.readInt();
+            for (int i = 0; i < classCount; i++) {
+                String className = inputStream.readUTF();
+                byte[] bytes = new byte[inputStream.readInt()];
+                inputStream.readFully(bytes);
+                classBytes.put(className, bytes);
+            }
+            // Last access for the LRU eviction
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Evicted concurrently
+            return null;
+        } catch (IOException e) {
+            // Corrupted, we compile again
+            Fs.deleteIfExists(entryPath);
+            return null;
+        }
+        return classBytes;
+    }
+
+    /**
+     * Store the bytecode of a class
+     *
+     * @param code       - the source code of the class
+     * @param classBytes - the bytecode by class name
+     */
+    public synchronized void store(String code, Map<String, byte[]> classBytes) {
+        Path entryPath = getEntryPath(code);
+        Fs.createDirectoryIfNotExists(directory);
+        try {
+            // Written in a temporary file and moved so that a reader never sees a partial entry
+            Path tempPath = Files.createTempFile(directory, null, ".tmp");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                outputStream.writeInt(classBytes.size());
+                for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+                    outputStream.writeUTF(entry.getKey());
+                    outputStream.writeInt(entry.getValue().length);
+                    outputStream.write(entry.getValue());
+                }
+            }
+            long previousSize = getSize(entryPath);
+            Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.size += getSize(entryPath) - previousSize;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to store the class in the cache (" + entryPath + ")", e);
+        }
+        evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the size is below the max size
+     */
+    private void evict() {
+        if (this.size <= this.maxBytes) {
+            return;
+        }
+        List<Path> entries = getEntries()
+                .stream()
+                .sorted(Comparator.comparing(this::getLastModifiedTime))
+                .collect(Collectors.toList());
+        for (Path entry : entries) {
+            if (this.size <= this.maxBytes) {
+                return;
+            }
+            long entrySize = getSize(entry);
+            Fs.deleteIfExists(entry);
+            this.size -= entrySize;
+        }
+    }
+
+    private List<Path> getEntries() {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream
+                    .filter(path -> path.getFileName().toString().endsWith(ENTRY_EXTENSION))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long getSize(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * @return the size of the cache in bytes
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    public List<Path> purgeAll() {
+        this.size = 0;
+        return Fs.deleteIfExists(directory, true);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.combostrap.docExec;
+
+import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+
+/**
+ * A file object used to represent a compiled class in memory.
+ * The compiler writes the bytecode in it via {@link DocMemoryFileManager}
+ * Therefore no class file is created.
+ */
+public class DocClassFile extends SimpleJavaFileObject {
+
+    private final String className;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    /**
+     * @param className the binary name of the class
+     */
+    DocClassFile(String className) {
+        super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension),
+                Kind.CLASS);
+        this.className = className;
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+        return bytes;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the bytecode
+     */
+    public byte[] getBytes() {
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.combostrap.docExec;
+
+import java.util.Map;
+
+/**
+ * A class loader that defines the classes from their bytecode in memory
+ * (ie compiled with {@link DocMemoryFileManager})
+ * <p>
+ * The exit calls are rewritten (ie {@link DocExitRewriter})
+ * but not the exit calls of the classes loaded by the parent (ie a library).
+ * A library exit ends the JVM, use {@link DocExecutor#setJavaWorkers(int) workers} to end only a worker.
+ */
+public class DocClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classBytes;
+
+    /**
+     * @param classBytes - the bytecode by binary class name
+     * @param parent     - the parent class loader
+     */
+    DocClassLoader(Map<String, byte[]> classBytes, ClassLoader parent) {
+        super(parent);
+        this.classBytes = classBytes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classBytes.get(name);
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        try {
+            bytes = DocExitRewriter.rewrite(bytes);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("The exit calls of the class (" + name + ") could not be rewritten", e);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+}
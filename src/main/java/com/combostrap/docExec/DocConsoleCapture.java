@@ -0,0 +1,194 @@
+package com.combostrap.docExec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * A console capture by thread
+ * <p>
+ * `System.out` and `System.err` are replaced once per JVM by a stream that
+ * sends the writes of a thread to its own buffer if a capture was started in this thread
+ * or to the original stream otherwise.
+ * <p>
+ * Units can then run in parallel without mixing their output
+ * and without swapping the streams of the whole JVM at each execution.
+ * <p>
+ * The capture is inherited by the threads created during the capture
+ * until it's closed: a thread that outlives the unit (ie a pool or a timer thread)
+ * writes then to the original stream and not in the buffer of a finished unit.
+ * <p>
+ * The output is kept in a {@link DocCaptureBuffer} that spills to a temporary file when it's too big.
+ */
+public class DocConsoleCapture implements AutoCloseable {
+
+    private static final InheritableThreadLocal<DocConsoleCapture> THREAD_CAPTURE = new InheritableThreadLocal<>();
+
+    private static PrintStream routingOut;
+    private static PrintStream routingErr;
+
+    private final DocCaptureBuffer buffer;
+    private final long maxBytes;
+    private final boolean captureStdErr;
+    private final DocConsoleCapture previousCapture;
+    /**
+     * Set at close (guarded by the buffer lock)
+     */
+    private volatile boolean closed = false;
+
+    private DocConsoleCapture(boolean captureStdErr, long memoryMaxBytes, long maxBytes) {
+        this.captureStdErr = captureStdErr;
+        this.buffer = DocCaptureBuffer.create(memoryMaxBytes);
+        this.maxBytes = maxBytes;
+        this.previousCapture = THREAD_CAPTURE.get();
+    }
+
+    /**
+     * Start a capture for the current thread
+     *
+     * @param captureStdErr - if true, the std err is added to the capture
+     * @return the capture to close when the execution is done
+     */
+    public static DocConsoleCapture start(boolean captureStdErr) {
+        return start(captureStdErr, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Start a capture for the current thread
+     *
+     * @param captureStdErr  - if true, the std err is added to the capture
+     * @param memoryMaxBytes - the number of bytes kept in memory before spilling to a temporary file
+     * @param maxBytes       - the max number of bytes returned by {@link #getOutput()}
+     * @return the capture to close when the execution is done
+     */
+    public static DocConsoleCapture start(boolean captureStdErr, long memoryMaxBytes, long maxBytes) {
+        install();
+        DocConsoleCapture capture = new DocConsoleCapture(captureStdErr, memoryMaxBytes, maxBytes);
+        THREAD_CAPTURE.set(capture);
+        return capture;
+    }
+
+    /**
+     * Install the routing streams
+     * <p>
+     * They are installed again if another code has replaced them (ie a test that captures the console)
+     */
+    private static synchronized void install() {
+        if (System.out != routingOut) {
+            routingOut = new PrintStream(new RoutingOutputStream(System.out, false), true);
+            System.setOut(routingOut);
+        }
+        if (System.err != routingErr) {
+            routingErr = new PrintStream(new RoutingOutputStream(System.err, true), true);
+            System.setErr(routingErr);
+        }
+    }
+
+    /**
+     * @return the captured output (truncated with a marker if bigger than the max)
+     */
+    public String getOutput() {
+        flush();
+        return buffer.toText(maxBytes, Charset.defaultCharset());
+    }
+
+    /**
+     * @return the number of bytes captured
+     */
+    public long size() {
+        flush();
+        return buffer.size();
+    }
+
+    private void flush() {
+        System.out.flush();
+        System.err.flush();
+    }
+
+    /**
+     * Stop the capture for the current thread
+     */
+    @Override
+    public void close() {
+        flush();
+        if (this.previousCapture == null) {
+            THREAD_CAPTURE.remove();
+        } else {
+            THREAD_CAPTURE.set(this.previousCapture);
+        }
+        synchronized (buffer) {
+            closed = true;
+            buffer.close();
+        }
+    }
+
+    /**
+     * @return false if the capture is closed (the bytes were not written)
+     */
+    private boolean write(byte[] b, int off, int len) {
+        synchronized (buffer) {
+            if (closed) {
+                return false;
+            }
+            try {
+                buffer.write(b, off, len);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to capture the console output", e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The stream that sends the bytes to the capture of the current thread
+     * or to the original stream
+     */
+    private static class RoutingOutputStream extends OutputStream {
+
+        private final PrintStream original;
+        private final boolean isStdErr;
+
+        private RoutingOutputStream(PrintStream original, boolean isStdErr) {
+            this.original = original;
+            this.isStdErr = isStdErr;
+        }
+
+        private DocConsoleCapture getCapture() {
+            DocConsoleCapture capture = THREAD_CAPTURE.get();
+            if (capture == null) {
+                return null;
+            }
+            if (capture.closed) {
+                // Inherited by a thread that outlives the capture
+                THREAD_CAPTURE.remove();
+                return null;
+            }
+            if (isStdErr && !capture.captureStdErr) {
+                return null;
+            }
+            return capture;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            DocConsoleCapture capture = getCapture();
+            if (capture != null && capture.write(b, off, len)) {
+                return;
+            }
+            original.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            original.flush();
+        }
+
+    }
+
+}
@@ -1,10 +1,21 @@
 package com.combostrap.docExec;
 
 
+import com.combostrap.docExec.util.Digest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @SuppressWarnings("unused")
@@ -12,10 +23,30 @@ public class DocExecutor {
 
 
     public static final String APP_NAME = "doc-exec";
+    /**
+     * The system properties that change the output of a unit (ie the JDK)
+     * <p>
+     * The classpath is hashed by content and the working directory is not part of the key
+     * so that a cache entry is shared between hosts (ie {@link #getUnitCacheSettings()})
+     */
+    private static final List<String> UNIT_CACHE_SYSTEM_PROPERTIES = Arrays.asList(
+            "java.runtime.version",
+            "java.vendor",
+            "os.name",
+            "os.arch",
+            "file.encoding",
+            "line.separator",
+            "user.language",
+            "user.country",
+            "user.timezone"
+    );
+    /**
+     * The hash of the content of the classpath entries and of the commands by path
+     * (they do not change during the life of the JVM)
+     */
+    private static final Map<Path, String> CONTENT_HASHES = new ConcurrentHashMap<>();
     private final String name;
 
-
-    private final DocSecurityManager securityManager;
     private boolean captureStdErr = true;
 
     private final Map<String, Class<?>> shellCommandMainClassMap = new HashMap<>();
@@ -33,6 +64,70 @@ public class DocExecutor {
      * Trim leading and trailing line in the console output
      */
     private boolean trimLeadingTrailingLines = true;
+    /**
+     * The number of docs executed concurrently
+     */
+    private int parallelism = 1;
+    /**
+     * Compile the Java units in memory (true) or in a class directory (false)
+     */
+    private boolean compileInMemory = true;
+    /**
+     * The max size of the compiled class cache
+     */
+    private long classCacheMaxBytes = 100 * 1024 * 1024;
+    /**
+     * The number of worker JVM that execute the Java units (0, in the doc-exec JVM)
+     */
+    private int javaWorkers = 0;
+    /**
+     * The number of units executed by a worker JVM before it's replaced
+     */
+    private int javaWorkerMaxUnits = 100;
+    /**
+     * Execute the bash units of a doc in one bash process
+     */
+    private boolean shellSession = false;
+    /**
+     * Execute each bash unit of a session in a subshell
+     */
+    private boolean shellSessionIsolated = false;
+    /**
+     * The timeout of a unit without timeout attribute (null, no timeout)
+     */
+    private Duration unitTimeout = null;
+    /**
+     * The number of bytes of the console output of a unit kept in memory before spilling to a temporary file
+     */
+    private long consoleMemoryMaxBytes = 1024 * 1024;
+    /**
+     * The max number of bytes of the console output of a unit written in the doc (no limit by default)
+     */
+    private long consoleMaxBytes = Long.MAX_VALUE;
+    /**
+     * The number of threads that pump the output of the shell commands (0, threads by process)
+     */
+    private int processPumpThreads = 0;
+    /**
+     * Pack the cache entries in a few files instead of a file by entry
+     */
+    private boolean cachePack = false;
+    /**
+     * The max size of the doc cache
+     */
+    private long cacheMaxBytes = 512 * 1024 * 1024;
+    /**
+     * The max duration without access of a doc cache entry (null, no limit)
+     */
+    private Duration cacheMaxAge = Duration.ofDays(30);
+    /**
+     * The url of the remote cache (null, none)
+     */
+    private URI cacheRemoteUrl = null;
+    /**
+     * Download from the remote cache without uploading
+     */
+    private boolean cacheRemoteReadOnly = false;
 
 
     /**
@@ -61,19 +156,7 @@ public class DocExecutor {
      */
     private DocExecutor(String name) {
         this.name = name;
-        // Managing System.exit in code execution with the security manager
-        securityManager = DocSecurityManager.create();
-        // Will be Removed in JDK 24 https://openjdk.org/jeps/486
-        // In most cases, we found that issues that seemed to need interception could be adequately addressed outside the JDK,
-        // using techniques such as:
-        // * source code modification,
-        // * static code analysis and rewriting,
-        // * or agent-based dynamic code rewriting at class load time.
-        // Example: Agent that blocks code from calling System::exit
-        // The transformer rewrites every call to System.exit(int) into throw new RuntimeException("System.exit not allowed").
-        // https://openjdk.org/jeps/486#Appendix
-        // https://github.com/stefanbirkner/system-lambda/issues/27
-        System.setSecurityManager(securityManager);
+        // System.exit in code execution is managed by rewriting the bytecode at load time (ie DocExitRewriter)
     }
 
 
@@ -95,6 +178,82 @@ public class DocExecutor {
         return this;
     }
 
+    /**
+     * @param cachePack - if true, the cache entries are packed in an append-only data file with a mapped index
+     *                  (ie {@link DocCachePack}) instead of a file by entry
+     * @return a {@link DocExecutor} for chaining
+     */
+    public DocExecutor setCachePack(boolean cachePack) {
+        this.cachePack = cachePack;
+        return this;
+    }
+
+    public boolean getIsCachePack() {
+        return cachePack;
+    }
+
+    /**
+     * @param cacheMaxBytes - the max size in bytes of the doc cache, the least recently used entries are evicted above
+     * @return a {@link DocExecutor} for chaining
+     */
+    public DocExecutor setCacheMaxBytes(long cacheMaxBytes) {
+        if (cacheMaxBytes < 0) {
+            throw new IllegalArgumentException("The cache max bytes (" + cacheMaxBytes + ") should be positive");
+        }
+        this.cacheMaxBytes = cacheMaxBytes;
+        return this;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * @param cacheMaxAge - the max duration without access of a doc cache entry before it's evicted (null or zero, no limit)
+     * @return a {@link DocExecutor} for chaining
+     */
+    public DocExecutor setCacheMaxAge(Duration cacheMaxAge) {
+        if (cacheMaxAge != null && cacheMaxAge.isNegative()) {
+            throw new IllegalArgumentException("The cache max age (" + cacheMaxAge + ") should be positive");
+        }
+        if (cacheMaxAge != null && cacheMaxAge.isZero()) {
+            cacheMaxAge = null;
+        }
+        this.cacheMaxAge = cacheMaxAge;
+        return this;
+    }
+
+    public Duration getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @param cacheRemoteUrl - the url of a remote cache that shares the console output of the units between hosts
+     *                       (ie {@link DocCacheRemote}, null for none)
+     * @return a {@link DocExecutor} for chaining
+     */
+    public DocExecutor setCacheRemoteUrl(URI cacheRemoteUrl) {
+        this.cacheRemoteUrl = cacheRemoteUrl;
+        return this;
+    }
+
+    public URI getCacheRemoteUrl() {
+        return cacheRemoteUrl;
+    }
+
+    /**
+     * @param cacheRemoteReadOnly - if true, the console output are downloaded from the remote cache but not uploaded
+     * @return a {@link DocExecutor} for chaining
+     */
+    public DocExecutor setCacheRemoteReadOnly(boolean cacheRemoteReadOnly) {
+        this.cacheRemoteReadOnly = cacheRemoteReadOnly;
+        return this;
+    }
+
+    public boolean getIsCacheRemoteReadOnly() {
+        return cacheRemoteReadOnly;
+    }
+
     /**
      * Build the DocExecutorRun instance
      *
@@ -123,6 +282,9 @@ public class DocExecutor {
      * If the {@link DocUnit#getLanguage() language} is a shell language (dos or bash),
      * * the first name that we called cli is replaced by the mainClass
      * * the others args forms the args that are passed to the main method of the mainClass
+     * <p></p>
+     * The exit calls of the classes of the package of the main class are rewritten (ie {@link DocMainClassLoader}),
+     * an exit in another package (ie a library) ends the JVM.
      *
      * @param command   - the name of the command (ie the first word in a command statement)
      * @param mainClazz - a main class that will receive the parsed arguments
@@ -221,6 +383,13 @@ public class DocExecutor {
         return this.shellCommandAbsolutePathMap.get(commandName);
     }
 
+    /**
+     * @return the Path of the commands on the system by command name
+     */
+    protected Map<String, Path> getShellCommandPaths() {
+        return Collections.unmodifiableMap(this.shellCommandAbsolutePathMap);
+    }
+
     /**
      * @param commandName - the cli/exec
      * @return the main class that implements a cli/exec
@@ -239,10 +408,6 @@ public class DocExecutor {
         return executeViaShellBinary;
     }
 
-    protected DocSecurityManager getSecurityManager() {
-        return this.securityManager;
-    }
-
 
     public DocExecutor setContentShrinkWarning(boolean b) {
         this.contentShrinkingWarning = b;
@@ -331,4 +496,246 @@ public class DocExecutor {
     public boolean getTrimLeadingAndTrailingLines() {
         return this.trimLeadingTrailingLines;
     }
+
+    /**
+     * @param parallelism - the number of docs executed concurrently (1, the default, executes them one after the other)
+     * @return the object for chaining
+     * @throws IllegalArgumentException - if the parallelism is lower than 1
+     */
+    public DocExecutor setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism (" + parallelism + ") should be greater or equal to 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @param compileInMemory - if true (default), the Java units are compiled and loaded in memory, otherwise the class files are written in a temporary directory
+     * @return the object for chaining
+     */
+    public DocExecutor setCompileInMemory(boolean compileInMemory) {
+        this.compileInMemory = compileInMemory;
+        return this;
+    }
+
+    public boolean getIsCompileInMemory() {
+        return this.compileInMemory;
+    }
+
+    /**
+     * @param classCacheMaxBytes - the max size in bytes of the cache of compiled Java units (used when the cache is enabled)
+     * @return the object for chaining
+     */
+    public DocExecutor setClassCacheMaxBytes(long classCacheMaxBytes) {
+        if (classCacheMaxBytes < 0) {
+            throw new IllegalArgumentException("The class cache max bytes (" + classCacheMaxBytes + ") should be positive");
+        }
+        this.classCacheMaxBytes = classCacheMaxBytes;
+        return this;
+    }
+
+    public long getClassCacheMaxBytes() {
+        return this.classCacheMaxBytes;
+    }
+
+    /**
+     * @param javaWorkers - the number of worker JVM that execute the Java units.
+     *                    0, the default, executes them in the doc-exec JVM.
+     *                    With workers, the static state of a unit does not leak in doc-exec
+     *                    and a `System.exit` does not need the security manager.
+     *                    An exit in a library (not rewritten) ends only the worker that is then replaced.
+     * @return the object for chaining
+     */
+    public DocExecutor setJavaWorkers(int javaWorkers) {
+        if (javaWorkers < 0) {
+            throw new IllegalArgumentException("The number of Java workers (" + javaWorkers + ") should be positive");
+        }
+        this.javaWorkers = javaWorkers;
+        return this;
+    }
+
+    public int getJavaWorkers() {
+        return this.javaWorkers;
+    }
+
+    /**
+     * @param javaWorkerMaxUnits - the number of units executed by a worker JVM before it's replaced by a new one
+     * @return the object for chaining
+     */
+    public DocExecutor setJavaWorkerMaxUnits(int javaWorkerMaxUnits) {
+        if (javaWorkerMaxUnits < 1) {
+            throw new IllegalArgumentException("The max units by Java worker (" + javaWorkerMaxUnits + ") should be greater or equal to 1");
+        }
+        this.javaWorkerMaxUnits = javaWorkerMaxUnits;
+        return this;
+    }
+
+    public int getJavaWorkerMaxUnits() {
+        return this.javaWorkerMaxUnits;
+    }
+
+    /**
+     * @param shellSession - if true, the bash units of a doc are executed one after the other in the same bash process
+     *                     instead of starting a bash process by unit (ie {@link DocShellSession})
+     * @return the object for chaining
+     */
+    public DocExecutor setShellSession(boolean shellSession) {
+        this.shellSession = shellSession;
+        return this;
+    }
+
+    public boolean getIsShellSession() {
+        return this.shellSession;
+    }
+
+    /**
+     * @param shellSessionIsolated - if true, the variables and the working directory set by a bash unit
+     *                             are not kept for the next units of the session
+     * @return the object for chaining
+     */
+    public DocExecutor setShellSessionIsolated(boolean shellSessionIsolated) {
+        this.shellSessionIsolated = shellSessionIsolated;
+        return this;
+    }
+
+    public boolean getIsShellSessionIsolated() {
+        return this.shellSessionIsolated;
+    }
+
+    /**
+     * @param unitTimeout - the max duration of a unit execution when the unit has no timeout attribute (null or zero, no timeout)
+     * @return the object for chaining
+     */
+    public DocExecutor setUnitTimeout(Duration unitTimeout) {
+        if (unitTimeout != null && unitTimeout.isNegative()) {
+            throw new IllegalArgumentException("The unit timeout (" + unitTimeout + ") should be positive");
+        }
+        this.unitTimeout = unitTimeout;
+        return this;
+    }
+
+    public Duration getUnitTimeout() {
+        return this.unitTimeout;
+    }
+
+    /**
+     * @param consoleMemoryMaxBytes - the number of bytes of the console output of a unit kept in memory, the rest is spilled to a temporary file
+     * @return the object for chaining
+     */
+    public DocExecutor setConsoleMemoryMaxBytes(long consoleMemoryMaxBytes) {
+        if (consoleMemoryMaxBytes < 0) {
+            throw new IllegalArgumentException("The console memory max bytes (" + consoleMemoryMaxBytes + ") should be positive");
+        }
+        this.consoleMemoryMaxBytes = consoleMemoryMaxBytes;
+        return this;
+    }
+
+    public long getConsoleMemoryMaxBytes() {
+        return this.consoleMemoryMaxBytes;
+    }
+
+    /**
+     * @param consoleMaxBytes - the max number of bytes of the console output of a unit written in the doc, the output is truncated with a marker
+     *                        (no limit by default)
+     * @return the object for chaining
+     */
+    public DocExecutor setConsoleMaxBytes(long consoleMaxBytes) {
+        if (consoleMaxBytes < 1) {
+            throw new IllegalArgumentException("The console max bytes (" + consoleMaxBytes + ") should be positive");
+        }
+        this.consoleMaxBytes = consoleMaxBytes;
+        return this;
+    }
+
+    public long getConsoleMaxBytes() {
+        return this.consoleMaxBytes;
+    }
+
+    /**
+     * @param processPumpThreads - the number of event loop threads that read the output of all shell commands (0, the default, uses two threads by process)
+     * @return the object for chaining
+     */
+    public DocExecutor setProcessPumpThreads(int processPumpThreads) {
+        if (processPumpThreads < 0) {
+            throw new IllegalArgumentException("The number of process pump threads (" + processPumpThreads + ") should be positive");
+        }
+        this.processPumpThreads = processPumpThreads;
+        return this;
+    }
+
+    public int getProcessPumpThreads() {
+        return this.processPumpThreads;
+    }
+
+    /**
+     * @return the settings that change the output of a unit
+     * (part of the key of the unit execution cache, see {@link DocCache#getUnitConsole(String)})
+     */
+    String getUnitCacheSettings() {
+        StringBuilder systemProperties = new StringBuilder();
+        for (String name : UNIT_CACHE_SYSTEM_PROPERTIES) {
+            systemProperties.append(name).append('=').append(System.getProperty(name)).append(';');
+        }
+        // The paths are host dependent, their content is not
+        List<String> classPathHashes = new ArrayList<>();
+        String classPath = System.getProperty("java.class.path");
+        if (classPath != null && !classPath.isEmpty()) {
+            for (String classPathEntry : classPath.split(File.pathSeparator)) {
+                classPathHashes.add(getContentHash(Paths.get(classPathEntry)));
+            }
+        }
+        Map<String, String> commandHashes = new TreeMap<>();
+        for (Map.Entry<String, Path> command : this.shellCommandAbsolutePathMap.entrySet()) {
+            commandHashes.put(command.getKey(), getContentHash(command.getValue()));
+        }
+        return systemProperties
+                + "classPath=" + classPathHashes
+                + ";captureStdErr=" + this.captureStdErr
+                + ";mainClasses=" + new TreeMap<>(this.shellCommandMainClassMap)
+                + ";paths=" + commandHashes
+                + ";shellBinary=" + new TreeMap<>(this.shellCommandUseShellBinaryMap)
+                + ";shellSession=" + this.shellSession
+                + ";shellSessionIsolated=" + this.shellSessionIsolated
+                + ";consoleMaxBytes=" + this.consoleMaxBytes;
+    }
+
+    /**
+     * @param path - a file or a directory
+     * @return the hash of the content of the file or of the relative paths and the content of the files of the directory
+     * (the same on all hosts, the path is not in the hash)
+     */
+    static String getContentHash(Path path) {
+        return CONTENT_HASHES.computeIfAbsent(path.toAbsolutePath().normalize(), absolutePath -> {
+            try {
+                if (!Files.isDirectory(absolutePath)) {
+                    return Digest.createFromPath(Digest.Algorithm.SHA256, absolutePath).getHashHex();
+                }
+                // The files by relative path in the same order on all hosts
+                Map<String, Path> files = new TreeMap<>();
+                try (Stream<Path> walk = Files.walk(absolutePath)) {
+                    for (Path file : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                        files.put(absolutePath.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                    }
+                }
+                StringBuilder directoryContent = new StringBuilder();
+                for (Map.Entry<String, Path> file : files.entrySet()) {
+                    directoryContent
+                            .append(file.getKey())
+                            .append('=')
+                            .append(Digest.createFromPath(Digest.Algorithm.SHA256, file.getValue()).getHashHex())
+                            .append(';');
+                }
+                return Digest.createFromString(Digest.Algorithm.SHA256, directoryContent.toString()).getHashHex();
+            } catch (NoSuchFileException e) {
+                return "missing";
+            } catch (IOException e) {
+                throw new RuntimeException("The content of the path (" + absolutePath + ") could not be hashed", e);
+            }
+        });
+    }
 }
@@ -1,12 +1,15 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.picoli.DurationConverter;
 import com.combostrap.docExec.picoli.LogLevelConverter;
 import com.combostrap.docExec.util.JavaEnvs;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,7 +26,8 @@ import java.util.logging.Level;
         subcommands = {
                 DocExecutorCliRunCommand.class,
                 DocExecutorCliEnvCommand.class,
-                DocExecutorCliResultCommand.class
+                DocExecutorCliResultCommand.class,
+                DocExecutorCliCacheCommand.class
         }
 )
 public class DocExecutorCli implements Callable<Integer> {
@@ -69,6 +73,30 @@ public class DocExecutorCli implements Callable<Integer> {
     )
     private boolean enableCache = true;
 
+    @CommandLine.Option(names = {"--cache-pack"},
+            defaultValue = "false",
+            description = "Pack the cache entries in an append-only data file with an index instead of a file by entry")
+    private boolean cachePack = false;
+
+    @CommandLine.Option(names = {"--cache-max-bytes"},
+            defaultValue = "536870912",
+            description = "The max size in bytes of the doc cache (the least recently used entries are evicted)")
+    private long cacheMaxBytes = 536870912;
+
+    @CommandLine.Option(names = {"--cache-max-age"},
+            defaultValue = "30d",
+            description = "The max duration without access of a doc cache entry (ie 12h, 30d, 0 for no limit)")
+    private Duration cacheMaxAge;
+
+    @CommandLine.Option(names = {"--cache-remote-url"},
+            description = "The url of a remote cache that shares the console output of the units between hosts (ie http://host:8080/, see the cache serve command)")
+    private URI cacheRemoteUrl;
+
+    @CommandLine.Option(names = {"--cache-remote-read-only"},
+            defaultValue = "false",
+            description = "Download from the remote cache but do not upload")
+    private boolean cacheRemoteReadOnly = false;
+
     @CommandLine.Option(names = {"--no-stop"},
             defaultValue = "true",
             description = "Do not stop the execution at the first error or warning")
@@ -111,6 +139,62 @@ public class DocExecutorCli implements Callable<Integer> {
     )
     private boolean trimLeadingTrailingEmptyLines = true;
 
+    @CommandLine.Option(
+            names = {"--parallelism", "-p"},
+            description = "The number of docs executed concurrently",
+            defaultValue = "1"
+    )
+    private int parallelism = 1;
+
+    @CommandLine.Option(names = {"--no-compile-in-memory"},
+            defaultValue = "true",
+            description = "Write the classes of the Java code in a temporary directory instead of compiling them in memory")
+    private boolean compileInMemory = true;
+
+    @CommandLine.Option(names = {"--class-cache-max-bytes"},
+            defaultValue = "104857600",
+            description = "The max size in bytes of the cache of compiled Java code")
+    private long classCacheMaxBytes = 104857600;
+
+    @CommandLine.Option(names = {"--java-workers"},
+            defaultValue = "0",
+            description = "The number of worker JVM that execute the Java code (0 executes it in the doc-exec JVM)")
+    private int javaWorkers = 0;
+
+    @CommandLine.Option(names = {"--java-worker-max-units"},
+            defaultValue = "100",
+            description = "The number of Java code executed by a worker JVM before it's replaced")
+    private int javaWorkerMaxUnits = 100;
+
+    @CommandLine.Option(names = {"--shell-session"},
+            defaultValue = "false",
+            description = "Execute the bash code of a doc in one bash process")
+    private boolean shellSession = false;
+
+    @CommandLine.Option(names = {"--shell-session-isolated"},
+            defaultValue = "false",
+            description = "In a shell session, execute each bash code in a subshell so that its variables and working directory are not kept")
+    private boolean shellSessionIsolated = false;
+
+    @CommandLine.Option(names = {"--unit-timeout"},
+            description = "The max duration of a unit execution if the unit has no timeout attribute (ie 500ms, 30s, 5m)")
+    private Duration unitTimeout;
+
+    @CommandLine.Option(names = {"--console-memory-max-bytes"},
+            defaultValue = "1048576",
+            description = "The number of bytes of the console output of a unit kept in memory before spilling to a temporary file")
+    private long consoleMemoryMaxBytes = 1048576;
+
+    @CommandLine.Option(names = {"--console-max-bytes"},
+            defaultValue = "9223372036854775807",
+            description = "The max number of bytes of the console output of a unit written in the doc (the output is truncated, no limit by default)")
+    private long consoleMaxBytes = Long.MAX_VALUE;
+
+    @CommandLine.Option(names = {"--process-pump-threads"},
+            defaultValue = "0",
+            description = "The number of threads that read the output of all shell commands (0 uses two threads by command)")
+    private int processPumpThreads = 0;
+
     @CommandLine.Option(names = {"-D", "--system-property"}, description = "Set system property (key=value)")
     private Map<String, String> systemProperties = new HashMap<>();
 
@@ -140,6 +224,11 @@ public class DocExecutorCli implements Callable<Integer> {
                 .setDryRun(docExecutorCli.isDryRun())
                 .setCaptureStdErr(docExecutorCli.isCaptureStdErr())
                 .setEnableCache(docExecutorCli.isEnableCache())
+                .setCachePack(docExecutorCli.isCachePack())
+                .setCacheMaxBytes(docExecutorCli.getCacheMaxBytes())
+                .setCacheMaxAge(docExecutorCli.getCacheMaxAge())
+                .setCacheRemoteUrl(docExecutorCli.getCacheRemoteUrl())
+                .setCacheRemoteReadOnly(docExecutorCli.isCacheRemoteReadOnly())
                 .setStopRunAtFirstErrorOrWarning(docExecutorCli.isStopRunAtFirstError())
                 .setSearchFilePaths(docExecutorCli.getSearchInlineFilePaths())
                 .setSearchDocPath(docExecutorCli.getSearchDocPath())
@@ -147,7 +236,18 @@ public class DocExecutorCli implements Callable<Integer> {
                 .setContentShrinkWarning(docExecutorCli.isContentShrinkingWarning())
                 .setResumeFrom(docExecutorCli.getResumeFrom())
                 .setPurgeCache(docExecutorCli.isPurgeCache())
-                .setTrimLeadingTrailingLines(docExecutorCli.getTrimLeadingTrailingLines());
+                .setTrimLeadingTrailingLines(docExecutorCli.getTrimLeadingTrailingLines())
+                .setParallelism(docExecutorCli.getParallelism())
+                .setCompileInMemory(docExecutorCli.isCompileInMemory())
+                .setClassCacheMaxBytes(docExecutorCli.getClassCacheMaxBytes())
+                .setJavaWorkers(docExecutorCli.getJavaWorkers())
+                .setJavaWorkerMaxUnits(docExecutorCli.getJavaWorkerMaxUnits())
+                .setShellSession(docExecutorCli.isShellSession())
+                .setShellSessionIsolated(docExecutorCli.isShellSessionIsolated())
+                .setUnitTimeout(docExecutorCli.getUnitTimeout())
+                .setConsoleMemoryMaxBytes(docExecutorCli.getConsoleMemoryMaxBytes())
+                .setConsoleMaxBytes(docExecutorCli.getConsoleMaxBytes())
+                .setProcessPumpThreads(docExecutorCli.getProcessPumpThreads());
 
         // Set system properties
         for (Map.Entry<String, String> entry : docExecutorCli.getSystemProperties().entrySet()) {
@@ -182,6 +282,50 @@ public class DocExecutorCli implements Callable<Integer> {
         return this.trimLeadingTrailingEmptyLines;
     }
 
+    public long getClassCacheMaxBytes() {
+        return classCacheMaxBytes;
+    }
+
+    public Duration getUnitTimeout() {
+        return unitTimeout;
+    }
+
+    public long getConsoleMemoryMaxBytes() {
+        return consoleMemoryMaxBytes;
+    }
+
+    public long getConsoleMaxBytes() {
+        return consoleMaxBytes;
+    }
+
+    public int getProcessPumpThreads() {
+        return processPumpThreads;
+    }
+
+    public boolean isShellSession() {
+        return shellSession;
+    }
+
+    public boolean isShellSessionIsolated() {
+        return shellSessionIsolated;
+    }
+
+    public int getJavaWorkers() {
+        return javaWorkers;
+    }
+
+    public int getJavaWorkerMaxUnits() {
+        return javaWorkerMaxUnits;
+    }
+
+    public boolean isCompileInMemory() {
+        return compileInMemory;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     private String getResumeFrom() {
         return resumeFrom;
     }
@@ -208,6 +352,26 @@ public class DocExecutorCli implements Callable<Integer> {
         return enableCache;
     }
 
+    public boolean isCachePack() {
+        return cachePack;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public Duration getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public URI getCacheRemoteUrl() {
+        return cacheRemoteUrl;
+    }
+
+    public boolean isCacheRemoteReadOnly() {
+        return cacheRemoteReadOnly;
+    }
+
     public boolean isStopRunAtFirstError() {
         return stopRunAtFirstError;
     }
@@ -274,7 +438,8 @@ public class DocExecutorCli implements Callable<Integer> {
 
 
         CommandLine commandLine = new CommandLine(new DocExecutorCli())
-                .registerConverter(Level.class, new LogLevelConverter());
+                .registerConverter(Level.class, new LogLevelConverter())
+                .registerConverter(Duration.class, new DurationConverter());
 
         /**
          * Picocli catch the exception by default
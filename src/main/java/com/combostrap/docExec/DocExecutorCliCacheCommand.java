@@ -0,0 +1,41 @@
+package com.combostrap.docExec;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "cache",
+        description = "Manage the doc cache",
+        subcommands = {
+                DocExecutorCliCacheStatsCommand.class,
+                DocExecutorCliCacheServeCommand.class,
+                DocExecutorCliCacheExportCommand.class,
+                DocExecutorCliCacheImportCommand.class
+        }
+)
+public class DocExecutorCliCacheCommand implements Callable<Integer> {
+
+    public static final String CACHE_COMMAND_NAME = "cache";
+
+    @ParentCommand
+    private DocExecutorCli parent;
+
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    @Override
+    public Integer call() {
+
+        spec.commandLine().usage(System.out);
+        return 0;
+
+    }
+
+    public DocExecutorCli getParent() {
+        return parent;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.combostrap.docExec;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "export",
+        description = "Write the doc cache in a bundle file (ie to seed the cache of a CI runner)"
+)
+public class DocExecutorCliCacheExportCommand implements Callable<Integer> {
+
+    public static final String EXPORT_COMMAND_NAME = "export";
+
+    @ParentCommand
+    private DocExecutorCliCacheCommand parent;
+
+    @CommandLine.Parameters(
+            description = "The bundle file"
+    )
+    private Path bundlePath;
+
+    @Override
+    public Integer call() {
+
+        DocExecutor docExecutor = DocExecutorCli.toDocExecutor(parent.getParent());
+        DocCache cache = docExecutor.build().getCache();
+        if (cache == null) {
+            System.out.println("The cache is disabled");
+            return 0;
+        }
+        int count = DocCacheBundle.write(cache, bundlePath, docExecutor.getSearchDocPath());
+        System.out.println("Exported " + count + " entries to " + bundlePath);
+        return 0;
+
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.combostrap.docExec;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "import",
+        description = "Restore the doc cache from a bundle file created with the export command"
+)
+public class DocExecutorCliCacheImportCommand implements Callable<Integer> {
+
+    public static final String IMPORT_COMMAND_NAME = "import";
+
+    @ParentCommand
+    private DocExecutorCliCacheCommand parent;
+
+    @CommandLine.Parameters(
+            description = "The bundle file"
+    )
+    private Path bundlePath;
+
+    @Override
+    public Integer call() {
+
+        DocExecutor docExecutor = DocExecutorCli.toDocExecutor(parent.getParent());
+        DocCache cache = docExecutor.build().getCache();
+        if (cache == null) {
+            System.out.println("The cache is disabled");
+            return 0;
+        }
+        int count = DocCacheBundle.read(cache, bundlePath, docExecutor.getSearchDocPath());
+        cache.flush();
+        System.out.println("Imported " + count + " entries from " + bundlePath);
+        return 0;
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Xdg;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "serve",
+        description = "Start a remote cache server that shares the console output of the units between hosts (no authentication, for a LAN)"
+)
+public class DocExecutorCliCacheServeCommand implements Callable<Integer> {
+
+    @CommandLine.Option(names = {"--port"},
+            defaultValue = "8080",
+            description = "The port of the server")
+    private int port = 8080;
+
+    @CommandLine.Option(names = {"--bind"},
+            description = "The address to listen on (default to the loopback address, set the address of a LAN interface to share the cache between hosts)")
+    private InetAddress bindAddress;
+
+    @CommandLine.Option(names = {"--max-entry-bytes"},
+            defaultValue = "16777216",
+            description = "The max size of a stored entry in bytes (a bigger upload is rejected)")
+    private long maxEntryBytes = DocCacheServer.DEFAULT_MAX_ENTRY_BYTES;
+
+    @CommandLine.Option(names = {"--directory"},
+            description = "The directory of the entries (default to the remote directory in the cache home)")
+    private Path directory;
+
+    @Override
+    public Integer call() throws InterruptedException {
+
+        Path serverDirectory = directory;
+        if (serverDirectory == null) {
+            serverDirectory = Xdg.getCacheHome(DocExecutor.APP_NAME).resolve("_remote");
+        }
+        InetAddress serverAddress = bindAddress;
+        if (serverAddress == null) {
+            serverAddress = InetAddress.getLoopbackAddress();
+        }
+        DocCacheServer server = DocCacheServer.start(serverDirectory, serverAddress, port, maxEntryBytes);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Cache server started at " + server.getUrl() + " with the directory " + server.getDirectory());
+        System.out.println("Run doc-exec with --cache-remote-url " + server.getUrl());
+        // Until the process is stopped
+        Thread.currentThread().join();
+        return 0;
+
+    }
+
+}
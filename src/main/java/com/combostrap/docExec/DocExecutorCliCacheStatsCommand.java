@@ -0,0 +1,50 @@
+package com.combostrap.docExec;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "stats",
+        description = "Show the size, the entry count and the hit count of the doc cache"
+)
+public class DocExecutorCliCacheStatsCommand implements Callable<Integer> {
+
+    public static final String STATS_COMMAND_NAME = "stats";
+
+    @ParentCommand
+    private DocExecutorCliCacheCommand parent;
+
+    @Override
+    public Integer call() {
+
+        DocExecutorInstance docExecutorInstance = DocExecutorCli.toDocExecutor(parent.getParent()).build();
+        DocCache cache = docExecutorInstance.getCache();
+        if (cache == null) {
+            System.out.println("The cache is disabled");
+            return 0;
+        }
+
+        DocCacheUsage usage = cache.getUsage();
+        System.out.println("Cache: " + cache.getDirectory());
+        System.out.println("Entries: " + usage.getEntryCount());
+        System.out.printf("Size: %d bytes (max %d bytes)%n", usage.getSize(), cache.getMaxBytes());
+        System.out.println("Max age: " + (cache.getMaxAge() == null ? "none" : cache.getMaxAge()));
+        Map<String, long[]> counts = usage.getCounts();
+        if (counts.isEmpty()) {
+            System.out.println("Lookups: none");
+            return 0;
+        }
+        System.out.println("Lookups:");
+        for (Map.Entry<String, long[]> count : counts.entrySet()) {
+            long hits = count.getValue()[0];
+            long misses = count.getValue()[1];
+            System.out.printf("* %-10s %d hits, %d misses (%.1f%% hit rate)%n", count.getKey(), hits, misses, 100.0 * hits / (hits + misses));
+        }
+        return 0;
+
+    }
+
+}
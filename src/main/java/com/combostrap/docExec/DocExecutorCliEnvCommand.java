@@ -1,5 +1,6 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.jackson.DurationSerializer;
 import com.combostrap.docExec.jackson.LogLevelSerializer;
 import com.combostrap.docExec.jackson.PathSerializer;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -10,6 +11,7 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import picocli.CommandLine;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
@@ -46,6 +48,7 @@ public class DocExecutorCliEnvCommand implements Callable<Integer> {
         SimpleModule module = new SimpleModule();
         module.addSerializer(Level.class, new LogLevelSerializer());
         module.addSerializer(Path.class, new PathSerializer());
+        module.addSerializer(Duration.class, new DurationSerializer());
         yamlMapper.registerModule(module);
 
         // Convert to YAML string
@@ -10,6 +10,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -27,7 +31,49 @@ public class DocExecutorInstance {
     @JsonIgnore
     private final DocExecutorUnit docExecutorUnit;
     private final DocCache cache;
+    @JsonIgnore
+    private final DocClassCache classCache;
     private final DocExecutorResultStore results;
+    /**
+     * The directory where the classes of the Java units are compiled
+     * (created at first use, deleted at the end of a run)
+     */
+    @JsonIgnore
+    private Path classOutputDirectory;
+    /**
+     * The compiler of the Java units
+     * (created at first use, closed at the end of a run)
+     */
+    @JsonIgnore
+    private DocJavaCompiler javaCompiler;
+    /**
+     * The worker JVM that execute the Java units
+     * (created at first use, closed at the end of a run)
+     */
+    @JsonIgnore
+    private DocJavaWorkerPool javaWorkerPool;
+    /**
+     * The threads that pump the output of the shell commands
+     * (created at first use, closed at the end of a run)
+     */
+    @JsonIgnore
+    private DocProcessPump processPump;
+    /**
+     * A lock by class name so that a Java unit is compiled only once
+     */
+    @JsonIgnore
+    private final Map<String, Object> classCompilationLocks = new ConcurrentHashMap<>();
+    /**
+     * The bytecode of the Java units compiled in memory by class name
+     */
+    @JsonIgnore
+    private final Map<String, Map<String, byte[]>> compiledClassBytes = new ConcurrentHashMap<>();
+    /**
+     * The compile error of the Java units compiled with the units of their doc by class name
+     * (reported once, at the execution of the unit)
+     */
+    @JsonIgnore
+    private final Map<String, String> compileErrors = new ConcurrentHashMap<>();
 
     public DocExecutorInstance(DocExecutor docExecutor) {
         this.docExecutor = docExecutor;
@@ -44,9 +90,19 @@ public class DocExecutorInstance {
          */
         results = new DocExecutorResultStore(this);
         if (this.docExecutor.getIsCacheEnabled()) {
-            this.cache = DocCache.get(this.docExecutor.getName());
+            this.cache = DocCache.get(
+                    this.docExecutor.getName(),
+                    this.docExecutor.getIsCachePack(),
+                    this.docExecutor.getCacheMaxBytes(),
+                    this.docExecutor.getCacheMaxAge()
+            );
+            if (this.docExecutor.getCacheRemoteUrl() != null) {
+                this.cache.setRemote(DocCacheRemote.create(this.docExecutor.getCacheRemoteUrl(), this.docExecutor.getIsCacheRemoteReadOnly()));
+            }
+            this.classCache = DocClassCache.get(this.docExecutor.getClassCacheMaxBytes());
         } else {
             this.cache = null;
+            this.classCache = null;
         }
     }
 
@@ -63,110 +119,354 @@ public class DocExecutorInstance {
             DocCache docCache = this.cache;
             if (docCache != null && docExecutor.getPurgeCache()) {
                 docCache.purgeAll();
+                this.classCache.purgeAll();
+            }
+
+            if (docExecutor.getParallelism() > 1 && paths.length > 1) {
+                runInParallel(docExecutorResultRun, paths);
+                return docExecutorResultRun;
             }
 
             for (Path path : paths) {
 
                 try (DocExecutorResultDocExecution docResult = docExecutorResultRun.createResultForDoc(path)) {
-                    /**
-                     * We skip at execution, not at selection so that
-                     * we get the messages in order of execution
-                     */
-                    Path resumeFrom = this.docExecutor.getResumeFromPath();
-                    if (resumeFrom != null && Sorts.naturalSortComparator(resumeFrom.toString(), path.toString()) > 0) {
-                        docResult.setSkippedStatus();
-                        continue;
-                    }
+                    runDoc(docExecutorResultRun, docResult, path);
+                }
 
-                    if (!Files.exists(path)) {
-                        String msg = "The path (" + path.toAbsolutePath() + ") does not exist";
-                        this.log.severe(msg);
-                        RuntimeException exception = new RuntimeException(msg);
-                        docResult.setErrorStatus(exception);
-                        if (this.docExecutor.doesStopAtFirstError()) {
-                            throw new DocFirstErrorOrWarning(exception);
-                        }
-                        continue;
-                    }
+            }
+            return docExecutorResultRun;
+        } finally {
+            docExecutorResultRun.close();
+            closeRunResources();
+            if (this.cache != null) {
+                this.cache.flush();
+            }
+        }
 
+    }
 
-                    /**
-                     * Cache ?
-                     */
-                    if (docCache != null) {
-                        String md5Cache = docCache.getMd5(path);
-                        String md5 = Fs.getMd5(path);
-                        if (md5.equals(md5Cache)) {
-                            docResult.setCacheHitStatus();
-                            continue;
-                        }
-                    }
+    /**
+     * @return the directory where the classes of the Java units are compiled
+     * The directory is unique for each run so that two processes on the same host
+     * do not overwrite their class files
+     */
+    protected synchronized Path getClassOutputDirectory() {
+        if (this.classOutputDirectory == null) {
+            this.classOutputDirectory = Fs.createTempDirectory(DocExecutor.APP_NAME + "-classes-");
+        }
+        return this.classOutputDirectory;
+    }
 
-                    /**
-                     * Execution
-                     */
-                    DocExecutorResultDocExecution docExecutorResultDocExecution = this.execute(docResult, path);
-                    if (!docExecutor.getIsDryRun()) {
-                        // Overwrite the new doc
-                        Fs.toFile(docExecutorResultDocExecution.getNewDoc(), path);
-                    }
+    /**
+     * @param className - the class name
+     * @return the lock to hold when compiling this class
+     */
+    protected Object getClassCompilationLock(String className) {
+        return this.classCompilationLocks.computeIfAbsent(className, k -> new Object());
+    }
+
+    /**
+     * @param className - the class name of a unit
+     * @return the bytecode of the classes compiled in memory, null if not compiled
+     */
+    protected Map<String, byte[]> getCompiledClassBytes(String className) {
+        return this.compiledClassBytes.get(className);
+    }
+
+    protected void putCompiledClassBytes(String className, Map<String, byte[]> classBytes) {
+        this.compiledClassBytes.put(className, classBytes);
+    }
+
+    /**
+     * @param className - the class name of a unit
+     * @return the compile error of the unit, null if none or not compiled
+     */
+    protected String getCompileError(String className) {
+        return this.compileErrors.get(className);
+    }
+
+    protected void putCompileError(String className, String compileError) {
+        this.compileErrors.put(className, compileError);
+    }
+
+    /**
+     * @return the pool of worker JVM (started at the first call)
+     */
+    protected synchronized DocJavaWorkerPool getJavaWorkerPool() {
+        if (this.javaWorkerPool == null) {
+            this.javaWorkerPool = DocJavaWorkerPool.create(this.docExecutor.getJavaWorkers(), this.docExecutor.getJavaWorkerMaxUnits(), this.log);
+        }
+        return this.javaWorkerPool;
+    }
+
+    protected synchronized DocProcessPump getProcessPump() {
+        if (this.processPump == null) {
+            this.processPump = DocProcessPump.create(this.docExecutor.getProcessPumpThreads());
+        }
+        return this.processPump;
+    }
+
+    private synchronized void closeProcessPump() {
+        if (this.processPump != null) {
+            this.processPump.close();
+            this.processPump = null;
+        }
+    }
+
+    /**
+     * @return the compiler shared by all Java units of the run
+     */
+    protected synchronized DocJavaCompiler getJavaCompiler() {
+        if (this.javaCompiler == null) {
+            this.javaCompiler = DocJavaCompiler.create(this.log);
+        }
+        return this.javaCompiler;
+    }
+
+    /**
+     * Close the resources created at first use by the units
+     * (called at the end of a run or when the {@link #getDocExecutorUnit() unit} is closed)
+     */
+    protected synchronized void closeRunResources() {
+        closeJavaResources();
+        closeProcessPump();
+    }
+
+    /**
+     * Close the compiler and the workers and delete the compiled classes
+     */
+    private synchronized void closeJavaResources() {
+        if (this.javaWorkerPool != null) {
+            this.javaWorkerPool.close();
+            this.javaWorkerPool = null;
+        }
+        if (this.javaCompiler != null) {
+            this.javaCompiler.close();
+            this.javaCompiler = null;
+        }
+        this.compiledClassBytes.clear();
+        this.compileErrors.clear();
+        if (this.classOutputDirectory == null) {
+            this.classCompilationLocks.clear();
+            return;
+        }
+        try {
+            Fs.deleteIfExists(this.classOutputDirectory, true);
+        } catch (RuntimeException e) {
+            this.log.fine("The class directory (" + this.classOutputDirectory + ") could not be deleted: " + e.getMessage());
+        }
+        this.classOutputDirectory = null;
+        this.classCompilationLocks.clear();
+    }
 
-                    if (docCache != null) {
-                        docCache.store(path);
+    /**
+     * Execute the docs with a pool of workers
+     * <p>
+     * The results and the logs are in the order of the paths.
+     * If a doc fails and the run should stop at the first error,
+     * the docs not yet started are cancelled and the running workers are interrupted.
+     *
+     * @param docExecutorResultRun - the run result
+     * @param paths                - the docs to execute
+     */
+    private void runInParallel(DocExecutorResultRun docExecutorResultRun, Path... paths) {
+
+        List<DocExecutorResultDocExecution> docResults = docExecutorResultRun.createResultsForDocs(paths);
+        int workerCount = Math.min(docExecutor.getParallelism(), paths.length);
+        AtomicInteger workerCounter = new AtomicInteger(0);
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, DocExecutor.APP_NAME + "-worker-" + workerCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            Path path = paths[i];
+            DocExecutorResultDocExecution docResult = docResults.get(i);
+            futures.add(workers.submit(() -> {
+                try (docResult) {
+                    if (docExecutorResultRun.isCancelled()) {
+                        docResult.setCancelledStatus();
+                        return;
+                    }
+                    docResult.start();
+                    try {
+                        runDoc(docExecutorResultRun, docResult, path);
+                    } catch (CancellationException e) {
+                        docResult.setCancelledStatus();
+                    } catch (RuntimeException | Error e) {
+                        // Stop the other docs now and not when the collector reaches this doc
+                        docExecutorResultRun.cancel();
+                        throw e;
                     }
+                }
+            }));
+        }
 
-                    if (docExecutorResultDocExecution.hasWarnings()) {
-                        for (String warning : docExecutorResultDocExecution.getWarnings()) {
-                            System.err.println("Warning: " + warning);
-                        }
-                        if (this.docExecutor.getStopAtFirstErrorOrWarning()) {
-                            DocWarning e = new DocWarning("Warning were seen");
-                            throw new DocFirstErrorOrWarning(e);
-                        }
+        Throwable failure = null;
+        int flushedIndex = 0;
+        try {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                        docExecutorResultRun.cancel();
+                        futures.forEach(f -> f.cancel(true));
                     }
+                } catch (CancellationException e) {
+                    // Cancelled after a failure, the result is closed below
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = e;
+                    docExecutorResultRun.cancel();
+                    futures.forEach(f -> f.cancel(true));
+                    break;
+                }
+                if (failure == null) {
+                    // Deterministic order: the logs of a doc are printed when all previous docs have finished
+                    docResults.get(flushedIndex++).flushLogs();
                 }
+            }
+        } finally {
+            workers.shutdownNow();
+            try {
+                if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    this.log.severe("The workers did not terminate after one minute");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = flushedIndex; i < docResults.size(); i++) {
+                DocExecutorResultDocExecution docResult = docResults.get(i);
+                if (!docResult.isClosed()) {
+                    // Never started
+                    docResult.setCancelledStatus();
+                    docResult.close();
+                }
+                docResult.flushLogs();
+            }
+        }
 
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+
+    }
+
+    /**
+     * Execute a doc
+     *
+     * @param docExecutorResultRun - the run result
+     * @param docResult            - the doc result
+     * @param path                 - the doc to execute
+     */
+    private void runDoc(DocExecutorResultRun docExecutorResultRun, DocExecutorResultDocExecution docResult, Path path) {
+        /**
+         * We skip at execution, not at selection so that
+         * we get the messages in order of execution
+         */
+        Path resumeFrom = this.docExecutor.getResumeFromPath();
+        if (resumeFrom != null && Sorts.naturalSortComparator(resumeFrom.toString(), path.toString()) > 0) {
+            docResult.setSkippedStatus();
+            return;
+        }
+
+        if (!Files.exists(path)) {
+            String msg = "The path (" + path.toAbsolutePath() + ") does not exist";
+            this.log.severe(msg);
+            RuntimeException exception = new RuntimeException(msg);
+            docResult.setErrorStatus(exception);
+            if (this.docExecutor.doesStopAtFirstError()) {
+                throw new DocFirstErrorOrWarning(exception);
             }
-            return docExecutorResultRun;
+            return;
+        }
+
+
+        /**
+         * Cache ?
+         */
+        DocCache docCache = this.cache;
+        if (docCache != null && docCache.isFresh(path)) {
+            docResult.setCacheHitStatus();
+            return;
+        }
+
+        /**
+         * Execution
+         */
+        DocExecutorResultDocExecution docExecutorResultDocExecution;
+        try {
+            docExecutorResultDocExecution = this.execute(docExecutorResultRun, docResult, path, this.docExecutorUnit);
         } finally {
-            docExecutorResultRun.close();
+            // The bash session lives for the doc
+            this.docExecutorUnit.closeShellSession(path);
+        }
+        if (!docExecutor.getIsDryRun()) {
+            // Overwrite the new doc
+            Fs.toFile(docExecutorResultDocExecution.getNewDoc(), path);
+        }
+
+        if (docCache != null) {
+            docCache.store(path);
         }
 
+        if (docExecutorResultDocExecution.hasWarnings()) {
+            for (String warning : docExecutorResultDocExecution.getWarnings()) {
+                // With the logs of the doc (deferred in a parallel run to keep the order of the docs)
+                docExecutorResultDocExecution.logWarning(warning);
+            }
+            if (this.docExecutor.getStopAtFirstErrorOrWarning()) {
+                DocWarning e = new DocWarning("Warning were seen");
+                throw new DocFirstErrorOrWarning(e);
+            }
+        }
     }
 
     /**
-     * @param path the doc to execute
+     * @param docExecutorResultRun the run (to check if it was cancelled)
+     * @param path                 the doc to execute
+     * @param docExecutorUnit      the code executor of the doc
      * @return the new page
+     * @throws CancellationException if the run was cancelled
      */
-    private DocExecutorResultDocExecution execute(DocExecutorResultDocExecution docExecutorResultDocExecution, Path path) {
+    private DocExecutorResultDocExecution execute(DocExecutorResultRun docExecutorResultRun, DocExecutorResultDocExecution docExecutorResultDocExecution, Path path, DocExecutorUnit docExecutorUnit) {
 
 
-        // Parsing
-        List<DocUnit> docTests = DocParser.getDocTests(path);
+        // Parsing (the doc is read once, the units are views on its content)
         String originalDoc = Fs.toString(path);
+        List<DocUnit> docTests = DocParser.getDocTests(originalDoc, path);
+        // The Java units of the doc are compiled in one task (in the worker of the doc, in a parallel run)
+        docExecutorUnit.compileJavaUnits(docTests);
         StringBuilder targetDoc = new StringBuilder();
 
-        // A code executor
-        DocExecutorUnit docExecutorUnit = DocExecutorUnit.create(this);
-
-        List<DocUnit> cachedDocUnits = new ArrayList<>();
-        if (this.cache != null) {
-            cachedDocUnits = this.cache.getDocTestUnits(path);
-        }
+        // The key of a unit in the execution cache is the hash of its own inputs
+        String unitCacheSettings = cacheIsOn() ? this.docExecutor.getUnitCacheSettings() : null;
+        // In a shared session, a bash unit depends on the state set by the bash units before it:
+        // its key is chained to the previous one and, after the first run, all bash units run
+        boolean sharedSession = this.docExecutor.getIsShellSession() && !this.docExecutor.getIsShellSessionIsolated();
+        String previousSessionCacheKey = "";
+        boolean oneSessionUnitHasAlreadyRun = false;
+        // The bash units skipped before the first run of the session (executed again to restore its state)
+        List<DocUnit> skippedSessionUnits = new ArrayList<>();
         Integer previousEnd = 0;
-        boolean oneCodeBlockHasAlreadyRun = false;
         for (int i = 0; i < docTests.size(); i++) {
 
+            if (docExecutorResultRun.isCancelled()) {
+                throw new CancellationException("The run was cancelled");
+            }
             docExecutorResultDocExecution.logInfo("Processing doc-exec node " + (i + 1));
             try {
                 DocUnit docUnit = docTests.get(i);
-                DocUnit cachedDocUnit = null;
-                if (cachedDocUnits != null && i < cachedDocUnits.size()) {
-                    cachedDocUnit = cachedDocUnits.get(i);
-                }
-                // Boolean to decide if we need to execute
-                boolean codeChange = false;
-                boolean fileChange = false;
                 // ############################################
                 // The order of execution is important here to reconstruct the new document
                 //    * First the processing of the file nodes
@@ -186,20 +486,6 @@ public class DocExecutorInstance {
                         if (fileStringPath == null) {
                             throw new RuntimeException("The file path for this unit is null (<file type file.extension>");
                         }
-                        // No need of cache test here because it's going very quick
-                        if (cachedDocUnit != null) {
-                            List<DocFileBlock> fileBlocks = cachedDocUnit.getFileBlocks();
-                            if (fileBlocks.size() > j) {
-                                DocFileBlock cachedDocFileBlock = fileBlocks.get(j);
-                                if (!(fileStringPath.equals(cachedDocFileBlock.getPath()))) {
-                                    fileChange = true;
-                                }
-                            }
-                        } else {
-                            fileChange = true;
-                        }
-
-
                         Path filePath = searchInlineFile(fileStringPath);
                         String fileContent = Fs.toString(filePath);
 
@@ -221,30 +507,43 @@ public class DocExecutorInstance {
                 // Code block is not mandatory, you may just have a file
                 String code = docUnit.getCode();
                 if (code != null && !code.trim().isEmpty()) {
-                    // Check if this unit has already been executed and that the code has not changed
-                    if (cachedDocUnit != null) {
-                        if (!(code.equals(cachedDocUnit.getCode()))) {
-                            codeChange = true;
+
+                    // The inline files are read now, after the previous units have run
+                    boolean isSessionUnit = sharedSession && DocShell.BASH_LANG.equals(docUnit.getLanguage());
+                    String unitCacheKey = null;
+                    if (cacheIsOn()) {
+                        unitCacheKey = getUnitCacheKey(unitCacheSettings, isSessionUnit ? previousSessionCacheKey : "", docUnit);
+                        if (isSessionUnit) {
+                            previousSessionCacheKey = unitCacheKey;
                         }
-                    } else {
-                        codeChange = true;
                     }
 
-                    // Run
-                    String result;
-                    if (
-                            ((codeChange || fileChange) & cacheIsOn())
-                                    || (!cacheIsOn())
-                                    || oneCodeBlockHasAlreadyRun
-                    ) {
+                    // Run if the output of the unit with the same inputs is not in the cache
+                    String result = null;
+                    if (unitCacheKey != null && !(isSessionUnit && oneSessionUnitHasAlreadyRun)) {
+                        result = this.cache.getUnitConsole(unitCacheKey);
+                    }
+                    if (result == null) {
+                        if (isSessionUnit && !oneSessionUnitHasAlreadyRun) {
+                            oneSessionUnitHasAlreadyRun = true;
+                            for (DocUnit skippedSessionUnit : skippedSessionUnits) {
+                                docExecutorResultDocExecution.logInfo("Running the skipped code (" + Strings.onOneLine(skippedSessionUnit.getCode()) + ") to restore the state of the session");
+                                docExecutorResultDocExecution.incrementExecutionCount();
+                                docExecutorUnit.run(skippedSessionUnit);
+                            }
+                        }
                         docExecutorResultDocExecution.logInfo("Running the code (" + Strings.onOneLine(code) + ")");
                         docExecutorResultDocExecution.incrementExecutionCount();
                         result = docExecutorUnit.run(docUnit);
                         docExecutorResultDocExecution.logInfo("Code executed successfully");
-                        oneCodeBlockHasAlreadyRun = true;
+                        if (unitCacheKey != null) {
+                            this.cache.storeUnitConsole(unitCacheKey, result);
+                        }
                     } else {
                         docExecutorResultDocExecution.logInfo("The run of the code (" + Strings.onOneLine(code) + ") was skipped due to caching");
-                        result = cachedDocUnit.getConsole();
+                        if (isSessionUnit) {
+                            skippedSessionUnits.add(docUnit);
+                        }
                     }
 
                     // Console
@@ -252,7 +551,7 @@ public class DocExecutorInstance {
                     if (consoleLocation != null) {
                         int start = consoleLocation.getStart();
                         targetDoc.append(originalDoc, previousEnd, start);
-                        String console = docUnit.getConsole();
+                        CharSequence console = docUnit.getConsoleText();
                         if (console == null) {
                             throw new RuntimeException("No console were found, try a run without cache");
                         }
@@ -260,14 +559,15 @@ public class DocExecutorInstance {
                         // <console>
                         //   result
                         // </console>
-                        console = console.trim();
+                        // The console is compared as a view on the doc (it's not copied)
+                        console = DocText.trim(console);
                         if (docExecutor.getTrimLeadingAndTrailingLines()) {
                             result = result.trim();
                         }
-                        if (!result.equals(console)) {
+                        if (!result.contentEquals(console)) {
 
                             int resultLineCount = Strings.getLineCount(result.trim());
-                            int actualConsoleLineCount = Strings.getLineCount(console);
+                            int actualConsoleLineCount = Strings.getLineCount(console.toString());
                             if (resultLineCount < actualConsoleLineCount && docExecutor.isContentShrinkingWarning()) {
                                 String s = "A unit code produces less console lines (" + resultLineCount + ") than the actual (" + actualConsoleLineCount + ") in the page. Unit code: " + Strings.toPrintableCharacter(docUnit.getCode());
                                 docExecutorResultDocExecution.addWarning(s);
@@ -287,7 +587,15 @@ public class DocExecutorInstance {
                     }
                 }
             } catch (Exception e) {
-                docExecutorResultDocExecution.setErrorStatus(e);
+                if (docExecutorResultRun.isCancelled()) {
+                    // The unit was interrupted, this is not an error of the unit
+                    throw new CancellationException("The run was cancelled");
+                }
+                if (e instanceof DocTimeoutException) {
+                    docExecutorResultDocExecution.setTimeoutStatus((DocTimeoutException) e);
+                } else {
+                    docExecutorResultDocExecution.setErrorStatus(e);
+                }
                 if (docExecutor.doesStopAtFirstError()) {
                     throw new DocFirstErrorOrWarning(e);
                 }
@@ -308,6 +616,43 @@ public class DocExecutorInstance {
 
     }
 
+    /**
+     * The key of a unit in the execution cache is the hash of its inputs:
+     * the language, the code, the env, the content of the inline files and the executor settings
+     * so that a unit that has not changed is not executed again wherever it is in the doc.
+     *
+     * @param settings        - the executor settings (ie {@link DocExecutor#getUnitCacheSettings()})
+     * @param previousUnitKey - the key of the unit it depends on (ie previous bash unit of a shared session, empty if none)
+     * @param docUnit         - the unit
+     * @return the key
+     */
+    private String getUnitCacheKey(String settings, String previousUnitKey, DocUnit docUnit) {
+
+        StringBuilder inputs = new StringBuilder();
+        appendCacheInput(inputs, settings);
+        appendCacheInput(inputs, previousUnitKey);
+        appendCacheInput(inputs, docUnit.getLanguage());
+        appendCacheInput(inputs, docUnit.getCode());
+        appendCacheInput(inputs, new TreeMap<>(docUnit.getEnv()).toString());
+        for (DocFileBlock docFileBlock : docUnit.getFileBlocks()) {
+            appendCacheInput(inputs, docFileBlock.getPath());
+            appendCacheInput(inputs, Fs.toString(searchInlineFile(docFileBlock.getPath())));
+        }
+        return Digest.createFromString(Digest.Algorithm.SHA256, inputs.toString()).getHashHex();
+
+    }
+
+    /**
+     * Add an input with its length so that two inputs can't be confused
+     */
+    private static void appendCacheInput(StringBuilder inputs, String input) {
+        if (input == null) {
+            inputs.append("-1:");
+            return;
+        }
+        inputs.append(input.length()).append(':').append(input);
+    }
+
     /**
      * Search an inline file in the list of search paths
      *
@@ -339,6 +684,13 @@ public class DocExecutorInstance {
         return this.cache;
     }
 
+    /**
+     * @return the cache of compiled Java units, null if the cache is disabled
+     */
+    protected DocClassCache getClassCache() {
+        return this.classCache;
+    }
+
     public DocExecutorResultRun run(String... globPaths) {
         return run(Arrays.asList(globPaths));
     }
@@ -398,4 +750,5 @@ public class DocExecutorInstance {
     public DocExecutorResultStore getResultStore() {
         return results;
     }
+
 }
@@ -8,6 +8,8 @@ import java.io.FileNotFoundException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 /**
  * The result of a run executed on a file
@@ -29,6 +31,11 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
     @JsonIgnore
     private final List<String> warnings = new ArrayList<>();
     private boolean skipped = false;
+    private boolean cancelled = false;
+    /**
+     * A unit has exceeded its timeout
+     */
+    private boolean timedOut = false;
     /**
      * Null so that the persistence will fail if it's still null
      */
@@ -40,6 +47,14 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
     @JsonIgnore
     private Exception exception;
 
+    /**
+     * The log records kept until {@link #flushLogs()} is called
+     * (null if the logs are not deferred)
+     * Used in a parallel run so that the logs are printed in the order of the docs
+     */
+    @JsonIgnore
+    private final List<LogRecord> deferredLogs;
+
 
     /**
      * @param run      - the run
@@ -47,12 +62,31 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
      * @param path     - the doc path
      */
     DocExecutorResultDocExecution(DocExecutorResultRun run, int runIndex, Path path) {
+        this(run, runIndex, path, false);
+    }
+
+    /**
+     * @param run        - the run
+     * @param runIndex   - the index (counter)
+     * @param path       - the doc path
+     * @param deferLogs  - if true, the logs are kept until {@link #flushLogs()} is called
+     */
+    DocExecutorResultDocExecution(DocExecutorResultRun run, int runIndex, Path path, boolean deferLogs) {
         this.path = path;
         this.timer = Timer.create(path.toString()).start();
         this.logPrefix = runIndex + "/" + run.getRunSize() + " : " + path + " : ";
+        this.deferredLogs = deferLogs ? new ArrayList<>() : null;
         logInfo("Starting execution");
     }
 
+    /**
+     * Restart the timer
+     * Used when the execution is not started at creation (ie in a parallel run, the doc waits for a worker)
+     */
+    void start() {
+        this.timer.start();
+    }
+
 
     public String getNewDoc() {
         return this.newDoc;
@@ -138,9 +172,18 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
         logInfo("ResumeFrom is on. Skipping");
     }
 
+    /**
+     * The execution was cancelled because another doc has failed in a parallel run
+     */
+    public void setCancelledStatus() {
+        this.cancelled = true;
+        this.exitCode = -1;
+        logInfo("Run stopped. Cancelling");
+    }
+
     @JsonIgnore
     public boolean hasRun() {
-        return !this.cacheHit && !this.skipped;
+        return !this.cacheHit && !this.skipped && !this.cancelled;
     }
 
     public void setSuccessfulStatus() {
@@ -155,6 +198,12 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
         if (this.skipped) {
             return "Skipped";
         }
+        if (this.cancelled) {
+            return "Cancelled";
+        }
+        if (this.timedOut) {
+            return "Timeout";
+        }
         if (this.exitCode == 0) {
             return "Success";
         }
@@ -163,15 +212,46 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
 
     public void logInfo(String s) {
 
-        DocLog.LOGGER.info(logPrefix + s);
+        log(Level.INFO, s);
     }
 
     public void logFine(String s) {
-        DocLog.LOGGER.fine(logPrefix + s);
+        log(Level.FINE, s);
+    }
+
+    public void logWarning(String s) {
+        log(Level.WARNING, s);
     }
 
     public void logSevere(String s) {
-        DocLog.LOGGER.severe(logPrefix + s);
+        log(Level.SEVERE, s);
+    }
+
+    private void log(Level level, String s) {
+        if (this.deferredLogs == null) {
+            DocLog.LOGGER.log(level, logPrefix + s);
+            return;
+        }
+        LogRecord logRecord = new LogRecord(level, logPrefix + s);
+        logRecord.setLoggerName(DocLog.LOGGER.getName());
+        synchronized (this.deferredLogs) {
+            this.deferredLogs.add(logRecord);
+        }
+    }
+
+    /**
+     * Print the deferred logs
+     */
+    void flushLogs() {
+        if (this.deferredLogs == null) {
+            return;
+        }
+        synchronized (this.deferredLogs) {
+            for (LogRecord logRecord : this.deferredLogs) {
+                DocLog.LOGGER.log(logRecord);
+            }
+            this.deferredLogs.clear();
+        }
     }
 
     @JsonIgnore
@@ -191,4 +271,19 @@ public class DocExecutorResultDocExecution implements AutoCloseable {
         logSevere(exception.toString());
     }
 
+    /**
+     * A unit has exceeded its timeout
+     *
+     * @param exception - the timeout exception
+     */
+    public void setTimeoutStatus(DocTimeoutException exception) {
+        this.timedOut = true;
+        setErrorStatus(exception);
+    }
+
+    @JsonIgnore
+    public boolean hasTimedOut() {
+        return this.timedOut;
+    }
+
 }
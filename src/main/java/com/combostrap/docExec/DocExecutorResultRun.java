@@ -16,6 +16,11 @@ public class DocExecutorResultRun {
     private final int runSize;
     List<DocExecutorResultDocExecution> results = new ArrayList<>();
     private DocExecutorResultDocExecution actualDocExecutionResult;
+    /**
+     * Set when a doc has failed in a parallel run
+     * so that the other workers stop
+     */
+    private volatile boolean cancelled = false;
 
     public DocExecutorResultRun(DocExecutorInstance docExecutorInstance, int runSize) {
         this.docExecutorInstance = docExecutorInstance;
@@ -41,18 +46,48 @@ public class DocExecutorResultRun {
         if (actualDocExecutionResult != null && !actualDocExecutionResult.isClosed()) {
             throw new RuntimeException("Internal error, the previous execution is still open.");
         }
-        Path normalize;
+        DocExecutorResultDocExecution result = new DocExecutorResultDocExecution(this, this.results.size() + 1, toResultPath(childPath));
+        this.results.add(result);
+        this.actualDocExecutionResult = result;
+        return result;
+    }
+
+    /**
+     * Create the results of a parallel run upfront, in the order of the paths
+     * The logs are deferred, see {@link DocExecutorResultDocExecution#flushLogs()}
+     *
+     * @param childPaths - the doc paths
+     * @return the results in the same order as the paths
+     */
+    public List<DocExecutorResultDocExecution> createResultsForDocs(Path... childPaths) {
+        List<DocExecutorResultDocExecution> createdResults = new ArrayList<>();
+        for (Path childPath : childPaths) {
+            DocExecutorResultDocExecution result = new DocExecutorResultDocExecution(this, this.results.size() + 1, toResultPath(childPath), true);
+            this.results.add(result);
+            createdResults.add(result);
+        }
+        return createdResults;
+    }
+
+    private Path toResultPath(Path childPath) {
         try {
-            normalize = this.docExecutorInstance.getDocExecutor().getSearchDocPath().relativize(childPath);
+            return this.docExecutorInstance.getDocExecutor().getSearchDocPath().relativize(childPath);
         } catch (Exception e) {
             // Maybe a file passed directly and not from a glob pattern
             // so not relative
-            normalize = childPath;
+            return childPath;
         }
-        DocExecutorResultDocExecution result = new DocExecutorResultDocExecution(this, this.results.size() + 1, normalize);
-        this.results.add(result);
-        this.actualDocExecutionResult = result;
-        return result;
+    }
+
+    /**
+     * Signal the workers of a parallel run to stop
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
     }
 
     public Integer getRunSize() {
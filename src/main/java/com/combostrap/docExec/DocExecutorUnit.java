@@ -1,41 +1,69 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.util.Digest;
+import com.combostrap.docExec.util.Processes;
 import com.combostrap.docExec.util.Strings;
 import org.zeroturnaround.exec.ProcessExecutor;
-import org.zeroturnaround.exec.ProcessResult;
 
 import javax.tools.*;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Execute a unit (code block, file block) found in a doc
  * <p>
  * A {@link DocExecutorUnit} contains the environment variable and function to run a {@link DocUnit}
  */
-public class DocExecutorUnit {
+public class DocExecutorUnit implements AutoCloseable {
 
 
+    /**
+     * The prefix of the name of the classes built from the Java code
+     */
+    private static final String BUILD_CLASS_NAME_PREFIX = "DocUnit";
+    /**
+     * The static method of the built class that contains the Java code
+     */
+    private static final String RUN_METHOD_NAME = DocJavaWorkerMain.RUN_METHOD_NAME;
+
+    private final DocExecutorInstance docExecutorInstance;
     private final DocExecutor docExecutor;
     private final DocLog log;
-
     /**
-     * The directory where the compile class are saved
+     * The main method of the classes mapped to a shell command
      */
-    private final Path outputDirClass;
+    private final Map<Class<?>, MethodHandle> mainMethodHandles = new ConcurrentHashMap<>();
+    /**
+     * The bash process by doc (ie {@link DocExecutor#setShellSession(boolean)})
+     * The docs of a run may be executed in parallel with the same executor
+     */
+    private final Map<Path, DocShellSession> shellSessions = new ConcurrentHashMap<>();
+    /**
+     * The key of the session of the units without doc (ie created in a test)
+     */
+    private static final Path NO_DOC_PATH = Paths.get("");
 
 
     /**
@@ -45,14 +73,10 @@ public class DocExecutorUnit {
      */
     private DocExecutorUnit(DocExecutorInstance docExecutorInstance) {
 
-        outputDirClass = Paths.get(System.getProperty("java.io.tmpdir"), "docTestClass").normalize().toAbsolutePath();
+        this.docExecutorInstance = docExecutorInstance;
         this.docExecutor = docExecutorInstance.getDocExecutor();
         this.log = docExecutorInstance.getLog();
-        try {
-            Files.createDirectories(outputDirClass);// Safe if the dir already exist
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+
     }
 
     /**
@@ -89,91 +113,103 @@ public class DocExecutorUnit {
         if (language == null) {
             throw new IllegalArgumentException("The language of a code block is mandatory. The code block (" + Strings.onOneLine(code) + ") has no language.");
         }
+        Duration timeout = getTimeout(docUnit);
         switch (language) {
             case "java":
-                return executeJavaCode(code);
+                return executeJavaCode(code, timeout);
             case "dos":
             case "bash":
                 // A shell code can have several commands statement
                 List<String[]> commands = DocShell.parseShellCommand(docUnit, language);
-                StringBuilder output = new StringBuilder();
-                // For each statement
-                for (String[] command : commands) {
-                    String[] args = command;
-                    // the executable of the command
-                    final String binaryCliName = args[0];
-                    Class<?> importClass = this.docExecutor.getShellCommandMainClass(binaryCliName);
-
-                    /**
-                     * Use Java to execute the shell command
-                     */
-                    StringBuilder javaCode = new StringBuilder();
-                    if (importClass != null) {
-                        if (docExecutor.isExecuteShellCommandViaShellBinary(binaryCliName)) {
-                            throw new RuntimeException("Conflict: The cli " + binaryCliName + " was set to use the main class " + importClass + " and to be execute via the shell binary (bash -c)");
-                        }
-                        args = Arrays.copyOfRange(args, 1, args.length);
-                        javaCode
-                                .append(importClass.getName())
-                                .append(".main(new String[]{\"")
-                                .append(String.join("\",\"", args))
-                                .append("\"});\n");
-                        output.append(executeJavaCode(javaCode.toString()));
-                    } else {
-
-                        List<String> cliCommand;
-                        if (docExecutor.isExecuteShellCommandViaShellBinary(binaryCliName)) {
-
-                            /**
-                             * Delete leading and trailing empty lines
-                             * that are created by the code block format
-                             * ie
-                             * * after the first code node, the code is normally at the line
-                             * * before the last code node, we are going at the line
-                             */
-                            String codeTrimmed = code.trim();
-                            cliCommand = Arrays.asList("bash", "-c", codeTrimmed);
-
+                if (isShellSessionExecution(language, commands)) {
+                    return getShellSession(docUnit).execute(code.trim(), docUnit.getEnv(), getShellSessionCommandPaths(), timeout, this.docExecutor.getConsoleMemoryMaxBytes(), this.docExecutor.getConsoleMaxBytes());
+                }
+                // The timeout is for the whole unit
+                long deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+                try (DocCaptureBuffer output = DocCaptureBuffer.create(this.docExecutor.getConsoleMemoryMaxBytes())) {
+                    // For each statement
+                    for (String[] command : commands) {
+                        String[] args = command;
+                        // the executable of the command
+                        final String binaryCliName = args[0];
+                        Class<?> importClass = this.docExecutor.getShellCommandMainClass(binaryCliName);
+
+                        /**
+                         * Use Java to execute the shell command
+                         */
+                        if (importClass != null) {
+                            if (docExecutor.isExecuteShellCommandViaShellBinary(binaryCliName)) {
+                                throw new RuntimeException("Conflict: The cli " + binaryCliName + " was set to use the main class " + importClass + " and to be execute via the shell binary (bash -c)");
+                            }
+                            args = Arrays.copyOfRange(args, 1, args.length);
+                            output.append(executeMainClass(importClass, args, getRemainingTime(timeout, deadline)), StandardCharsets.UTF_8);
                         } else {
 
-                            // note: We could create the code in one java class
-                            // but maven make it impossible to load the org.zeroturnaround.exec package
-                            // ie for instance:
-                            // mvn test-compile exec:java -Dexec.mainClass="com.combostrap.DocExec" -Dexec.classpathScope="test" -Dexec.args="howto/file/excel"
-                            // results in
-                            // Error: package org.zeroturnaround.exec does not exist
-                            // We were parsing, but we can just call bash for code execution
-
-                            String qualifiedPath = this.toQualifiedPathIfKnown(binaryCliName);
-                            cliCommand = new ArrayList<>();
-                            cliCommand.add(qualifiedPath);
-                            cliCommand.addAll(Arrays.asList(Arrays.copyOfRange(args, 1, args.length)));
+                            List<String> cliCommand;
+                            if (docExecutor.isExecuteShellCommandViaShellBinary(binaryCliName)) {
+
+                                /**
+                                 * Delete leading and trailing empty lines
+                                 * that are created by the code block format
+                                 * ie
+                                 * * after the first code node, the code is normally at the line
+                                 * * before the last code node, we are going at the line
+                                 */
+                                String codeTrimmed = code.trim();
+                                cliCommand = Arrays.asList("bash", "-c", codeTrimmed);
+
+                            } else {
+
+                                // note: We could create the code in one java class
+                                // but maven make it impossible to load the org.zeroturnaround.exec package
+                                // ie for instance:
+                                // mvn test-compile exec:java -Dexec.mainClass="com.combostrap.DocExec" -Dexec.classpathScope="test" -Dexec.args="howto/file/excel"
+                                // results in
+                                // Error: package org.zeroturnaround.exec does not exist
+                                // We were parsing, but we can just call bash for code execution
+
+                                String qualifiedPath = this.toQualifiedPathIfKnown(binaryCliName);
+                                cliCommand = new ArrayList<>();
+                                cliCommand.add(qualifiedPath);
+                                cliCommand.addAll(Arrays.asList(Arrays.copyOfRange(args, 1, args.length)));
 
-                        }
+                            }
 
-                        try {
-                            ProcessExecutor processExecutor = new ProcessExecutor()
-                                    .command(cliCommand)
-                                    .environment(docUnit.getEnv())
-                                    .readOutput(true);
-                            if (this.docExecutor.getCaptureStdErr()) {
-                                processExecutor.redirectError(System.out);
+                            Duration commandTimeout = getRemainingTime(timeout, deadline);
+                            try {
+                                if (this.docExecutor.getProcessPumpThreads() > 0) {
+                                    executeWithProcessPump(cliCommand, docUnit.getEnv(), output, commandTimeout);
+                                } else {
+                                    ProcessExecutor processExecutor = new ProcessExecutor()
+                                            .command(cliCommand)
+                                            .environment(docUnit.getEnv())
+                                            .redirectOutput(output);
+                                    if (this.docExecutor.getCaptureStdErr()) {
+                                        processExecutor.redirectError(System.out);
+                                    }
+                                    if (commandTimeout != null) {
+                                        // The shell and the processes that it has started
+                                        processExecutor
+                                                .timeout(commandTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                                                .stopper(Processes::destroyTree);
+                                    }
+                                    processExecutor
+                                            .exitValue(0)
+                                            .execute();
+                                }
+                            } catch (TimeoutException | DocTimeoutException e) {
+                                throw new DocTimeoutException(timeout);
+                            } catch (IOException | InterruptedException e) {
+                                // Code exception is not there so we don't grow the normal application stack trace
+                                // This is fired only if there is some resource errors
+                                throw new RuntimeException("Error while running the command " + cliCommand, e);
                             }
-                            ProcessResult processResult = processExecutor
-                                    .exitValue(0)
-                                    .execute();
-                            String commandOutput = processResult.outputUTF8();
-                            output.append(commandOutput);
-                        } catch (IOException | InterruptedException | TimeoutException e) {
-                            // Code exception is not there so we don't grow the normal application stack trace
-                            // This is fired only if there is some resource errors
-                            throw new RuntimeException("Error while running the command " + cliCommand, e);
+
                         }
 
                     }
-
+                    return output.toText(this.docExecutor.getConsoleMaxBytes(), StandardCharsets.UTF_8);
                 }
-                return output.toString();
             default:
                 throw new RuntimeException("Language (" + language + ") not yet implemented (Found in " + docUnit.getPath() + ")");
         }
@@ -181,6 +217,130 @@ public class DocExecutorUnit {
 
     }
 
+    /**
+     * Execute a command with the event loop threads of the {@link DocProcessPump}
+     *
+     * @param cliCommand - the command
+     * @param env        - the env of the unit
+     * @param output     - the output of the unit
+     * @param timeout    - the timeout (null if none)
+     */
+    private void executeWithProcessPump(List<String> cliCommand, Map<String, String> env, OutputStream output, Duration timeout) throws IOException, InterruptedException {
+        OutputStream err = this.docExecutor.getCaptureStdErr() ? System.out : System.err;
+        int exitValue = this.docExecutorInstance
+                .getProcessPump()
+                .execute(cliCommand, env, output, err, timeout);
+        if (exitValue != 0) {
+            throw new RuntimeException("Unexpected exit value: " + exitValue + ", allowed exit values: [0], executed command " + cliCommand);
+        }
+    }
+
+    /**
+     * @param docUnit - the unit
+     * @return the timeout of the unit (the timeout attribute or the default), null if there is none
+     */
+    private Duration getTimeout(DocUnit docUnit) {
+        Duration timeout = docUnit.getTimeout();
+        if (timeout == null) {
+            timeout = this.docExecutor.getUnitTimeout();
+        }
+        if (timeout == null || timeout.isZero()) {
+            return null;
+        }
+        return timeout;
+    }
+
+    /**
+     * @param timeout  - the timeout of the unit
+     * @param deadline - the deadline of the unit in nano time
+     * @return the time left before the deadline, null if there is no timeout
+     * @throws DocTimeoutException if the deadline is passed
+     */
+    private Duration getRemainingTime(Duration timeout, long deadline) {
+        if (timeout == null) {
+            return null;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new DocTimeoutException(timeout);
+        }
+        return Duration.ofNanos(remaining);
+    }
+
+    /**
+     * @param language - the language
+     * @param commands - the commands of the unit
+     * @return true if the code is executed in the bash session of the doc
+     * (a code with a command executed via a main class is executed statement by statement)
+     */
+    private boolean isShellSessionExecution(String language, List<String[]> commands) {
+        if (!this.docExecutor.getIsShellSession() || !"bash".equals(language)) {
+            return false;
+        }
+        for (String[] command : commands) {
+            if (command.length > 0 && this.docExecutor.getShellCommandMainClass(command[0]) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param docUnit - the unit
+     * @return the bash session (started again if a unit has exited)
+     */
+    private DocShellSession getShellSession(DocUnit docUnit) {
+        return this.shellSessions.compute(getShellSessionKey(docUnit.getPath()), (path, shellSession) -> {
+            if (shellSession == null || !shellSession.isAlive()) {
+                // The environment of the process is not the env of the unit, it's given at each execution
+                return DocShellSession.start(Collections.emptyMap(), this.docExecutor.getCaptureStdErr(), this.docExecutor.getIsShellSessionIsolated());
+            }
+            return shellSession;
+        });
+    }
+
+    /**
+     * @return the qualified path of the commands that are not executed via the shell binary
+     * (ie the commands that are resolved with {@link #toQualifiedPathIfKnown(String)} without session)
+     */
+    private Map<String, Path> getShellSessionCommandPaths() {
+        Map<String, Path> commandPaths = new HashMap<>();
+        for (Map.Entry<String, Path> entry : this.docExecutor.getShellCommandPaths().entrySet()) {
+            if (!this.docExecutor.isExecuteShellCommandViaShellBinary(entry.getKey())) {
+                commandPaths.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return commandPaths;
+    }
+
+    private static Path getShellSessionKey(Path docPath) {
+        return docPath == null ? NO_DOC_PATH : docPath;
+    }
+
+    /**
+     * Stop the bash session of a doc (called at the end of the execution of the doc)
+     *
+     * @param docPath - the doc
+     */
+    protected void closeShellSession(Path docPath) {
+        DocShellSession shellSession = this.shellSessions.remove(getShellSessionKey(docPath));
+        if (shellSession != null) {
+            shellSession.close();
+        }
+    }
+
+    /**
+     * Stop the bash sessions and close the compiler (and its file manager), the workers and the process pump
+     * (to call when the unit is used outside of {@link DocExecutorInstance#run(Path...)} that closes them at the end)
+     */
+    @Override
+    public void close() {
+        for (Path docPath : new ArrayList<>(this.shellSessions.keySet())) {
+            closeShellSession(docPath);
+        }
+        this.docExecutorInstance.closeRunResources();
+    }
+
     /**
      * @param cliName - the cli name
      * @return the qualified path or the cli name if unknown
@@ -194,162 +354,375 @@ public class DocExecutorUnit {
     }
 
 
-    private String executeJavaCode(String javaCode) {
+    /**
+     * @param javaCode - the java code of a unit
+     * @return a class name derived from the code
+     * Two units with the same code have the same class name,
+     * two units with a different code never share a class
+     */
+    static String getBuildClassName(String javaCode) {
+        String hash = Digest.createFromString(Digest.Algorithm.SHA256, javaCode).getHashHex();
+        return BUILD_CLASS_NAME_PREFIX + hash.substring(0, 32);
+    }
+
+    /**
+     * @param buildClassName - the class name
+     * @param javaCode       - the java code of a unit
+     * @return the source of the class that wraps the code in a static method
+     */
+    static String getBuildClassSource(String buildClassName, String javaCode) {
+        return "public class " + buildClassName + " {\n" +
+                "    public static void " + RUN_METHOD_NAME + "() {\n" +
+                "       " + javaCode +
+                "    }\n" +
+                "}";
+    }
+
+    /**
+     * Compile the Java units of a doc in a single compilation task
+     * <p>
+     * The units already compiled (in this run or in the persistent cache) are skipped.
+     * A unit with a compile error is not compiled and will report its error at execution.
+     *
+     * @param docUnits - the units of the doc to execute
+     */
+    protected void compileJavaUnits(List<DocUnit> docUnits) {
+
+        Map<String, String> sourcesByClassName = new LinkedHashMap<>();
+        for (DocUnit docUnit : docUnits) {
+            String javaCode = docUnit.getCode();
+            if (!"java".equals(docUnit.getLanguage()) || javaCode == null || javaCode.trim().isEmpty()) {
+                continue;
+            }
+            String buildClassName = getBuildClassName(javaCode);
+            if (sourcesByClassName.containsKey(buildClassName) || this.docExecutorInstance.getCompiledClassBytes(buildClassName) != null) {
+                continue;
+            }
+            String source = getBuildClassSource(buildClassName, javaCode);
+            Map<String, byte[]> cachedClassBytes = getCachedClassBytes(source);
+            if (cachedClassBytes != null) {
+                this.docExecutorInstance.putCompiledClassBytes(buildClassName, cachedClassBytes);
+                continue;
+            }
+            sourcesByClassName.put(buildClassName, source);
+        }
+        if (sourcesByClassName.isEmpty()) {
+            return;
+        }
+
+        log.infoFirstLevel("Compiling " + sourcesByClassName.size() + " Java unit(s)");
+        Map<String, List<Diagnostic<? extends JavaFileObject>>> errorsByClassName = new HashMap<>();
+        Map<String, Map<String, byte[]>> classBytesByClassName = this.docExecutorInstance.getJavaCompiler().compileInMemory(sourcesByClassName, errorsByClassName);
+        for (Map.Entry<String, Map<String, byte[]>> entry : classBytesByClassName.entrySet()) {
+            String buildClassName = entry.getKey();
+            this.docExecutorInstance.putCompiledClassBytes(buildClassName, entry.getValue());
+            storeCachedClassBytes(sourcesByClassName.get(buildClassName), entry.getValue());
+        }
+        // The errors are reported at the execution of the unit
+        for (Map.Entry<String, List<Diagnostic<? extends JavaFileObject>>> entry : errorsByClassName.entrySet()) {
+            String compileError = DocJavaCompiler.getCompileErrorMessage(entry.getValue(), sourcesByClassName.get(entry.getKey()));
+            this.docExecutorInstance.putCompileError(entry.getKey(), compileError);
+        }
+
+    }
+
+    private String executeJavaCode(String javaCode, Duration timeout) {
 
         // Creation of the java source file
         // You could also extend the SimpleJavaFileObject object as shown in the doc.
         // See SimpleJavaFileObject at https://docs.oracle.com/javase/8/docs/api/javax/tools/JavaCompiler.html
 
         // The class name that will be created
-        // The file will have the same name, and we will also use it to put it as temporary directory name
-        final String buildClassName = "javademo";
-        final String runMethodName = "run";
+        // The file will have the same name
+        final String buildClassName = getBuildClassName(javaCode);
+        String compileError = this.docExecutorInstance.getCompileError(buildClassName);
+        if (compileError != null) {
+            throw new RuntimeException(compileError);
+        }
 
         try {
             // Code
-            String code = "public class " + buildClassName + " {\n" +
-                    "    public static void " + runMethodName + "() {\n" +
-                    "       " + javaCode +
-                    "    }\n" +
-                    "}";
-            DocSource docSource = new DocSource(buildClassName, code);
+            String code = getBuildClassSource(buildClassName, javaCode);
 
-            // Verification of the presence of the compilation tool archive
-            ClassLoader classLoader = DocExecutorUnit.class.getClassLoader();
+            if (this.docExecutor.getJavaWorkers() > 0) {
+                return executeJavaCodeInWorker(buildClassName, code, javaCode, timeout);
+            }
 
-            String javaHome = System.getProperty("java.home");
+            Class<?> buildClass = loadBuildClass(buildClassName, code);
+            Method method = buildClass.getMethod(RUN_METHOD_NAME);
 
+            return invokeWithCapture(() -> {
+                try {
+                    method.invoke(null);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }, javaCode, timeout);
 
-            // The compile part
-            // Get the compiler
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            if (compiler == null) {
+        } catch (NoSuchMethodException | IOException | ClassNotFoundException e) {
 
-                final String toolsJarFileName = "tools.jar";
-                Path toolsJarFilePath = Paths.get(javaHome, "lib", toolsJarFileName);
-                String message = "Unable to get the system Java Compiler. Are your running java with a JDK ?";
-                if (!Files.exists(toolsJarFilePath)) {
-                    message += System.lineSeparator() + "The tools jar file (" + toolsJarFileName + ") could not be found at (" + toolsJarFilePath + ")";
-                }
-                message += System.lineSeparator() + "Java Home: " + javaHome;
-                throw new RuntimeException(message);
+            throw new RuntimeException(e);
 
-            }
+        }
 
-            // Create a compilation unit (files)
-            Iterable<? extends JavaFileObject> compilationUnits = Collections.singletonList(docSource);
-            // A feedback object (diagnostic) to get errors
-            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-
-            // Javac options here
-            List<String> options = new ArrayList<>();
-            options.add("-d");
-            options.add(outputDirClass.toString());
-
-            // Add class path to get org.zeroturnaround.exec
-            String currentClassPath = System.getProperty("java.class.path");
-            log.fine("Using classpath: " + currentClassPath);
-            if (currentClassPath != null && !currentClassPath.isEmpty()) {
-                options.add("-classpath");
-                options.add(currentClassPath);
-            }
+    }
 
-            StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
-
-            // Compilation unit can be created and called only once
-            JavaCompiler.CompilationTask task = compiler.getTask(
-                    null,
-                    fileManager,
-                    diagnostics,
-                    options,
-                    null,
-                    compilationUnits
-            );
-            // The compile task is called
-            task.call();
-            // Printing of any compile problems
-            for (Diagnostic<?> diagnostic : diagnostics.getDiagnostics()) {
-
-                final String msg = "Compile Error on line " +
-                        diagnostic.getLineNumber() +
-                        " source " +
-                        diagnostic.getSource() +
-                        "\nError: " +
-                        diagnostic.getMessage(null);
-                log.fine(msg);
-
-                throw new RuntimeException(msg + "\nCode:\n" + code);
+    /**
+     * Execute the main method of a class mapped to a shell command
+     * (ie {@link DocExecutor#setShellCommandExecuteViaMainClass(String, Class)})
+     * <p>
+     * The main method is called directly, there is no code generation or compilation.
+     *
+     * @param mainClass - the class with the main method
+     * @param args      - the arguments
+     * @param timeout   - the timeout (null if none)
+     * @return the console output
+     */
+    private String executeMainClass(Class<?> mainClass, String[] args, Duration timeout) {
 
+        MethodHandle mainMethodHandle = this.mainMethodHandles.computeIfAbsent(mainClass, clazz -> {
+            try {
+                // Loaded again with the exit calls rewritten
+                Class<?> rewrittenClass = new DocMainClassLoader(clazz).loadClass(clazz.getName());
+                return MethodHandles.publicLookup()
+                        .findStatic(rewrittenClass, "main", MethodType.methodType(void.class, String[].class));
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+                throw new RuntimeException("The class " + clazz.getName() + " has no public static main method", e);
             }
+        });
+        String commandCode = mainClass.getName() + " " + String.join(" ", args) + "\n";
+        return invokeWithCapture(() -> {
+            mainMethodHandle.invokeExact(args);
+        }, commandCode, timeout);
 
+    }
 
-            // Now that the class was created, we will load it and run it
-            log.fine("Trying to load from " + outputDirClass);
-            Class<?> buildClass;
-            try (URLClassLoader urlClassLoader = new URLClassLoader(
-                    new URL[]{outputDirClass.toUri().toURL()},
-                    classLoader)) {
-                // Loading the dynamically build class
-                buildClass = urlClassLoader.loadClass(buildClassName);
-            }
-            Method method = buildClass.getMethod(runMethodName);
+    /**
+     * An invocation of Java code
+     */
+    private interface Invocation {
+        void invoke() throws Throwable;
+    }
 
+    /**
+     * Invoke the code while capturing the output of this thread
+     * <p>
+     * A `System.exit` with the status 0 is prevented,
+     * the other status are reported as an error
+     *
+     * @param invocation - the invocation
+     * @param code       - the code invoked (for the error message)
+     * @param timeout    - the timeout (null if none)
+     * @return the console output
+     */
+    private String invokeWithCapture(Invocation invocation, String code, Duration timeout) {
 
-            // Capturing outputStream and running the command
-            PrintStream backupSystemOut = System.out;
-            PrintStream backupSystemErr = System.err;
-            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            PrintStream stream = new PrintStream(byteArrayOutputStream);
-            System.setOut(stream);
-            if (this.docExecutor.getCaptureStdErr()) {
-                System.setErr(stream);
-            }
-            // Invoke
+        try (DocConsoleCapture capture = DocConsoleCapture.start(this.docExecutor.getCaptureStdErr(), this.docExecutor.getConsoleMemoryMaxBytes(), this.docExecutor.getConsoleMaxBytes())) {
             try {
-                method.invoke(null);
-            } catch (InvocationTargetException e) {
+                if (timeout == null) {
+                    invocation.invoke();
+                } else {
+                    invokeWithTimeout(invocation, timeout);
+                }
+            } catch (DocTimeoutException e) {
+                throw e;
+            } catch (Throwable e) {
                 /**
-                 * is it a {@link DocExitStatusException} thrown by {@link DocSecurityManager}
+                 * is it a {@link DocExitStatusException} thrown by {@link DocExit}
                  */
-                if (!e.getTargetException().getClass().equals(DocExitStatusException.class)) {
+                if (!e.getClass().equals(DocExitStatusException.class)) {
                     // if it's not, throw
-                    throw new RuntimeException(e.getCause());
+                    throw new RuntimeException(e);
                 }
-                DocExitStatusException exitStatusException = (DocExitStatusException) e.getTargetException();
+                DocExitStatusException exitStatusException = (DocExitStatusException) e;
                 if (exitStatusException.getExitStatus() != 0) {
                     // Error
-                    System.out.flush(); // Into the byteArray
-                    System.err.flush(); // Into the byteArray
                     String consoleOutput;
-                    if (byteArrayOutputStream.size() == 0) {
+                    if (capture.size() == 0) {
                         consoleOutput = "No output was received";
                     } else {
-                        consoleOutput = byteArrayOutputStream.toString();
+                        consoleOutput = capture.getOutput();
                     }
-                    throw new RuntimeException("Error has been seen.\nCode:\n" + javaCode + "Console Output: \n" + consoleOutput, e);
+                    throw new RuntimeException("Error has been seen.\nCode:\n" + code + "Console Output: \n" + consoleOutput, e);
                 }
                 log.infoSecondLevel("Code execution with System exit with 0 has been prevented");
 
-            } finally {
+            }
+            return capture.getOutput();
+        }
+
+    }
 
-                // Get the output
-                System.out.flush(); // Into the byteArray
-                System.err.flush(); // Into the byteArray
-                System.setOut(backupSystemOut);
-                System.setErr(backupSystemErr);
 
+    /**
+     * Invoke the code in its own thread (that inherits the console capture)
+     * <p>
+     * When the timeout is exceeded, the thread is interrupted and abandoned
+     * (Java has no way to stop a thread that does not check its interrupt flag)
+     *
+     * @param invocation - the invocation
+     * @param timeout    - the timeout
+     */
+    private void invokeWithTimeout(Invocation invocation, Duration timeout) throws Throwable {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                invocation.invoke();
+            } catch (Throwable e) {
+                error.set(e);
             }
+        }, "doc-exec-unit");
+        thread.setDaemon(true);
+        thread.start();
+        thread.join(Math.max(1, timeout.toMillis()));
+        if (thread.isAlive()) {
+            thread.interrupt();
+            throw new DocTimeoutException(timeout);
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
 
-            return byteArrayOutputStream.toString();
+    /**
+     * Compile the class in memory if needed
+     *
+     * @param buildClassName - the class name
+     * @param code           - the source code of the class
+     * @return the bytecode by class name
+     */
+    private Map<String, byte[]> getClassBytes(String buildClassName, String code) {
+        Map<String, byte[]> classBytes;
+        synchronized (this.docExecutorInstance.getClassCompilationLock(buildClassName)) {
+            classBytes = this.docExecutorInstance.getCompiledClassBytes(buildClassName);
+            if (classBytes == null) {
+                classBytes = getCachedClassBytes(code);
+            }
+            if (classBytes == null) {
+                classBytes = this.docExecutorInstance.getJavaCompiler().compileInMemory(buildClassName, code);
+                storeCachedClassBytes(code, classBytes);
+            }
+            this.docExecutorInstance.putCompiledClassBytes(buildClassName, classBytes);
+        }
+        return classBytes;
+    }
+
+    /**
+     * Execute the code in a worker JVM
+     *
+     * @param buildClassName - the class name
+     * @param code           - the source code of the class
+     * @param javaCode       - the java code of the unit (for the error message)
+     * @param timeout        - the timeout (null if none)
+     * @return the console output
+     */
+    private String executeJavaCodeInWorker(String buildClassName, String code, String javaCode, Duration timeout) {
+
+        Map<String, byte[]> classBytes = getClassBytes(buildClassName, code);
+        DocJavaWorker.Result result = this.docExecutorInstance
+                .getJavaWorkerPool()
+                .execute(buildClassName, classBytes, this.docExecutor.getCaptureStdErr(), timeout, this.docExecutor.getConsoleMemoryMaxBytes(), this.docExecutor.getConsoleMaxBytes());
+        if (result.getError() != null) {
+            throw new RuntimeException("Error has been seen.\nCode:\n" + javaCode + "Error: \n" + result.getError() + "Console Output: \n" + result.getConsole());
+        }
+        Integer exitStatus = result.getExitStatus();
+        if (exitStatus != null) {
+            if (exitStatus != 0) {
+                String consoleOutput = result.getConsole().isEmpty() ? "No output was received" : result.getConsole();
+                throw new RuntimeException("Error has been seen.\nCode:\n" + javaCode + "Console Output: \n" + consoleOutput);
+            }
+            log.infoSecondLevel("Code execution with System exit with 0 has been prevented");
+        }
+        return result.getConsole();
 
-        } catch (NoSuchMethodException | IOException | IllegalAccessException | ClassNotFoundException e) {
+    }
 
-            throw new RuntimeException(e);
+    /**
+     * Compile the class if needed and load it
+     * <p>
+     * The same code may be executed concurrently (parallel run)
+     * or more than once (same unit in multiple docs)
+     * We compile it only once by run
+     *
+     * @param buildClassName - the class name
+     * @param code           - the source code of the class
+     * @return the class loaded in a new class loader (ie no static state is shared between two executions)
+     */
+    private Class<?> loadBuildClass(String buildClassName, String code) throws IOException, ClassNotFoundException {
+
+        ClassLoader classLoader = DocExecutorUnit.class.getClassLoader();
 
+        if (this.docExecutor.getIsCompileInMemory()) {
+            Map<String, byte[]> classBytes = getClassBytes(buildClassName, code);
+            return new DocClassLoader(classBytes, classLoader).loadClass(buildClassName);
         }
 
+        // The directory of the run where the classes are saved
+        Path outputDirClass = this.docExecutorInstance.getClassOutputDirectory();
+        synchronized (this.docExecutorInstance.getClassCompilationLock(buildClassName)) {
+            if (!Files.exists(outputDirClass.resolve(buildClassName + JavaFileObject.Kind.CLASS.extension))) {
+                // Compiled in the batch of the run or in the persistent cache
+                Map<String, byte[]> classBytes = this.docExecutorInstance.getCompiledClassBytes(buildClassName);
+                if (classBytes == null) {
+                    classBytes = getCachedClassBytes(code);
+                }
+                if (classBytes != null) {
+                    for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+                        Files.write(outputDirClass.resolve(entry.getKey() + JavaFileObject.Kind.CLASS.extension), entry.getValue());
+                    }
+                } else {
+                    this.docExecutorInstance.getJavaCompiler().compileOnDisk(buildClassName, code, outputDirClass);
+                    storeCachedClassBytes(code, readClassFiles(buildClassName, outputDirClass));
+                }
+            }
+        }
+
+        // Now that the class was created, we will load it
+        log.fine("Trying to load from " + outputDirClass);
+        return new DocClassLoader(readClassFiles(buildClassName, outputDirClass), classLoader).loadClass(buildClassName);
+
     }
 
+    /**
+     * @param code - the source code of the class
+     * @return the bytecode from the persistent cache or null if not found or if the cache is disabled
+     */
+    private Map<String, byte[]> getCachedClassBytes(String code) {
+        DocClassCache classCache = this.docExecutorInstance.getClassCache();
+        if (classCache == null) {
+            return null;
+        }
+        Map<String, byte[]> classBytes = classCache.get(code);
+        if (classBytes != null) {
+            log.fine("The compiled class was found in the cache");
+        }
+        return classBytes;
+    }
+
+    private void storeCachedClassBytes(String code, Map<String, byte[]> classBytes) {
+        DocClassCache classCache = this.docExecutorInstance.getClassCache();
+        if (classCache == null) {
+            return;
+        }
+        classCache.store(code, classBytes);
+    }
+
+    /**
+     * @param buildClassName - the class name
+     * @param outputDirClass - the directory of the class files
+     * @return the bytecode of the class and of its inner classes
+     */
+    private Map<String, byte[]> readClassFiles(String buildClassName, Path outputDirClass) throws IOException {
+        Map<String, byte[]> classBytes = new HashMap<>();
+        String classExtension = JavaFileObject.Kind.CLASS.extension;
+        try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(outputDirClass, buildClassName + "{,$*}" + classExtension)) {
+            for (Path classFile : classFiles) {
+                String fileName = classFile.getFileName().toString();
+                classBytes.put(fileName.substring(0, fileName.length() - classExtension.length()), Files.readAllBytes(classFile));
+            }
+        }
+        return classBytes;
+    }
 
     /**
      * Call the function {@link #eval(DocUnit)} but is safe of exception
@@ -361,13 +734,7 @@ public class DocExecutorUnit {
      */
     public String run(DocUnit docUnit) {
 
-        DocSecurityManager securityManager = docExecutor.getSecurityManager();
-        try {
-            securityManager.setCodeIsRunning(true);
-            return eval(docUnit);
-        } finally {
-            securityManager.setCodeIsRunning(false);
-        }
+        return eval(docUnit);
 
 
     }
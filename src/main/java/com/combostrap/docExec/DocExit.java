@@ -0,0 +1,46 @@
+package com.combostrap.docExec;
+
+/**
+ * The replacement of the exit calls in the code executed
+ * (ie {@link DocExitRewriter})
+ * <p>
+ * The exit is thrown as a {@link DocExitStatusException}
+ * so that DocExecutor can choose what to do with it
+ */
+public class DocExit {
+
+    private DocExit() {
+    }
+
+    /**
+     * Replace `System.exit(status)`
+     *
+     * @param status - the exit status
+     */
+    public static void exit(int status) {
+        throw new DocExitStatusException(status);
+    }
+
+    /**
+     * Replace `Runtime.getRuntime().exit(status)`
+     *
+     * @param runtime - the runtime
+     * @param status  - the exit status
+     */
+    @SuppressWarnings("unused")
+    public static void exit(Runtime runtime, int status) {
+        throw new DocExitStatusException(status);
+    }
+
+    /**
+     * Replace `Runtime.getRuntime().halt(status)`
+     *
+     * @param runtime - the runtime
+     * @param status  - the exit status
+     */
+    @SuppressWarnings("unused")
+    public static void halt(Runtime runtime, int status) {
+        throw new DocExitStatusException(status);
+    }
+
+}
@@ -0,0 +1,367 @@
+package com.combostrap.docExec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrite the bytecode of a class at load time so that the exit calls
+ * are sent to {@link DocExit} that throws a {@link DocExitStatusException}
+ * <p>
+ * It replaces the security manager that was used to catch the exit
+ * and that is removed in JDK 24 (<a href="https://openjdk.org/jeps/486">JEP 486</a>).
+ * <p>
+ * The rewrite is done on the class file format without any library:
+ * <ul>
+ * <li>`System.exit(int)`: the class of the method reference in the constant pool is replaced by {@link DocExit}</li>
+ * <li>`Runtime.exit(int)` and `Runtime.halt(int)`: the `invokevirtual` instructions are replaced by an `invokestatic` of {@link DocExit} that takes the runtime as first argument</li>
+ * <li>`Runtime::exit` and `Runtime::halt` (ie method references): the method handle constants are replaced by a static method handle of {@link DocExit}</li>
+ * </ul>
+ * An exit via a method handle found by reflection is not rewritten.
+ * <a href="https://docs.oracle.com/javase/specs/jvms/se17/html/jvms-4.html">Class file format</a>
+ */
+public class DocExitRewriter {
+
+    private static final String DOC_EXIT_CLASS = DocExit.class.getName().replace('.', '/');
+    private static final String EXIT_DESCRIPTOR = "(I)V";
+    private static final String RUNTIME_EXIT_DESCRIPTOR = "(Ljava/lang/Runtime;I)V";
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+
+    private static final int REF_INVOKE_VIRTUAL = 5;
+    private static final int REF_INVOKE_STATIC = 6;
+
+    private static final int OPCODE_INVOKEVIRTUAL = 0xb6;
+    private static final int OPCODE_INVOKESTATIC = 0xb8;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    /**
+     * The offset of each constant pool entry (after the tag)
+     */
+    private int[] constantOffsets;
+    private int[] constantTags;
+    private int constantPoolEnd;
+
+    private DocExitRewriter(byte[] bytes) {
+        this.bytes = bytes.clone();
+        this.buffer = ByteBuffer.wrap(this.bytes);
+    }
+
+    /**
+     * @param classBytes - the bytecode of a class
+     * @return the bytecode with the exit calls rewritten (or the same bytecode if there is none)
+     * @throws RuntimeException if the bytecode could not be read (ie newer constant),
+     *                          the class should not be loaded as its exit calls would end the JVM
+     */
+    public static byte[] rewrite(byte[] classBytes) {
+        try {
+            return new DocExitRewriter(classBytes).rewrite();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("The bytecode is truncated", e);
+        }
+    }
+
+    private byte[] rewrite() {
+
+        readConstantPool();
+
+        // The method references to rewrite
+        List<Integer> systemExitRefs = new ArrayList<>();
+        Map<Integer, String> runtimeExitRefs = new HashMap<>();
+        for (int i = 1; i < constantTags.length; i++) {
+            if (constantTags[i] != CONSTANT_METHODREF) {
+                continue;
+            }
+            int offset = constantOffsets[i];
+            String className = getClassName(u2(offset));
+            int nameAndType = u2(offset + 2);
+            String name = getUtf8(u2(constantOffsets[nameAndType]));
+            String descriptor = getUtf8(u2(constantOffsets[nameAndType] + 2));
+            if (!EXIT_DESCRIPTOR.equals(descriptor)) {
+                continue;
+            }
+            if ("java/lang/System".equals(className) && "exit".equals(name)) {
+                systemExitRefs.add(i);
+            } else if ("java/lang/Runtime".equals(className) && ("exit".equals(name) || "halt".equals(name))) {
+                runtimeExitRefs.put(i, name);
+            }
+        }
+        if (systemExitRefs.isEmpty() && runtimeExitRefs.isEmpty()) {
+            return bytes;
+        }
+
+        // The new constants are appended to the pool
+        ByteArrayOutputStream newConstants = new ByteArrayOutputStream();
+        DataOutputStream newConstantsOutput = new DataOutputStream(newConstants);
+        int nextIndex = constantTags.length;
+        try {
+            int docExitUtf8 = nextIndex++;
+            newConstantsOutput.writeByte(CONSTANT_UTF8);
+            newConstantsOutput.writeUTF(DOC_EXIT_CLASS);
+            int docExitClass = nextIndex++;
+            newConstantsOutput.writeByte(CONSTANT_CLASS);
+            newConstantsOutput.writeShort(docExitUtf8);
+
+            // System.exit: same name and type, another class
+            for (Integer systemExitRef : systemExitRefs) {
+                buffer.putShort(constantOffsets[systemExitRef], (short) docExitClass);
+            }
+
+            // Runtime.exit: a static method with the runtime as first argument
+            Map<Integer, Integer> runtimeRefReplacements = new HashMap<>();
+            if (!runtimeExitRefs.isEmpty()) {
+                int descriptorUtf8 = nextIndex++;
+                newConstantsOutput.writeByte(CONSTANT_UTF8);
+                newConstantsOutput.writeUTF(RUNTIME_EXIT_DESCRIPTOR);
+                for (Map.Entry<Integer, String> runtimeExitRef : runtimeExitRefs.entrySet()) {
+                    int nameUtf8 = u2(constantOffsets[u2(constantOffsets[runtimeExitRef.getKey()] + 2)]);
+                    int nameAndType = nextIndex++;
+                    newConstantsOutput.writeByte(CONSTANT_NAME_AND_TYPE);
+                    newConstantsOutput.writeShort(nameUtf8);
+                    newConstantsOutput.writeShort(descriptorUtf8);
+                    int methodRef = nextIndex++;
+                    newConstantsOutput.writeByte(CONSTANT_METHODREF);
+                    newConstantsOutput.writeShort(docExitClass);
+                    newConstantsOutput.writeShort(nameAndType);
+                    runtimeRefReplacements.put(runtimeExitRef.getKey(), methodRef);
+                }
+                rewriteInvocations(runtimeRefReplacements);
+                rewriteMethodHandles(runtimeRefReplacements);
+            }
+        } catch (IOException e) {
+            // in memory
+            throw new RuntimeException(e);
+        }
+        if (nextIndex > 0xffff) {
+            throw new IllegalStateException("The constant pool is full");
+        }
+
+        ByteArrayOutputStream classOutput = new ByteArrayOutputStream(bytes.length + newConstants.size());
+        // magic, version
+        classOutput.write(bytes, 0, 8);
+        // constant pool count
+        classOutput.write(nextIndex >> 8);
+        classOutput.write(nextIndex);
+        classOutput.write(bytes, 10, constantPoolEnd - 10);
+        classOutput.write(newConstants.toByteArray(), 0, newConstants.size());
+        classOutput.write(bytes, constantPoolEnd, bytes.length - constantPoolEnd);
+        return classOutput.toByteArray();
+
+    }
+
+    private void readConstantPool() {
+        int count = u2(8);
+        constantOffsets = new int[count];
+        constantTags = new int[count];
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = bytes[offset] & 0xff;
+            constantTags[i] = tag;
+            constantOffsets[i] = offset + 1;
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    offset += 3 + u2(offset + 1);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case CONSTANT_METHODREF:
+                case 11: // InterfaceMethodref
+                case CONSTANT_NAME_AND_TYPE:
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    offset += 5;
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    offset += 9;
+                    // takes two entries
+                    i++;
+                    break;
+                case CONSTANT_CLASS:
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    offset += 3;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    offset += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown constant tag " + tag);
+            }
+        }
+        constantPoolEnd = offset;
+    }
+
+    /**
+     * Replace the virtual method handles of the runtime methods (ie `Runtime::exit`) by a static method handle
+     *
+     * @param replacements - the method reference replacements
+     */
+    private void rewriteMethodHandles(Map<Integer, Integer> replacements) {
+        for (int i = 1; i < constantTags.length; i++) {
+            if (constantTags[i] != CONSTANT_METHOD_HANDLE) {
+                continue;
+            }
+            int offset = constantOffsets[i];
+            Integer replacement = replacements.get(u2(offset + 1));
+            if (replacement != null && bytes[offset] == REF_INVOKE_VIRTUAL) {
+                bytes[offset] = REF_INVOKE_STATIC;
+                buffer.putShort(offset + 1, (short) (int) replacement);
+            }
+        }
+    }
+
+    /**
+     * Replace the `invokevirtual` of the runtime methods by an `invokestatic`
+     *
+     * @param replacements - the method reference replacements
+     */
+    private void rewriteInvocations(Map<Integer, Integer> replacements) {
+
+        // access flags, this class, super class
+        int offset = constantPoolEnd + 6;
+        int interfacesCount = u2(offset);
+        offset += 2 + interfacesCount * 2;
+        // fields
+        offset = skipMembers(offset, null);
+        // methods
+        skipMembers(offset, replacements);
+
+    }
+
+    /**
+     * @param offset       - the offset of the member count
+     * @param replacements - the replacements to apply in the code attributes or null
+     * @return the offset after the members
+     */
+    private int skipMembers(int offset, Map<Integer, Integer> replacements) {
+        int membersCount = u2(offset);
+        offset += 2;
+        for (int i = 0; i < membersCount; i++) {
+            // access flags, name, descriptor
+            offset += 6;
+            int attributesCount = u2(offset);
+            offset += 2;
+            for (int j = 0; j < attributesCount; j++) {
+                String attributeName = getUtf8(u2(offset));
+                int attributeLength = buffer.getInt(offset + 2);
+                if (replacements != null && "Code".equals(attributeName)) {
+                    // max stack, max locals
+                    int codeLength = buffer.getInt(offset + 10);
+                    rewriteCode(offset + 14, codeLength, replacements);
+                }
+                offset += 6 + attributeLength;
+            }
+        }
+        return offset;
+    }
+
+    private void rewriteCode(int codeStart, int codeLength, Map<Integer, Integer> replacements) {
+        int pc = 0;
+        while (pc < codeLength) {
+            int opcode = bytes[codeStart + pc] & 0xff;
+            if (opcode == OPCODE_INVOKEVIRTUAL) {
+                Integer replacement = replacements.get(u2(codeStart + pc + 1));
+                if (replacement != null) {
+                    bytes[codeStart + pc] = (byte) OPCODE_INVOKESTATIC;
+                    buffer.putShort(codeStart + pc + 1, (short) (int) replacement);
+                }
+            }
+            pc += getInstructionLength(codeStart, pc, opcode);
+        }
+    }
+
+    private int getInstructionLength(int codeStart, int pc, int opcode) {
+        switch (opcode) {
+            case 0xaa: { // tableswitch
+                int padding = (4 - (pc + 1) % 4) % 4;
+                int offset = codeStart + pc + 1 + padding;
+                int low = buffer.getInt(offset + 4);
+                int high = buffer.getInt(offset + 8);
+                return 1 + padding + 12 + (high - low + 1) * 4;
+            }
+            case 0xab: { // lookupswitch
+                int padding = (4 - (pc + 1) % 4) % 4;
+                int offset = codeStart + pc + 1 + padding;
+                int pairs = buffer.getInt(offset + 4);
+                return 1 + padding + 8 + pairs * 8;
+            }
+            case 0xc4: // wide
+                return (bytes[codeStart + pc + 1] & 0xff) == 0x84 ? 6 : 4;
+            case 0x10: // bipush
+            case 0x12: // ldc
+            case 0x15: // iload
+            case 0x16: // lload
+            case 0x17: // fload
+            case 0x18: // dload
+            case 0x19: // aload
+            case 0x36: // istore
+            case 0x37: // lstore
+            case 0x38: // fstore
+            case 0x39: // dstore
+            case 0x3a: // astore
+            case 0xa9: // ret
+            case 0xbc: // newarray
+                return 2;
+            case 0xc5: // multianewarray
+                return 4;
+            case 0xb9: // invokeinterface
+            case 0xba: // invokedynamic
+            case 0xc8: // goto_w
+            case 0xc9: // jsr_w
+                return 5;
+            default:
+                if (opcode == 0x11 // sipush
+                        || opcode == 0x13 // ldc_w
+                        || opcode == 0x14 // ldc2_w
+                        || opcode == 0x84 // iinc
+                        || (opcode >= 0x99 && opcode <= 0xa8) // if, goto, jsr
+                        || (opcode >= 0xb2 && opcode <= 0xb8) // field and method
+                        || opcode == 0xbb // new
+                        || opcode == 0xbd // anewarray
+                        || opcode == 0xc0 // checkcast
+                        || opcode == 0xc1 // instanceof
+                        || opcode == 0xc6 // ifnull
+                        || opcode == 0xc7 // ifnonnull
+                ) {
+                    return 3;
+                }
+                return 1;
+        }
+    }
+
+    private int u2(int offset) {
+        return buffer.getShort(offset) & 0xffff;
+    }
+
+    private String getUtf8(int index) {
+        if (constantTags[index] != CONSTANT_UTF8) {
+            throw new IllegalStateException("The constant " + index + " is not an utf8");
+        }
+        int offset = constantOffsets[index];
+        int length = u2(offset);
+        // Modified UTF-8 is UTF-8 for the names that we search
+        return new String(bytes, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    private String getClassName(int classIndex) {
+        return getUtf8(u2(constantOffsets[classIndex]));
+    }
+
+}
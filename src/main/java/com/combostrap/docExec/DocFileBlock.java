@@ -22,9 +22,9 @@ public class DocFileBlock {
      */
     private String path;
     /**
-     * The content if any
+     * The content if any (a view on the doc content when parsed, ie DocText)
      */
-    private String content = null;
+    private CharSequence content = null;
     /**
      * The start location in the file by characters
      */
@@ -39,9 +39,9 @@ public class DocFileBlock {
         return new DocFileBlock(docUnit);
     }
 
-    public DocFileBlock setContent(String content) {
-        String contentTrim = content.trim();
-        if (!contentTrim.equals("")) {
+    public DocFileBlock setContent(CharSequence content) {
+        CharSequence contentTrim = DocText.trim(content);
+        if (contentTrim.length() != 0) {
             this.content = contentTrim;
         }
         return this;
@@ -84,6 +84,17 @@ public class DocFileBlock {
     }
 
     public String getContent() {
+        // The view is copied once, at the first call
+        if (this.content != null && !(this.content instanceof String)) {
+            this.content = this.content.toString();
+        }
+        return (String) this.content;
+    }
+
+    /**
+     * @return the content without copy (ie a view on the doc content)
+     */
+    public CharSequence getContentText() {
         return this.content;
     }
 }
@@ -0,0 +1,245 @@
+package com.combostrap.docExec;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Java compiler of a {@link DocExecutorInstance}
+ * <p>
+ * The compiler and its file manager are created once and kept open for the whole run
+ * so that the classpath (ie the jar listings) is read only once and not for each Java unit.
+ * <p>
+ * The file manager is not thread safe, the compilations are therefore done one at a time.
+ */
+public class DocJavaCompiler implements AutoCloseable {
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+    private final DocLog log;
+
+    private DocJavaCompiler(DocLog log) {
+        this.log = log;
+        this.compiler = getSystemCompiler();
+        this.fileManager = compiler.getStandardFileManager(null, null, null);
+        // Add class path to get org.zeroturnaround.exec
+        String currentClassPath = System.getProperty("java.class.path");
+        log.fine("Using classpath: " + currentClassPath);
+        if (currentClassPath != null && !currentClassPath.isEmpty()) {
+            List<File> classPath = new ArrayList<>();
+            for (String classPathEntry : currentClassPath.split(File.pathSeparator)) {
+                classPath.add(new File(classPathEntry));
+            }
+            try {
+                this.fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to set the classpath of the compiler", e);
+            }
+        }
+    }
+
+    /**
+     * @param log - the log
+     * @return a compiler
+     * @throws RuntimeException - if the compiler is not found
+     */
+    static DocJavaCompiler create(DocLog log) {
+        return new DocJavaCompiler(log);
+    }
+
+    /**
+     * @return the system java compiler
+     * @throws RuntimeException - if the compiler is not found
+     */
+    private static JavaCompiler getSystemCompiler() {
+
+        // Get the compiler
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+
+            String javaHome = System.getProperty("java.home");
+            final String toolsJarFileName = "tools.jar";
+            Path toolsJarFilePath = Paths.get(javaHome, "lib", toolsJarFileName);
+            String message = "Unable to get the system Java Compiler. Are your running java with a JDK ?";
+            if (!Files.exists(toolsJarFilePath)) {
+                message += System.lineSeparator() + "The tools jar file (" + toolsJarFileName + ") could not be found at (" + toolsJarFilePath + ")";
+            }
+            message += System.lineSeparator() + "Java Home: " + javaHome;
+            throw new RuntimeException(message);
+
+        }
+        return compiler;
+
+    }
+
+    /**
+     * Compile a class in a directory
+     *
+     * @param buildClassName - the class name
+     * @param code           - the source code of the class
+     * @param outputDirClass - the directory where the class file is written
+     * @throws RuntimeException - if the code does not compile
+     */
+    public synchronized void compileOnDisk(String buildClassName, String code, Path outputDirClass) {
+
+        try {
+            this.fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDirClass.toFile()));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to set the class output directory (" + outputDirClass + ")", e);
+        }
+        compile(this.fileManager, buildClassName, code);
+
+    }
+
+    /**
+     * Compile a class in memory
+     *
+     * @param buildClassName - the class name
+     * @param code           - the source code of the class
+     * @return the bytecode by class name
+     * @throws RuntimeException - if the code does not compile
+     */
+    public synchronized Map<String, byte[]> compileInMemory(String buildClassName, String code) {
+
+        // The memory file manager is not closed as it would close the shared file manager
+        DocMemoryFileManager memoryFileManager = new DocMemoryFileManager(this.fileManager);
+        compile(memoryFileManager, buildClassName, code);
+        return memoryFileManager.getClassBytes();
+
+    }
+
+    /**
+     * Compile classes in memory in a single compilation task
+     * <p>
+     * If a class has a compile error, the classes without errors are compiled again
+     * without it so that one bad unit does not prevent the others from being compiled.
+     *
+     * @param sourcesByClassName - the source code by class name
+     * @param errorsByClassName  - the compile errors by class name (filled by this function)
+     * @return the bytecode by class name (the inner classes are with their top level class)
+     */
+    public synchronized Map<String, Map<String, byte[]>> compileInMemory(Map<String, String> sourcesByClassName, Map<String, List<Diagnostic<? extends JavaFileObject>>> errorsByClassName) {
+
+        Map<String, String> sourcesToCompile = new LinkedHashMap<>(sourcesByClassName);
+        while (!sourcesToCompile.isEmpty()) {
+
+            List<JavaFileObject> compilationUnits = new ArrayList<>();
+            for (Map.Entry<String, String> entry : sourcesToCompile.entrySet()) {
+                compilationUnits.add(new DocSource(entry.getKey(), entry.getValue()));
+            }
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            DocMemoryFileManager memoryFileManager = new DocMemoryFileManager(this.fileManager);
+            Boolean success = compiler.getTask(null, memoryFileManager, diagnostics, null, null, compilationUnits).call();
+
+            if (success) {
+                Map<String, Map<String, byte[]>> classBytesByClassName = new HashMap<>();
+                for (Map.Entry<String, byte[]> entry : memoryFileManager.getClassBytes().entrySet()) {
+                    String className = entry.getKey();
+                    int innerClassSeparator = className.indexOf('$');
+                    String topLevelClassName = innerClassSeparator == -1 ? className : className.substring(0, innerClassSeparator);
+                    classBytesByClassName
+                            .computeIfAbsent(topLevelClassName, k -> new HashMap<>())
+                            .put(className, entry.getValue());
+                }
+                return classBytesByClassName;
+            }
+
+            // Remove the classes with errors and compile again
+            boolean errorFound = false;
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() != Diagnostic.Kind.ERROR || !(diagnostic.getSource() instanceof DocSource)) {
+                    continue;
+                }
+                String className = ((DocSource) diagnostic.getSource()).getClassName();
+                errorsByClassName.computeIfAbsent(className, k -> new ArrayList<>()).add(diagnostic);
+                sourcesToCompile.remove(className);
+                errorFound = true;
+            }
+            if (!errorFound) {
+                // Error without source (should not happen), the units will be compiled one by one at execution
+                break;
+            }
+
+        }
+        return new HashMap<>();
+
+    }
+
+    /**
+     * Run a compilation task
+     *
+     * @throws RuntimeException - if the code does not compile
+     */
+    private void compile(JavaFileManager fileManager, String buildClassName, String code) {
+
+        // Create a compilation unit (files)
+        DocSource docSource = new DocSource(buildClassName, code);
+        Iterable<? extends JavaFileObject> compilationUnits = Collections.singletonList(docSource);
+        // A feedback object (diagnostic) to get errors
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        // Compilation unit can be created and called only once
+        JavaCompiler.CompilationTask task = compiler.getTask(
+                null,
+                fileManager,
+                diagnostics,
+                null,
+                null,
+                compilationUnits
+        );
+        // The compile task is called
+        boolean success = task.call();
+        // Only the errors fail the compilation (as in a batch compilation)
+        List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic);
+            } else {
+                log.fine("Compile " + diagnostic.getKind() + " on line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new RuntimeException(getCompileErrorMessage(errors, code));
+        }
+        if (!success) {
+            throw new RuntimeException("The compilation of the class (" + buildClassName + ") has failed without error\nCode:\n" + code);
+        }
+
+    }
+
+    /**
+     * @param errors - the compile errors of a source
+     * @param code   - the source code
+     * @return the error message (the same for a single and a batch compilation)
+     */
+    static String getCompileErrorMessage(List<Diagnostic<? extends JavaFileObject>> errors, String code) {
+        StringBuilder message = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> error : errors) {
+            message.append("Compile Error on line ")
+                    .append(error.getLineNumber())
+                    .append("\nError: ")
+                    .append(error.getMessage(null))
+                    .append("\n");
+        }
+        return message.append("Code:\n").append(code).toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.fileManager.close();
+        } catch (IOException e) {
+            log.fine("The compiler file manager could not be closed: " + e.getMessage());
+        }
+    }
+
+}
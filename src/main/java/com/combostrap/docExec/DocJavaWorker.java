@@ -0,0 +1,234 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Processes;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A worker JVM that executes the Java units
+ * (ie a child process running {@link DocJavaWorkerMain})
+ * <p>
+ * The worker has the classpath of doc-exec and receives only the bytecode of the units,
+ * the compilation stays in the doc-exec JVM.
+ */
+public class DocJavaWorker implements AutoCloseable {
+
+    private final Process process;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    /**
+     * The number of units executed
+     */
+    private int unitCount = 0;
+    /**
+     * True if the process was killed after a timeout
+     */
+    private volatile boolean killed = false;
+
+    private DocJavaWorker(Process process) {
+        this.process = process;
+        this.output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.input = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    /**
+     * Start a worker JVM
+     *
+     * @return the worker
+     */
+    static DocJavaWorker start() {
+        String javaBinary = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = Arrays.asList(
+                javaBinary,
+                "-cp",
+                System.getProperty("java.class.path"),
+                DocJavaWorkerMain.class.getName()
+        );
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            return new DocJavaWorker(process);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to start the Java worker with the command " + command, e);
+        }
+    }
+
+    /**
+     * Run a unit
+     *
+     * @param className     - the name of the class with the static run method
+     * @param classBytes    - the bytecode by class name
+     * @param captureStdErr - if the std err should be captured
+     * @param timeout       - the timeout (null if none), the worker is killed when exceeded
+     * @param consoleMemoryMaxBytes - the number of bytes of the console kept in memory by the worker
+     * @param consoleMaxBytes       - the max number of bytes of the console sent back (truncated with a marker)
+     * @return the result
+     * @throws DocTimeoutException if the timeout is exceeded
+     */
+    Result execute(String className, Map<String, byte[]> classBytes, boolean captureStdErr, Duration timeout, long consoleMemoryMaxBytes, long consoleMaxBytes) {
+        unitCount++;
+        try {
+            output.writeInt(DocJavaWorkerMain.REQUEST_RUN);
+            output.writeUTF(className);
+            output.writeBoolean(captureStdErr);
+            output.writeLong(consoleMemoryMaxBytes);
+            output.writeLong(consoleMaxBytes);
+            output.writeInt(classBytes.size());
+            for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("The Java worker is not reachable", e);
+        }
+        // The watchdog and the end of the read take the same guard:
+        // a watchdog that fires after the response was read does not kill the worker
+        AtomicBoolean settled = new AtomicBoolean(false);
+        CompletableFuture<Void> watchdog = null;
+        if (timeout != null) {
+            watchdog = CompletableFuture.runAsync(() -> {
+                if (settled.compareAndSet(false, true)) {
+                    killed = true;
+                    Processes.destroyTree(process);
+                }
+            }, CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+        Integer status = null;
+        int exitStatus = 0;
+        String console = null;
+        String error = null;
+        IOException readException = null;
+        try {
+            status = input.readInt();
+            exitStatus = input.readInt();
+            console = new String(readBytes(), Charset.defaultCharset());
+            error = new String(readBytes(), Charset.defaultCharset());
+        } catch (IOException e) {
+            readException = e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+        if (!settled.compareAndSet(false, true)) {
+            throw new DocTimeoutException(timeout);
+        }
+        if (readException != null) {
+            if (status == null) {
+                // Crash without response
+                return new Result(waitForExitValue(), "", "The Java worker has crashed");
+            }
+            throw new RuntimeException("The response of the Java worker could not be read", readException);
+        }
+        switch (status) {
+            case DocJavaWorkerMain.STATUS_OK:
+                return new Result(null, console, null);
+            case DocJavaWorkerMain.STATUS_EXIT:
+                return new Result(exitStatus, console, null);
+            case DocJavaWorkerMain.STATUS_ENDED:
+                return new Result(waitForExitValue(), console, null);
+            default:
+                return new Result(null, console, error);
+        }
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private int waitForExitValue() {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the number of units executed
+     */
+    int getUnitCount() {
+        return unitCount;
+    }
+
+    /**
+     * @return true if the worker can execute units
+     */
+    boolean isAlive() {
+        return !killed && process.isAlive();
+    }
+
+    /**
+     * Ask the worker to quit and kill it if it does not
+     */
+    @Override
+    public void close() {
+        if (process.isAlive()) {
+            try {
+                output.writeInt(DocJavaWorkerMain.REQUEST_QUIT);
+                output.flush();
+            } catch (IOException e) {
+                // already gone
+            }
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The result of a unit execution
+     */
+    static class Result {
+
+        private final Integer exitStatus;
+        private final String console;
+        private final String error;
+
+        private Result(Integer exitStatus, String console, String error) {
+            this.exitStatus = exitStatus;
+            this.console = console;
+            this.error = error;
+        }
+
+        /**
+         * @return the status of `System.exit` or null if the unit has not exited
+         */
+        Integer getExitStatus() {
+            return exitStatus;
+        }
+
+        String getConsole() {
+            return console;
+        }
+
+        /**
+         * @return the stack trace of the exception thrown or null
+         */
+        String getError() {
+            return error;
+        }
+
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.combostrap.docExec;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The main class of a worker JVM (ie {@link DocJavaWorker})
+ * <p>
+ * The worker receives the bytecode of a Java unit on its standard input,
+ * runs it and sends back its console output on its standard output.
+ * <p>
+ * The protocol:
+ * <ul>
+ * <li>request: the type ({@link #REQUEST_RUN} or {@link #REQUEST_QUIT}), the class name, the capture of the std err flag, the console memory max bytes, the console max bytes, the class count and for each class, its name and bytecode</li>
+ * <li>response: the status ({@link #STATUS_OK}, {@link #STATUS_ERROR}, {@link #STATUS_EXIT} or {@link #STATUS_ENDED}), the exit status, the console output and the error</li>
+ * </ul>
+ * The exit calls of the unit are rewritten (ie {@link DocExitRewriter}).
+ * If the process exits anyway (ie an exit in a library), the response is sent by a shutdown hook
+ * and the exit status is the exit value of the process.
+ */
+public class DocJavaWorkerMain {
+
+    static final int REQUEST_RUN = 1;
+    static final int REQUEST_QUIT = 0;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    static final int STATUS_EXIT = 2;
+    static final int STATUS_ENDED = 3;
+    static final String RUN_METHOD_NAME = "run";
+
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final PrintStream consoleStream = new PrintStream(new ConsoleOutputStream(), true);
+    /**
+     * The console of the running unit
+     */
+    private volatile DocCaptureBuffer console;
+    private long consoleMaxBytes;
+    private final PrintStream originalErr = System.err;
+    /**
+     * True when a unit is running (ie a response is expected)
+     */
+    private boolean running = false;
+
+    private DocJavaWorkerMain() {
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // The unit should not read or write in the protocol streams
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        System.setOut(consoleStream);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        DocJavaWorkerMain worker = new DocJavaWorkerMain();
+        Runtime.getRuntime().addShutdownHook(new Thread(worker::sendExitResponse));
+        worker.loop();
+
+    }
+
+    private void loop() throws IOException {
+
+        while (true) {
+            int type;
+            try {
+                type = input.readInt();
+            } catch (EOFException e) {
+                // The parent is gone
+                return;
+            }
+            if (type == REQUEST_QUIT) {
+                return;
+            }
+            String className = input.readUTF();
+            boolean captureStdErr = input.readBoolean();
+            long consoleMemoryMaxBytes = input.readLong();
+            long consoleMaxBytes = input.readLong();
+            int classCount = input.readInt();
+            Map<String, byte[]> classBytes = new HashMap<>();
+            for (int i = 0; i < classCount; i++) {
+                String name = input.readUTF();
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                classBytes.put(name, bytes);
+            }
+            run(className, classBytes, captureStdErr, consoleMemoryMaxBytes, consoleMaxBytes);
+        }
+
+    }
+
+    private void run(String className, Map<String, byte[]> classBytes, boolean captureStdErr, long consoleMemoryMaxBytes, long consoleMaxBytes) throws IOException {
+
+        synchronized (this) {
+            if (console != null) {
+                console.close();
+            }
+            console = DocCaptureBuffer.create(consoleMemoryMaxBytes);
+            this.consoleMaxBytes = consoleMaxBytes;
+            System.setErr(captureStdErr ? consoleStream : originalErr);
+            running = true;
+        }
+        int status = STATUS_OK;
+        int exitStatus = 0;
+        String error = "";
+        try {
+            Class<?> buildClass = new DocClassLoader(classBytes, DocJavaWorkerMain.class.getClassLoader()).loadClass(className);
+            Method method = buildClass.getMethod(RUN_METHOD_NAME);
+            method.invoke(null);
+        } catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof DocExitStatusException) {
+                status = STATUS_EXIT;
+                exitStatus = ((DocExitStatusException) e.getTargetException()).getExitStatus();
+            } else {
+                status = STATUS_ERROR;
+                error = toString(e.getTargetException());
+            }
+        } catch (Throwable e) {
+            status = STATUS_ERROR;
+            error = toString(e);
+        }
+        synchronized (this) {
+            if (!running) {
+                // already sent by the shutdown hook
+                return;
+            }
+            running = false;
+            sendResponse(status, exitStatus, error);
+        }
+
+    }
+
+    /**
+     * Called by the shutdown hook when the process exits during a unit (ie exit call not rewritten)
+     */
+    private synchronized void sendExitResponse() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            sendResponse(STATUS_ENDED, 0, "");
+        } catch (IOException e) {
+            // The parent will see the end of the stream
+        }
+    }
+
+    private void sendResponse(int status, int exitStatus, String error) throws IOException {
+        consoleStream.flush();
+        output.writeInt(status);
+        output.writeInt(exitStatus);
+        writeBytes(console.toText(consoleMaxBytes, Charset.defaultCharset()).getBytes(Charset.defaultCharset()));
+        writeBytes(error.getBytes());
+        output.flush();
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * The stream of `System.out` that writes in the console of the running unit
+     */
+    private class ConsoleOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            DocCaptureBuffer buffer = console;
+            if (buffer != null) {
+                buffer.write(b, off, len);
+            }
+        }
+
+    }
+
+    private static String toString(Throwable e) {
+        StringWriter stringWriter = new StringWriter();
+        e.printStackTrace(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+}
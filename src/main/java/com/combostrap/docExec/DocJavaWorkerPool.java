@@ -0,0 +1,103 @@
+package com.combostrap.docExec;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A pool of pre-started {@link DocJavaWorker worker JVM}
+ * <p>
+ * A worker is replaced after {@link DocExecutor#setJavaWorkerMaxUnits(int) a number of units}
+ * or when its process has ended (ie crash or `System.exit`)
+ * so that the static state of the units does not leak for too long.
+ */
+public class DocJavaWorkerPool implements AutoCloseable {
+
+    private final BlockingQueue<DocJavaWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final int maxUnits;
+    private final DocLog log;
+    private final List<DocJavaWorker> workers = new ArrayList<>();
+    private boolean closed = false;
+
+    private DocJavaWorkerPool(int workerCount, int maxUnits, DocLog log) {
+        this.maxUnits = maxUnits;
+        this.log = log;
+        for (int i = 0; i < workerCount; i++) {
+            idleWorkers.add(startWorker());
+        }
+    }
+
+    /**
+     * @param workerCount - the number of workers
+     * @param maxUnits    - the number of units executed by a worker before it's replaced
+     * @param log         - the log
+     * @return the pool with the workers started
+     */
+    static DocJavaWorkerPool create(int workerCount, int maxUnits, DocLog log) {
+        return new DocJavaWorkerPool(workerCount, maxUnits, log);
+    }
+
+    private synchronized DocJavaWorker startWorker() {
+        if (closed) {
+            throw new IllegalStateException("The Java worker pool is closed");
+        }
+        DocJavaWorker worker = DocJavaWorker.start();
+        workers.add(worker);
+        return worker;
+    }
+
+    private synchronized void stopWorker(DocJavaWorker worker) {
+        workers.remove(worker);
+        worker.close();
+    }
+
+    /**
+     * Run a unit on the first idle worker
+     *
+     * @param className     - the name of the class with the static run method
+     * @param classBytes    - the bytecode by class name
+     * @param captureStdErr - if the std err should be captured
+     * @param timeout       - the timeout (null if none)
+     * @param consoleMemoryMaxBytes - the number of bytes of the console kept in memory by the worker
+     * @param consoleMaxBytes       - the max number of bytes of the console sent back
+     * @return the result
+     */
+    DocJavaWorker.Result execute(String className, Map<String, byte[]> classBytes, boolean captureStdErr, Duration timeout, long consoleMemoryMaxBytes, long consoleMaxBytes) {
+
+        DocJavaWorker worker;
+        try {
+            worker = idleWorkers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a Java worker", e);
+        }
+        try {
+            return worker.execute(className, classBytes, captureStdErr, timeout, consoleMemoryMaxBytes, consoleMaxBytes);
+        } finally {
+            if (!worker.isAlive() || worker.getUnitCount() >= maxUnits) {
+                log.fine("Java worker recycled after " + worker.getUnitCount() + " unit(s)");
+                stopWorker(worker);
+                worker = startWorker();
+            }
+            idleWorkers.add(worker);
+        }
+
+    }
+
+    /**
+     * Stop all workers
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (DocJavaWorker worker : workers) {
+            worker.close();
+        }
+        workers.clear();
+        idleWorkers.clear();
+    }
+
+}
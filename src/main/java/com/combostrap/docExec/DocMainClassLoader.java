@@ -0,0 +1,106 @@
+package com.combostrap.docExec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Set;
+
+/**
+ * A class loader that loads again a {@link DocExecutor#setShellCommandExecuteViaMainClass(String, Class) main class}
+ * with the exit calls rewritten (ie {@link DocExitRewriter})
+ * <p>
+ * Only the classes of the package of the main class that come from its code source (its jar or its class directory)
+ * are loaded again (ie the main class, its nested classes and its package helpers).
+ * Their static state is then not shared with the classes loaded by the parent.
+ * <p>
+ * Limitations:
+ * <ul>
+ * <li>an exit in a class of another package (ie a library) is not rewritten and ends the JVM</li>
+ * <li>the package-private access to a class of the same package from another code source (ie a split package) fails</li>
+ * </ul>
+ * The other classes and the exit classes of doc-exec are loaded by the parent.
+ */
+public class DocMainClassLoader extends ClassLoader {
+
+    /**
+     * The classes shared with doc-exec (the exit is caught by class)
+     */
+    private static final Set<String> SHARED_CLASS_NAMES = Set.of(
+            DocExit.class.getName(),
+            DocExitStatusException.class.getName()
+    );
+
+    /**
+     * The url of the code source of the main class (ie the prefix of the url of its classes)
+     */
+    private final String codeSourceUrl;
+    /**
+     * The package of the main class
+     */
+    private final String packageName;
+
+    /**
+     * @param mainClass - the main class
+     */
+    DocMainClassLoader(Class<?> mainClass) {
+        super(mainClass.getClassLoader());
+        String resourceName = getResourceName(mainClass.getName());
+        URL url = getParent().getResource(resourceName);
+        if (url == null) {
+            throw new IllegalArgumentException("The bytecode of the main class (" + mainClass.getName() + ") was not found");
+        }
+        String mainClassUrl = url.toString();
+        this.codeSourceUrl = mainClassUrl.substring(0, mainClassUrl.length() - resourceName.length());
+        this.packageName = getPackageName(mainClass.getName());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!getPackageName(name).equals(packageName) || SHARED_CLASS_NAMES.contains(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loadedClass = findLoadedClass(name);
+            if (loadedClass == null) {
+                String resourceName = getResourceName(name);
+                URL url = getParent().getResource(resourceName);
+                if (url == null || !url.toString().equals(codeSourceUrl + resourceName)) {
+                    return super.loadClass(name, resolve);
+                }
+                loadedClass = defineRewrittenClass(name, url);
+            }
+            if (resolve) {
+                resolveClass(loadedClass);
+            }
+            return loadedClass;
+        }
+    }
+
+    /**
+     * @throws RuntimeException if the exit calls could not be rewritten (the class is never loaded with them)
+     */
+    private Class<?> defineRewrittenClass(String name, URL url) throws ClassNotFoundException {
+        byte[] bytes;
+        try (InputStream inputStream = url.openStream()) {
+            bytes = inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        try {
+            bytes = DocExitRewriter.rewrite(bytes);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("The exit calls of the class (" + name + ") could not be rewritten", e);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    private static String getResourceName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot == -1 ? "" : className.substring(0, lastDot);
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.combostrap.docExec;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file manager that keeps the compiled classes in memory
+ * <p>
+ * The sources and the classpath are still read by the forwarded (standard) file manager,
+ * only the class output is kept in {@link DocClassFile}
+ */
+public class DocMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    private final Map<String, DocClassFile> classFiles = new HashMap<>();
+
+    /**
+     * @param fileManager - the file manager that reads the sources and the classpath
+     */
+    DocMemoryFileManager(JavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+        DocClassFile classFile = new DocClassFile(className);
+        classFiles.put(className, classFile);
+        return classFile;
+    }
+
+    /**
+     * @return the bytecode of the compiled classes by binary class name
+     */
+    public Map<String, byte[]> getClassBytes() {
+        Map<String, byte[]> classBytes = new HashMap<>();
+        for (DocClassFile classFile : classFiles.values()) {
+            classBytes.put(classFile.getClassName(), classFile.getBytes());
+        }
+        return classBytes;
+    }
+
+}
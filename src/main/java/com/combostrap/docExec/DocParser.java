@@ -2,14 +2,11 @@ package com.combostrap.docExec;
 
 
 import com.combostrap.docExec.util.Fs;
-import com.combostrap.docExec.util.Strings;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -19,6 +16,11 @@ import java.util.stream.Stream;
  */
 public class DocParser {
 
+    private static final String UNIT_NODE = "unit";
+    private static final String CODE_NODE = "code";
+    private static final String FILE_NODE = "file";
+    private static final String CONSOLE_NODE = "console";
+
     /**
      * @param path - where the doc is located
      * @return list of DocTestUnit parsed from the file defined by the path
@@ -32,6 +34,7 @@ public class DocParser {
      * @param s    - the doc content
      * @param path - a path string
      * @return a list of doc test from a file
+     * The blocks of the units are views on the content (ie {@link DocText}), they are not copied
      */
     public static List<DocUnit> getDocTests(String s, Path path) {
 
@@ -41,121 +44,120 @@ public class DocParser {
 
         List<DocUnit> docUnits = new ArrayList<>();
 
+        /**
+         * The doc is scanned once from tag to tag.
+         * A unit node is matched with its first closing tag,
+         * the first code, console and file nodes found in its content are then matched inside it.
+         */
+        int numberOfUnitTestNode = 0;
+        // The unit whose content is scanned
+        DocUnit docUnit = null;
+        Node unitNode = null;
+        boolean codeScanned = false;
+        boolean consoleScanned = false;
+        boolean fileScanned = false;
+        // False when a unit node was not closed, a next unit node can't be
+        boolean unitSearch = true;
+        int tagStart = s.indexOf('<');
+        while (tagStart != -1) {
+
+            if (unitNode != null && tagStart >= unitNode.contentEnd) {
+                checkOrder(docUnit);
+                docUnit = null;
+                unitNode = null;
+            }
 
-        final String unitTestNode = "unit";
-        final String codeNodeName = "code";
-        final String fileNodeName = "file";
-        final String consoleNodeName = "console";
-
-
-        Pattern unitTestNodePattern = Pattern.compile("<" + unitTestNode + "(.*?)>(.*?)</" + unitTestNode + ">", Pattern.DOTALL);
-        Pattern codeTestNodePattern = Pattern.compile("<" + codeNodeName + "(.*?)>(.*?)</" + codeNodeName + ">", Pattern.DOTALL);
-        Pattern consolePattern = Pattern.compile("<" + consoleNodeName + "(.*?)>(.*?)</" + consoleNodeName + ">", Pattern.DOTALL);
-        Pattern filePattern = Pattern.compile("<" + fileNodeName + "(.*?)>(.*?)</" + fileNodeName + ">", Pattern.DOTALL);
-
+            if (isTag(s, tagStart, UNIT_NODE)) {
+
+                numberOfUnitTestNode++;
+                if (unitNode == null && unitSearch) {
+                    unitNode = Node.match(s, tagStart, UNIT_NODE, s.length());
+                    if (unitNode == null) {
+                        unitSearch = false;
+                    } else {
+                        docUnit = DocUnit.get();
+                        docUnit.setLocation(tagStart);
+                        docUnit.setPath(path);
+                        docUnits.add(docUnit);
+                        docUnit.setProperty(unitNode.properties);
+                        codeScanned = false;
+                        consoleScanned = false;
+                        fileScanned = false;
+                    }
+                }
 
-        Matcher unitTestMatcher = unitTestNodePattern.matcher(s);
-        while (unitTestMatcher.find()) {
+            } else if (unitNode != null && tagStart >= unitNode.contentStart) {
 
-            DocUnit docUnit = DocUnit.get();
-            docUnit.setLocation(unitTestMatcher.start());
-            docUnit.setPath(path);
-            docUnits.add(docUnit);
-            String unitTestProperties = unitTestMatcher.group(1);
-            docUnit.setProperty(unitTestProperties);
-            String unitTestDefinition = unitTestMatcher.group(2);
-            final int unitTestStartLocation = unitTestMatcher.start() + 1 + unitTestNode.length() + unitTestProperties.length() + 1;
+                if (!codeScanned && isTag(s, tagStart, CODE_NODE)) {
 
-            // Try to find the code
-            Matcher codeTestMatcher = codeTestNodePattern.matcher(unitTestDefinition);
-            boolean unitFound = codeTestMatcher.find();
-            if (unitFound) {
+                    codeScanned = true;
+                    Node codeNode = Node.match(s, tagStart, CODE_NODE, unitNode.contentEnd);
+                    if (codeNode != null) {
 
-                // Properties of the node is now only the language
-                String codeProperties = codeTestMatcher.group(1).trim();
-                final int i = codeProperties.indexOf(" ");
-                if (i == -1) {
-                    docUnit.setLanguage(codeProperties);
-                } else {
-                    docUnit.setLanguage(codeProperties.substring(0, i));
-                }
+                        // Properties of the node is now only the language
+                        String codeProperties = codeNode.properties.trim();
+                        final int i = codeProperties.indexOf(" ");
+                        if (i == -1) {
+                            docUnit.setLanguage(codeProperties);
+                        } else {
+                            docUnit.setLanguage(codeProperties.substring(0, i));
+                        }
 
-                // The code
-                String codeDefinition = codeTestMatcher.group(2);
-                docUnit.setCode(codeDefinition);
+                        // The code
+                        docUnit.setCode(DocText.of(s, codeNode.contentStart, codeNode.contentEnd));
 
+                        // The start does not take the properties into account
+                        int start = tagStart + 1 + CODE_NODE.length() + 1;
+                        docUnit.setCodeLocation(new DocBlockLocation(start, codeNode.contentEnd));
 
-                int start = codeTestMatcher.start() + unitTestStartLocation + 1 + codeNodeName.length() + 1;
-                int end = codeTestMatcher.end() + unitTestStartLocation - 2 - codeNodeName.length() - 1;
-                docUnit.setCodeLocation(new DocBlockLocation(start, end));
+                    }
 
-            }
+                } else if (!consoleScanned && isTag(s, tagStart, CONSOLE_NODE)) {
 
-            // Try to find the console
-            Matcher consoleMatcher = consolePattern.matcher(unitTestDefinition);
-            boolean codeFound = consoleMatcher.find();
-            if (codeFound) {
-                String fileProperties = consoleMatcher.group(1);
-                String consoleContent = consoleMatcher.group(2);
-                int start = consoleMatcher.start() + unitTestStartLocation + 1 + consoleNodeName.length() + fileProperties.length() + 1;
-                int end = consoleMatcher.end() + unitTestStartLocation - 2 - consoleNodeName.length() - 1;
-                docUnit.setConsoleLocation(new DocBlockLocation(start, end));
-                docUnit.setConsoleContent(consoleContent);
-            }
+                    consoleScanned = true;
+                    Node consoleNode = Node.match(s, tagStart, CONSOLE_NODE, unitNode.contentEnd);
+                    if (consoleNode != null) {
+                        docUnit.setConsoleLocation(new DocBlockLocation(consoleNode.contentStart, consoleNode.contentEnd));
+                        docUnit.setConsoleContent(DocText.of(s, consoleNode.contentStart, consoleNode.contentEnd));
+                    }
 
-            // Try to find the file
-            Matcher fileMatcher = filePattern.matcher(unitTestDefinition);
-            boolean fileFound = fileMatcher.find();
-            if (fileFound) {
-
-                DocFileBlock docFileBlock = DocFileBlock.get(docUnit);
-                docUnit.addFileBlock(docFileBlock);
-                String fileProperties = fileMatcher.group(1);
-                String[] properties = fileProperties.trim().split(" ");
-                if (properties.length >= 1) {
-                    docFileBlock.setLanguage(properties[0]);
-                }
-                if (properties.length >= 2) {
-                    docFileBlock.setPath(properties[1]);
-                }
+                } else if (!fileScanned && isTag(s, tagStart, FILE_NODE)) {
 
-                String fileContent = fileMatcher.group(2).trim();
-                docFileBlock.setContent(fileContent);
+                    fileScanned = true;
+                    Node fileNode = Node.match(s, tagStart, FILE_NODE, unitNode.contentEnd);
+                    if (fileNode != null) {
 
-                int startLocation = fileMatcher.start() + unitTestStartLocation + 1 + fileNodeName.length() + fileProperties.length() + 1;
-                int locationEnd = fileMatcher.end() + unitTestStartLocation - 2 - fileNodeName.length() - 1;
-                docFileBlock.setLocationStart(startLocation);
-                docFileBlock.setLocationEnd(locationEnd);
+                        DocFileBlock docFileBlock = DocFileBlock.get(docUnit);
+                        docUnit.addFileBlock(docFileBlock);
+                        String[] properties = fileNode.properties.trim().split(" ");
+                        if (properties.length >= 1) {
+                            docFileBlock.setLanguage(properties[0]);
+                        }
+                        if (properties.length >= 2) {
+                            docFileBlock.setPath(properties[1]);
+                        }
 
-            }
+                        docFileBlock.setContent(DocText.of(s, fileNode.contentStart, fileNode.contentEnd));
 
-            // Test that the file node is before the console node
-            for (DocFileBlock docFileBlock : docUnit.getFileBlocks()) {
+                        docFileBlock.setLocationStart(fileNode.contentStart);
+                        docFileBlock.setLocationEnd(fileNode.contentEnd);
 
-                // Console is not mandatory
-                final DocBlockLocation consoleLocation = docUnit.getConsoleLocation();
-                if (consoleLocation != null) {
-                    if (docFileBlock.getLocationStart() > consoleLocation.getStart()) {
-                        throw new RuntimeException("Order is not good, the console node must be after the file node");
                     }
-                }
 
-                // Code is then we have a location
-                if (docUnit.getCodeLocation() != null) {
-                    if (docFileBlock.getLocationStart() > docUnit.getCodeLocation().getStart()) {
-                        throw new RuntimeException("Order is not good, the file node must be before the code node in the doc test file " + docUnit.getPath());
-                    }
                 }
 
             }
 
+            tagStart = s.indexOf('<', tagStart + 1);
+        }
+        if (docUnit != null) {
+            checkOrder(docUnit);
         }
 
 
         // Test that all nodes are closed
-        final Integer numberOfUnitTestNode = Strings.numberOfOccurrences(s, "<" + unitTestNode);
         if (docUnits.size() != numberOfUnitTestNode) {
-            String message = "A " + unitTestNode + " node seems not to be closed in the file (" + path + "). There is " + numberOfUnitTestNode + " unit test node with the name (" + unitTestNode + ") but we parsed only " + docUnits.size() + " doc unit test code. This unit test is not closed ?:\n";
+            String message = "A " + UNIT_NODE + " node seems not to be closed in the file (" + path + "). There is " + numberOfUnitTestNode + " unit test node with the name (" + UNIT_NODE + ") but we parsed only " + docUnits.size() + " doc unit test code. This unit test is not closed ?:\n";
             message += Stream.of(docUnits.get(docUnits.size() - 1)).map(d -> {
                 if (d.getCodeLocation() != null) {
                     return "Code unit: " + d.getCode();
@@ -172,4 +174,77 @@ public class DocParser {
         return docUnits;
     }
 
+    /**
+     * @return true if a tag of the node starts at this index (ie `<name`)
+     */
+    private static boolean isTag(String s, int tagStart, String nodeName) {
+        return s.startsWith(nodeName, tagStart + 1);
+    }
+
+    /**
+     * Test that the file node is before the console node and the code node
+     */
+    private static void checkOrder(DocUnit docUnit) {
+
+        for (DocFileBlock docFileBlock : docUnit.getFileBlocks()) {
+
+            // Console is not mandatory
+            final DocBlockLocation consoleLocation = docUnit.getConsoleLocation();
+            if (consoleLocation != null) {
+                if (docFileBlock.getLocationStart() > consoleLocation.getStart()) {
+                    throw new RuntimeException("Order is not good, the console node must be after the file node");
+                }
+            }
+
+            // Code is then we have a location
+            if (docUnit.getCodeLocation() != null) {
+                if (docFileBlock.getLocationStart() > docUnit.getCodeLocation().getStart()) {
+                    throw new RuntimeException("Order is not good, the file node must be before the code node in the doc test file " + docUnit.getPath());
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * The offsets of a node (ie `<name properties>content</name>`)
+     */
+    private static class Node {
+
+        private final String properties;
+        private final int contentStart;
+        private final int contentEnd;
+
+        private Node(String properties, int contentStart, int contentEnd) {
+            this.properties = properties;
+            this.contentStart = contentStart;
+            this.contentEnd = contentEnd;
+        }
+
+        /**
+         * Match a node with the first `>` and the first closing tag after it
+         *
+         * @param s        - the doc
+         * @param tagStart - the index of the opening tag
+         * @param nodeName - the name of the node
+         * @param limit    - the index where the node should end
+         * @return the node or null if it's not closed before the limit
+         */
+        private static Node match(String s, int tagStart, String nodeName, int limit) {
+            int propertiesStart = tagStart + 1 + nodeName.length();
+            int propertiesEnd = s.indexOf('>', propertiesStart);
+            if (propertiesEnd == -1 || propertiesEnd >= limit) {
+                return null;
+            }
+            String closingTag = "</" + nodeName + ">";
+            int closingTagStart = s.indexOf(closingTag, propertiesEnd + 1);
+            if (closingTagStart == -1 || closingTagStart + closingTag.length() > limit) {
+                return null;
+            }
+            return new Node(s.substring(propertiesStart, propertiesEnd), propertiesEnd + 1, closingTagStart);
+        }
+
+    }
+
 }
@@ -0,0 +1,265 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Processes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Execute the commands of the shell units and pump their output
+ * with a fixed number of event loop threads (ie {@link DocExecutor#setProcessPumpThreads(int)})
+ * <p>
+ * A process pipe is not a selectable channel in Java and a blocking read never returns
+ * when a background process that was reparented (ie `(sleep 100 &)`) keeps the pipe open.
+ * A loop thread then polls the pipes that it owns without blocking (ie {@link InputStream#available()}).
+ * When none of them has data, it parks for a time that doubles up to a max (an idle loop does not spin)
+ * and it is woken up by the end of a process (ie {@link Process#onExit()}).
+ * At the end of the process, the bytes that it has written are in the pipe:
+ * they are drained and the pipe is closed without waiting for the reparented processes.
+ * <p>
+ * The number of threads does not depend on the number of processes running in parallel.
+ */
+public class DocProcessPump implements AutoCloseable {
+
+    /**
+     * The first and the max time a loop waits when no pipe has data
+     */
+    private static final long IDLE_PARK_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long IDLE_PARK_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(32);
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<PumpLoop> loops = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private DocProcessPump(int threadCount) {
+        for (int i = 0; i < threadCount; i++) {
+            PumpLoop loop = new PumpLoop();
+            // No inheritance of the console capture of the creating thread
+            Thread thread = new Thread(null, loop, DocExecutor.APP_NAME + "-process-pump-" + i, 0, false);
+            thread.setDaemon(true);
+            loop.thread = thread;
+            loops.add(loop);
+            thread.start();
+        }
+    }
+
+    /**
+     * @param threadCount - the number of loop threads
+     * @return the pump with its threads started
+     */
+    static DocProcessPump create(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The number of process pump threads (" + threadCount + ") should be greater or equal to 1");
+        }
+        return new DocProcessPump(threadCount);
+    }
+
+    /**
+     * Execute a command
+     *
+     * @param command - the command
+     * @param env     - the environment variables added to the process environment
+     * @param out     - the stream that receives the standard output
+     * @param err     - the stream that receives the standard error
+     * @param timeout - the timeout (null if none), the process and its descendants are killed when exceeded
+     * @return the exit value of the process
+     * @throws DocTimeoutException if the timeout is exceeded
+     */
+    int execute(List<String> command, Map<String, String> env, OutputStream out, OutputStream err, Duration timeout) throws IOException, InterruptedException {
+
+        if (closed) {
+            throw new IllegalStateException("The process pump is closed");
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.environment().putAll(env);
+        Process process = processBuilder.start();
+        // No input
+        process.getOutputStream().close();
+
+        Pipe outPipe = new Pipe(process.getInputStream(), out);
+        Pipe errPipe = new Pipe(process.getErrorStream(), err);
+        PumpLoop loop = loops.get(Math.floorMod(nextLoop.getAndIncrement(), loops.size()));
+        loop.register(outPipe);
+        loop.register(errPipe);
+        process.onExit().thenRun(() -> {
+            outPipe.exited = true;
+            errPipe.exited = true;
+            LockSupport.unpark(loop.thread);
+        });
+
+        try {
+            if (timeout == null) {
+                outPipe.done.get();
+                errPipe.done.get();
+                return process.waitFor();
+            }
+            long deadline = System.nanoTime() + timeout.toNanos();
+            outPipe.done.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            errPipe.done.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (!process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException();
+            }
+            return process.exitValue();
+        } catch (TimeoutException e) {
+            Processes.destroyTree(process);
+            throw new DocTimeoutException(timeout);
+        } catch (ExecutionException e) {
+            Processes.destroyTree(process);
+            throw new IOException("The output of the command " + command + " could not be read", e.getCause());
+        } catch (InterruptedException e) {
+            Processes.destroyTree(process);
+            throw e;
+        } finally {
+            outPipe.cancel();
+            errPipe.cancel();
+        }
+
+    }
+
+    /**
+     * Stop the loop threads
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PumpLoop loop : loops) {
+            LockSupport.unpark(loop.thread);
+        }
+    }
+
+    /**
+     * A process stream and the stream that receives its bytes
+     */
+    private static class Pipe {
+
+        private final InputStream in;
+        private final OutputStream out;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile boolean cancelled = false;
+        /**
+         * The process has ended
+         */
+        private volatile boolean exited = false;
+
+        private Pipe(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        /**
+         * @param buffer - the buffer of the loop
+         * @return true if bytes were read or the pipe has ended
+         */
+        private boolean pump(byte[] buffer) throws IOException {
+            // Read before the check of the pipe: the bytes written before the end are then available
+            boolean exited = this.exited;
+            int available = in.available();
+            if (available > 0) {
+                int read = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (read == -1) {
+                    finish();
+                } else {
+                    out.write(buffer, 0, read);
+                }
+                return true;
+            }
+            if (!exited) {
+                return false;
+            }
+            // The bytes written by a process that is not a descendant anymore are not waited for
+            finish();
+            return true;
+        }
+
+        private void finish() throws IOException {
+            in.close();
+            out.flush();
+            done.complete(null);
+        }
+
+        /**
+         * Stop the pumping (ie timeout)
+         */
+        private void cancel() {
+            if (done.isDone()) {
+                return;
+            }
+            cancelled = true;
+            done.cancel(false);
+        }
+
+    }
+
+    /**
+     * A loop that pumps the pipes that were registered on it
+     */
+    private class PumpLoop implements Runnable {
+
+        private final Queue<Pipe> registrations = new ConcurrentLinkedQueue<>();
+        private final List<Pipe> pipes = new ArrayList<>();
+        private Thread thread;
+
+        private void register(Pipe pipe) {
+            registrations.add(pipe);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long idleParkNanos = IDLE_PARK_MIN_NANOS;
+            while (!closed) {
+                Pipe registration;
+                while ((registration = registrations.poll()) != null) {
+                    pipes.add(registration);
+                    idleParkNanos = IDLE_PARK_MIN_NANOS;
+                }
+                if (pipes.isEmpty()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                boolean progress = false;
+                Iterator<Pipe> iterator = pipes.iterator();
+                while (iterator.hasNext()) {
+                    Pipe pipe = iterator.next();
+                    if (pipe.cancelled) {
+                        iterator.remove();
+                        continue;
+                    }
+                    try {
+                        progress |= pipe.pump(buffer);
+                    } catch (IOException e) {
+                        pipe.done.completeExceptionally(e);
+                    }
+                    if (pipe.done.isDone()) {
+                        iterator.remove();
+                    }
+                }
+                if (progress) {
+                    idleParkNanos = IDLE_PARK_MIN_NANOS;
+                } else {
+                    // Woken up early by a registration or the end of a process
+                    LockSupport.parkNanos(this, idleParkNanos);
+                    idleParkNanos = Math.min(idleParkNanos * 2, IDLE_PARK_MAX_NANOS);
+                }
+            }
+            for (Pipe pipe : pipes) {
+                pipe.done.cancel(false);
+            }
+            pipes.clear();
+        }
+
+    }
+
+}
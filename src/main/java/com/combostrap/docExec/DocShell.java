@@ -9,10 +9,19 @@ public class DocShell {
   public static final String DOS_LANG = "dos";
   public static final String BASH_LANG = "bash";
 
+  /**
+   * The environment of the process does not change, we take it once
+   */
+  private static final Map<String, String> SYSTEM_ENV = System.getenv();
+
   /**
    * @param docUnit   - the docTestUnit
    * @param shellLang - the lang (dos or bash)
    * @return Building the commands (each command is represented as an array of args)
+   * <p>
+   * The code is read in a single pass. The variables (`$VAR`, `${VAR}` for bash, `%VAR%` for dos)
+   * are expanded when they are read with the env of the unit or the env of the process.
+   * An unknown variable is kept as it is.
    */
   protected static List<String[]> parseShellCommand(DocUnit docUnit, String shellLang) {
 
@@ -22,41 +31,70 @@ public class DocShell {
     final char spaceChar = ' ';
     final char continuationChar;
     final char quoteChar = '"';
-    char[] comments;
+    final boolean isDos;
+    String comments;
     switch (shellLang) {
       case DOS_LANG:
-        comments = new char[]{':', ':'};
+        comments = "::";
         continuationChar = '^';
+        isDos = true;
         break;
       case BASH_LANG:
-        comments = new char[]{'#'};
+        comments = "#";
         continuationChar = '\\';
+        isDos = false;
         break;
       default:
         throw new RuntimeException("Unsupported lang " + shellLang);
 
     }
 
-
+    Map<String, String> unitEnv = docUnit.getEnv();
     List<String[]> commands = new ArrayList<>();
-    String[] lines = docUnit.getCode().trim().split("\n|\r\n");
-    for (String line : lines) {
+    String code = docUnit.getCode().trim();
+    StringBuilder arg = new StringBuilder();
+    List<String> args = new ArrayList<>();
+    int lineStart = 0;
+    while (lineStart <= code.length()) {
 
-      line = line.trim();
+      int lineEnd = code.indexOf('\n', lineStart);
+      if (lineEnd == -1) {
+        lineEnd = code.length();
+      }
+      // Trim
+      int start = lineStart;
+      int end = lineEnd;
+      lineStart = lineEnd + 1;
+      while (start < end && code.charAt(start) <= spaceChar) {
+        start++;
+      }
+      while (end > start && code.charAt(end - 1) <= spaceChar) {
+        end--;
+      }
 
       // Comments skipping
-      if (line.length() >= comments.length) {
-        if (line.trim().substring(0, comments.length).equals(new String(comments))) {
-          continue;
-        }
+      if (code.startsWith(comments, start) && end - start >= comments.length()) {
+        continue;
       }
 
       int state = defaultState;
-      char[] dst = new char[line.length()];
-      line.getChars(0, line.length(), dst, 0);
-      StringBuilder arg = new StringBuilder();
-      List<String> args = new ArrayList<>();
-      for (char c : dst) {
+      arg.setLength(0);
+      args.clear();
+      for (int i = start; i < end; i++) {
+        char c = code.charAt(i);
+
+        // Variable expansion
+        if ((isDos && c == '%') || (!isDos && c == '$')) {
+          int variableEnd = isDos ? expandDosVariable(code, i, end, unitEnv, arg) : expandBashVariable(code, i, end, unitEnv, arg);
+          if (variableEnd != -1) {
+            i = variableEnd;
+            if (state == defaultState) {
+              state = spaceCapture;
+            }
+            continue;
+          }
+        }
+
         switch (state) {
           case defaultState:
             switch (c) {
@@ -75,14 +113,14 @@ public class DocShell {
           case spaceCapture:
             switch (c) {
               case spaceChar:
-                if (!arg.toString().isEmpty()) {
-                  args.add(arg.toString());
-                  arg = new StringBuilder();
+                if (arg.length() != 0) {
+                  args.add(escape(arg));
+                  arg.setLength(0);
                 }
                 state = defaultState;
                 break;
               case quoteChar:
-                if (!arg.toString().isEmpty()) {
+                if (arg.length() != 0) {
                   arg.append(c);
                 } else {
                   state = quoteCapture;
@@ -94,75 +132,129 @@ public class DocShell {
             }
             break;
           case quoteCapture:
-            switch (c) {
-              case quoteChar:
-                if (!arg.toString().isEmpty()) {
-                  args.add(arg.toString());
-                  arg = new StringBuilder();
-                }
-                state = defaultState;
-                break;
-              default:
-                arg.append(c);
-                break;
+            if (c == quoteChar) {
+              if (arg.length() != 0) {
+                args.add(escape(arg));
+                arg.setLength(0);
+              }
+              state = defaultState;
+            } else {
+              arg.append(c);
             }
             break;
 
         }
       }
 
-      // Arg normalized
-      String argTrimmed = arg.toString().trim();
-
       // A command may be broken in multiple lines
+      String argTrimmed = arg.toString().trim();
       if (argTrimmed.length() == 1 && argTrimmed.charAt(0) == continuationChar) {
         continue;
       }
 
       if (!argTrimmed.isEmpty()) {
-        args.add(arg.toString());
+        args.add(escape(arg));
       }
       commands.add(args.toArray(new String[0]));
     }
 
-    for (String[] args : commands) {
+    return commands;
+  }
 
-      // Env variable expansion
-      // Declared
-      for (Map.Entry<String, String> entry : docUnit.getEnv().entrySet()) {
-        for (int i = 0; i < args.length; i++) {
-          if (shellLang.equals(DOS_LANG)) {
-            args[i] = args[i].replace("%" + entry.getKey() + "%", entry.getValue());
-          }
-          if (shellLang.equals(BASH_LANG)) {
-            args[i] = args[i].replace("$" + entry.getKey(), entry.getValue());
-            args[i] = args[i].replace("${" + entry.getKey() + "}", entry.getValue());
-          }
-        }
-      }
-      // Env
-      for (String envName : System.getenv().keySet()) {
-        for (int i = 0; i < args.length; i++) {
-          if (shellLang.equals(DOS_LANG)) {
-            args[i] = args[i].replace("%" + envName + "%", System.getenv().get(envName));
-          }
-          if (shellLang.equals(BASH_LANG)) {
-            args[i] = args[i].replace("$" + envName, System.getenv().get(envName));
-            args[i] = args[i].replace("${" + envName + "}", System.getenv().get(envName));
-          }
-        }
-      }
+  /**
+   * Path in DOS must have two slash in the code to escape it
+   * (done after the env expansion)
+   */
+  private static String escape(StringBuilder arg) {
+    String s = arg.toString();
+    if (s.indexOf('\\') == -1) {
+      return s;
+    }
+    return s.replace("\\", "\\\\");
+  }
 
-      // Escaping (after env expansion)
-      for (int i = 0; i < args.length; i++) {
+  /**
+   * @param name    - the variable name
+   * @param unitEnv - the env of the unit
+   * @return the value of a variable (the env of the unit has the priority), null if unknown
+   */
+  private static String getVariable(String name, Map<String, String> unitEnv) {
+    String value = unitEnv.get(name);
+    if (value != null) {
+      return value;
+    }
+    return SYSTEM_ENV.get(name);
+  }
 
-        // Path in DOS must have two slash in the code to escape it
-        args[i] = args[i].replace("\\", "\\\\");
+  /**
+   * Expand `$VAR` or `${VAR}`
+   *
+   * @param code  - the code
+   * @param start - the index of the dollar sign
+   * @param end   - the end of the line
+   * @param arg   - the arg where the value is appended
+   * @return the index of the last character of the variable, -1 if this is not a known variable
+   */
+  private static int expandBashVariable(String code, int start, int end, Map<String, String> unitEnv, StringBuilder arg) {
+    int nameStart = start + 1;
+    if (nameStart >= end) {
+      return -1;
+    }
+    boolean braces = code.charAt(nameStart) == '{';
+    if (braces) {
+      nameStart++;
+    }
+    int nameEnd = nameStart;
+    while (nameEnd < end && isNameCharacter(code.charAt(nameEnd), nameEnd == nameStart)) {
+      nameEnd++;
+    }
+    if (nameEnd == nameStart) {
+      return -1;
+    }
+    if (braces && (nameEnd >= end || code.charAt(nameEnd) != '}')) {
+      return -1;
+    }
+    String value = getVariable(code.substring(nameStart, nameEnd), unitEnv);
+    if (value == null) {
+      return -1;
+    }
+    arg.append(value);
+    return braces ? nameEnd : nameEnd - 1;
+  }
 
+  /**
+   * Expand `%VAR%`
+   *
+   * @return the index of the closing percent sign, -1 if this is not a known variable
+   */
+  private static int expandDosVariable(String code, int start, int end, Map<String, String> unitEnv, StringBuilder arg) {
+    int nameEnd = start + 1;
+    while (nameEnd < end) {
+      char c = code.charAt(nameEnd);
+      if (c == '%') {
+        break;
+      }
+      if (c == ' ' || c == '"') {
+        return -1;
       }
+      nameEnd++;
+    }
+    if (nameEnd >= end || nameEnd == start + 1) {
+      return -1;
+    }
+    String value = getVariable(code.substring(start + 1, nameEnd), unitEnv);
+    if (value == null) {
+      return -1;
+    }
+    arg.append(value);
+    return nameEnd;
+  }
 
+  private static boolean isNameCharacter(char c, boolean first) {
+    if (c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+      return true;
     }
-    return commands;
+    return !first && c >= '0' && c <= '9';
   }
 
 
@@ -0,0 +1,286 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Processes;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * A bash process that executes the bash units of a doc one after the other
+ * (ie {@link DocExecutor#setShellSession(boolean)})
+ * <p>
+ * The code of a unit is sent on the standard input of bash followed by a sentinel marker
+ * that gives its exit status. The output is read by chunk until the marker
+ * so that a long line is not buffered whole in memory.
+ * <p>
+ * The code is read in a variable with a here document and evaluated
+ * so that a syntax error does not block the session.
+ * The variables and the working directory set by a unit are kept for the next units
+ * unless the session is isolated (ie each unit is executed in a subshell).
+ * The env of a unit is given as assignments before the evaluation, it's then never kept.
+ * <p>
+ * The output is the standard output as for a unit executed without session,
+ * the standard error goes to the console of doc-exec.
+ */
+public class DocShellSession implements AutoCloseable {
+
+    private static final String CODE_VARIABLE = "__doc_exec_code";
+    /**
+     * A command name that can be a bash function name
+     */
+    private static final Pattern COMMAND_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_.-]*");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Process process;
+    private final Writer input;
+    private final InputStream output;
+    private final boolean isolated;
+    /**
+     * The marker is unique by session so that it can't be in the output of a unit
+     */
+    private final String marker = "__DOC_EXEC_" + UUID.randomUUID().toString().replace("-", "") + "__";
+    /**
+     * The bytes that end the output of a unit, they are followed by the exit status
+     */
+    private final byte[] sentinel = ("\n" + marker + " ").getBytes(StandardCharsets.UTF_8);
+    /**
+     * True if the process was killed after a timeout
+     */
+    private volatile boolean killed = false;
+
+    private DocShellSession(Process process, boolean isolated) {
+        this.process = process;
+        this.isolated = isolated;
+        this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.output = process.getInputStream();
+    }
+
+    /**
+     * @param env           - the environment variables added to the process environment
+     * @param captureStdErr - if true, the std err goes to the std out of doc-exec (as for a command executed without session)
+     * @param isolated      - if true, each unit is executed in a subshell and does not change the state of the session
+     * @return a started session
+     */
+    static DocShellSession start(Map<String, String> env, boolean captureStdErr, boolean isolated) {
+        ProcessBuilder processBuilder = new ProcessBuilder("bash");
+        if (!captureStdErr) {
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+        processBuilder.environment().putAll(env);
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to start the bash session", e);
+        }
+        if (captureStdErr) {
+            // As for the commands executed without session
+            Thread errorThread = new Thread(() -> {
+                try (InputStream errorStream = process.getErrorStream()) {
+                    errorStream.transferTo(System.out);
+                } catch (IOException e) {
+                    // The session is gone
+                }
+            }, DocExecutor.APP_NAME + "-shell-session-err");
+            errorThread.setDaemon(true);
+            errorThread.start();
+        }
+        return new DocShellSession(process, isolated);
+    }
+
+    /**
+     * Execute the code of a unit
+     *
+     * @param code           - the bash code
+     * @param env            - the environment variables of the unit
+     * @param commandPaths   - the path of the commands set on the executor (they are resolved as without session)
+     * @param timeout        - the timeout (null if none), the session and its processes are killed when exceeded
+     * @param memoryMaxBytes - the number of bytes of the output kept in memory before spilling to a temporary file
+     * @param maxBytes       - the max number of bytes of the output returned
+     * @return the output (truncated with a marker if bigger than the max)
+     * @throws RuntimeException    if the exit status is not 0
+     * @throws DocTimeoutException if the timeout is exceeded
+     */
+    String execute(String code, Map<String, String> env, Map<String, Path> commandPaths, Duration timeout, long memoryMaxBytes, long maxBytes) {
+
+        StringBuilder script = new StringBuilder();
+        script.append("IFS= read -r -d '' ").append(CODE_VARIABLE).append(" <<'").append(marker).append("'\n")
+                .append(code).append("\n")
+                .append(marker).append("\n");
+        script.append(isolated ? "( " : "{ ");
+        for (Map.Entry<String, Path> entry : commandPaths.entrySet()) {
+            if (COMMAND_NAME_PATTERN.matcher(entry.getKey()).matches()) {
+                script.append(entry.getKey()).append("() { ").append(quote(entry.getValue().toAbsolutePath().toString())).append(" \"$@\"; }; ");
+            }
+        }
+        // The assignments before eval are exported for the unit only
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            script.append(entry.getKey()).append("=").append(quote(entry.getValue())).append(" ");
+        }
+        script.append("eval \"$").append(CODE_VARIABLE).append("\"\n")
+                .append(isolated ? ")" : "}").append(" </dev/null\n")
+                .append("printf '\\n%s %s\\n' '").append(marker).append("' \"$?\"\n");
+
+        try {
+            input.write(script.toString());
+            input.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("The bash session is not reachable", e);
+        }
+
+        // The watchdog and the end of the read take the same guard:
+        // a watchdog that fires after the output was read does not kill the session
+        AtomicBoolean settled = new AtomicBoolean(false);
+        CompletableFuture<Void> watchdog = null;
+        if (timeout != null) {
+            watchdog = CompletableFuture.runAsync(() -> {
+                if (settled.compareAndSet(false, true)) {
+                    killed = true;
+                    Processes.destroyTree(process);
+                }
+            }, CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+        try (DocCaptureBuffer unitOutput = DocCaptureBuffer.create(memoryMaxBytes)) {
+            int exitStatus = 0;
+            IOException readException = null;
+            try {
+                exitStatus = readUntilSentinel(unitOutput);
+            } catch (IOException e) {
+                readException = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+            }
+            if (!settled.compareAndSet(false, true)) {
+                throw new DocTimeoutException(timeout);
+            }
+            if (readException != null) {
+                throw new RuntimeException("The output of the bash session could not be read", readException);
+            }
+            String text = unitOutput.toText(maxBytes, StandardCharsets.UTF_8);
+            if (exitStatus != 0) {
+                throw new RuntimeException("The bash code has exited with the status " + exitStatus + ".\nCode:\n" + code + "\nOutput:\n" + text);
+            }
+            return text;
+        }
+
+    }
+
+    /**
+     * Read the output until the sentinel
+     * <p>
+     * The bytes that may be the start of the sentinel are held back until the next chunk.
+     *
+     * @param unitOutput - the buffer that receives the output of the unit
+     * @return the exit status
+     */
+    private int readUntilSentinel(DocCaptureBuffer unitOutput) throws IOException, InterruptedException {
+        byte[] buffer = new byte[BUFFER_SIZE + sentinel.length];
+        int held = 0;
+        while (true) {
+            int read = output.read(buffer, held, BUFFER_SIZE);
+            if (read == -1) {
+                // `exit` in the code, the session is gone
+                unitOutput.write(buffer, 0, held);
+                return process.waitFor();
+            }
+            int length = held + read;
+            int index = indexOf(buffer, length, sentinel);
+            if (index != -1) {
+                unitOutput.write(buffer, 0, index);
+                return readExitStatus(buffer, index + sentinel.length, length);
+            }
+            // The end may be the start of the sentinel
+            int keep = Math.min(length, sentinel.length - 1);
+            unitOutput.write(buffer, 0, length - keep);
+            System.arraycopy(buffer, length - keep, buffer, 0, keep);
+            held = keep;
+        }
+    }
+
+    /**
+     * @param buffer - the buffer
+     * @param start  - the start of the exit status in the buffer
+     * @param end    - the end of the bytes in the buffer
+     * @return the exit status written after the sentinel until the end of line
+     */
+    private int readExitStatus(byte[] buffer, int start, int end) throws IOException {
+        StringBuilder status = new StringBuilder();
+        for (int i = start; i < end && buffer[i] != '\n'; i++) {
+            status.append((char) buffer[i]);
+        }
+        if (status.length() == end - start) {
+            // The end of line is in the next chunk
+            int b;
+            while ((b = output.read()) != -1 && b != '\n') {
+                status.append((char) b);
+            }
+        }
+        return Integer.parseInt(status.toString().trim());
+    }
+
+    /**
+     * @return the index of the pattern in the first bytes of the buffer or -1
+     */
+    private static int indexOf(byte[] buffer, int length, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param value - a value
+     * @return the value in single quote for bash
+     */
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * @return true if the session can execute units
+     */
+    boolean isAlive() {
+        return !killed && process.isAlive();
+    }
+
+    @Override
+    public void close() {
+        if (!process.isAlive()) {
+            return;
+        }
+        try {
+            input.write("exit\n");
+            input.flush();
+        } catch (IOException e) {
+            // already gone
+        }
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -33,6 +33,10 @@ public class DocSource extends SimpleJavaFileObject {
         this.code = code;
     }
 
+    public String getClassName() {
+        return className;
+    }
+
     @Override
     public CharSequence getCharContent(boolean ignoreEncodingErrors) {
         return code;
@@ -0,0 +1,84 @@
+package com.combostrap.docExec;
+
+/**
+ * A view on a part of the content of a doc (ie a block of a {@link DocUnit})
+ * <p>
+ * The characters are not copied, the view points to the content of the doc by offset
+ * so that the memory of a parsed doc stays close to its size.
+ * A string is created only when {@link #toString()} is called.
+ */
+public class DocText implements CharSequence {
+
+    private final CharSequence content;
+    private final int start;
+    private final int end;
+
+    private DocText(CharSequence content, int start, int end) {
+        if (start < 0 || end > content.length() || start > end) {
+            throw new IndexOutOfBoundsException("The range (" + start + ", " + end + ") is not in the content of length " + content.length());
+        }
+        this.content = content;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param content - the content of the doc
+     * @param start   - the start offset (inclusive)
+     * @param end     - the end offset (exclusive)
+     * @return the view
+     */
+    static DocText of(CharSequence content, int start, int end) {
+        if (content instanceof DocText) {
+            DocText docText = (DocText) content;
+            return new DocText(docText.content, docText.start + start, docText.start + end);
+        }
+        return new DocText(content, start, end);
+    }
+
+    /**
+     * @param charSequence - a text
+     * @return a view without the leading and trailing whitespace (as {@link String#trim()})
+     */
+    static CharSequence trim(CharSequence charSequence) {
+        int start = 0;
+        int end = charSequence.length();
+        while (start < end && charSequence.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && charSequence.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == 0 && end == charSequence.length()) {
+            return charSequence;
+        }
+        return of(charSequence, start, end);
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("The index (" + index + ") is not in the text of length " + length());
+        }
+        return content.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("The range (" + start + ", " + end + ") is not in the text of length " + length());
+        }
+        return of(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        return content.subSequence(start, end).toString();
+    }
+
+}
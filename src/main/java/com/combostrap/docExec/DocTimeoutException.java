@@ -0,0 +1,22 @@
+package com.combostrap.docExec;
+
+import java.time.Duration;
+
+/**
+ * An exception thrown when the execution of a unit
+ * takes longer than its timeout (ie {@link DocUnit#getTimeout()} or {@link DocExecutor#setUnitTimeout(Duration)})
+ */
+public class DocTimeoutException extends RuntimeException {
+
+    private final Duration timeout;
+
+    public DocTimeoutException(Duration timeout) {
+        super("The unit has exceeded its timeout of " + timeout.toMillis() + "ms");
+        this.timeout = timeout;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+}
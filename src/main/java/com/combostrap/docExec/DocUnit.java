@@ -1,6 +1,9 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.util.Durations;
+
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -17,14 +20,15 @@ import java.util.Map;
 public class DocUnit {
 
     private int location;
-    private String code;
-    private String console;
+    private CharSequence code; // a view on the doc content when parsed (ie DocText)
+    private CharSequence console;
     private String language;
     private DocBlockLocation consoleLocation;
     private final Map<String, String> env = new HashMap<>();
     private final List<DocFileBlock> docFileBlocks = new ArrayList<>();
     private DocBlockLocation codeLocation;
     private Path path; // Path of the docFile
+    private Duration timeout; // the timeout attribute, null if not set
 
     private DocUnit() {
     }
@@ -34,13 +38,26 @@ public class DocUnit {
     }
 
 
+    /**
+     * @return the code (the view is copied once, at the first call)
+     */
     public String getCode() {
 
-        return this.code;
+        if (this.code != null && !(this.code instanceof String)) {
+            this.code = this.code.toString();
+        }
+        return (String) this.code;
 
     }
 
-    public DocUnit setCode(String code) {
+    /**
+     * @return the code without copy (ie a view on the doc content)
+     */
+    public CharSequence getCodeText() {
+        return this.code;
+    }
+
+    public DocUnit setCode(CharSequence code) {
 
         this.code = code;
         return this;
@@ -49,15 +66,25 @@ public class DocUnit {
 
     /**
      *
-     * @return the console content
+     * @return the console content (the view is copied once, at the first call)
      */
     public String getConsole() {
 
-        return this.console;
+        if (this.console != null && !(this.console instanceof String)) {
+            this.console = this.console.toString();
+        }
+        return (String) this.console;
+
+    }
 
+    /**
+     * @return the console content without copy (ie a view on the doc content)
+     */
+    public CharSequence getConsoleText() {
+        return this.console;
     }
 
-    public DocUnit setConsoleContent(String expectation) {
+    public DocUnit setConsoleContent(CharSequence expectation) {
         this.console = expectation;
         return this;
     }
@@ -101,6 +128,10 @@ public class DocUnit {
                 this.env.put(key.substring(3), value);
             }
 
+            if (key.equals("timeout")) {
+                this.timeout = Durations.parse(value);
+            }
+
         }
     }
 
@@ -110,7 +141,7 @@ public class DocUnit {
 
     @Override
     public String toString() {
-        return code;
+        return getCode();
     }
 
     public List<DocFileBlock> getFileBlocks() {
@@ -145,4 +176,16 @@ public class DocUnit {
     public int getLocation() {
         return this.location;
     }
+
+    /**
+     * @return the timeout of the unit (the timeout attribute) or null if not set
+     */
+    public Duration getTimeout() {
+        return this.timeout;
+    }
+
+    public DocUnit setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
 }
@@ -0,0 +1,26 @@
+package com.combostrap.docExec.jackson;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.Duration;
+
+public class DurationSerializer extends StdSerializer<Duration> {
+
+    public DurationSerializer() {
+        super(Duration.class);
+    }
+
+    @Override
+    public void serialize(Duration duration, JsonGenerator gen, SerializerProvider provider)
+            throws IOException {
+        if (duration == null) {
+            gen.writeNull();
+            return;
+        }
+        // ISO-8601 (ie PT720H), the format accepted by the duration options
+        gen.writeString(duration.toString());
+    }
+}
@@ -0,0 +1,23 @@
+package com.combostrap.docExec.picoli;
+
+
+import com.combostrap.docExec.util.Durations;
+import picocli.CommandLine;
+
+import java.time.Duration;
+
+/**
+ * TypeConverter for java.time.Duration
+ * When an option/argument variable has the type Duration, picocli uses this method to convert it from string
+ * (ie 500ms, 30s, 5m, 1h)
+ */
+public class DurationConverter implements CommandLine.ITypeConverter<Duration> {
+
+    @Override
+    public Duration convert(String value) throws Exception {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Duration value cannot be null or empty");
+        }
+        return Durations.parse(value);
+    }
+}
@@ -0,0 +1,47 @@
+package com.combostrap.docExec.util;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+public class Durations {
+
+    /**
+     * @param s - a duration with a unit (ie `500ms`, `30s`, `5m`, `1h`, `7d`), a number of seconds (ie `30`) or an ISO-8601 duration (ie `PT30S`)
+     * @return the duration
+     * @throws IllegalArgumentException if the duration is not valid or negative
+     */
+    public static Duration parse(String s) {
+        Duration duration = parseSigned(s);
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("The duration (" + s + ") should not be negative");
+        }
+        return duration;
+    }
+
+    private static Duration parseSigned(String s) {
+        String value = s.trim().toLowerCase();
+        try {
+            if (value.startsWith("pt")) {
+                return Duration.parse(value.toUpperCase());
+            }
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            switch (value.charAt(value.length() - 1)) {
+                case 's':
+                    return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+                case 'm':
+                    return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+                case 'h':
+                    return Duration.ofHours(Long.parseLong(value.substring(0, value.length() - 1)));
+                case 'd':
+                    return Duration.ofDays(Long.parseLong(value.substring(0, value.length() - 1)));
+                default:
+                    return Duration.ofSeconds(Long.parseLong(value));
+            }
+        } catch (NumberFormatException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("The duration (" + s + ") is not valid. Example of valid durations: 500ms, 30s, 5m, 1h, 7d", e);
+        }
+    }
+
+}
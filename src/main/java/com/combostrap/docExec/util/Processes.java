@@ -0,0 +1,16 @@
+package com.combostrap.docExec.util;
+
+public class Processes {
+
+    /**
+     * Kill a process and all its descendants
+     * (ie a shell and the commands that it has started)
+     *
+     * @param process - the process
+     */
+    public static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+}
@@ -1,13 +1,32 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.util.Digest;
+import com.combostrap.docExec.util.Fs;
 import com.combostrap.docExec.util.Xdg;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Cache test
@@ -59,6 +78,8 @@ public class DocCacheExecutionTest {
         final DocExecutor docExecutor = DocExecutor.create(runName)
                 .setEnableCache(true)
                 .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class);
+        // The output of the units is cached by content, a previous test run should not be seen
+        docExecutor.build().getCache().purgeAll();
 
         /**
          * The first run has no cache
@@ -83,8 +104,8 @@ public class DocCacheExecutionTest {
         Assertions.assertFalse(result.hasRun(), "The doc has not been executed because the md5 is the same");
 
         /**
-         * If we update only the second unit, only this unit and the other in the series
-         * should be executed (not the first one)
+         * If we update only the second unit, only this unit
+         * should be executed (the output of the others is in the cache)
          */
         secondUnit = "<unit><code dos>echo Nicolas</code></unit>";
         doc = firstUnit + "\n" + secondUnit + "\n" + thirdUnit;
@@ -95,7 +116,53 @@ public class DocCacheExecutionTest {
                 .getDocExecutionResults()
                 .get(0);
         Assertions.assertTrue(result.hasRun(), "The doc has been executed");
-        Assertions.assertEquals(2, result.getExecutionCount(), "Two code unit has been executed");
+        Assertions.assertEquals(1, result.getExecutionCount(), "One code unit has been executed");
+
+        /**
+         * A new unit at the top does not shift the cache of the others
+         */
+        doc = "<unit><code dos>echo Top</code></unit>\n" + doc;
+        Files.write(docPath, doc.getBytes());
+        result = docExecutor
+                .build()
+                .run(docPath)
+                .getDocExecutionResults()
+                .get(0);
+        Assertions.assertEquals(1, result.getExecutionCount(), "Only the new unit has been executed");
+    }
+
+    /**
+     * In a shared shell session, the bash units skipped before the first run
+     * are executed again so that the session has their state
+     */
+    @Test
+    public void sessionCacheTest() throws IOException {
+        String firstUnit = "<unit><code bash>GREETING=Hello; echo First</code></unit>";
+        String doc = firstUnit + "\n<unit><code bash>echo $GREETING</code><console></console></unit>";
+        Path docPath = Files.createTempFile("doc-exec", ".txt");
+        try {
+            Files.write(docPath, doc.getBytes());
+
+            final DocExecutor docExecutor = DocExecutor.create("cacheSession")
+                    .setEnableCache(true)
+                    .setShellSession(true);
+            docExecutor.build().getCache().purgeAll();
+            docExecutor.build().run(docPath);
+            Assertions.assertTrue(Fs.toString(docPath).contains("<console>\nHello\n</console>"), "First run");
+
+            doc = firstUnit + "\n<unit><code bash>echo $GREETING World</code><console></console></unit>";
+            Files.write(docPath, doc.getBytes());
+            DocExecutorResultDocExecution result = docExecutor
+                    .build()
+                    .run(docPath)
+                    .getDocExecutionResults()
+                    .get(0);
+            Assertions.assertEquals(0, result.getErrorCount(), "no error");
+            Assertions.assertEquals(2, result.getExecutionCount(), "The first unit was executed for the state of the session");
+            Assertions.assertTrue(Fs.toString(docPath).contains("<console>\nHello World\n</console>"), "The variable of the skipped unit is set");
+        } finally {
+            Files.deleteIfExists(docPath);
+        }
     }
 
     /**
@@ -142,6 +209,8 @@ public class DocCacheExecutionTest {
         final DocExecutor docExecutor = DocExecutor.create(runName)
                 .setEnableCache(true)
                 .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class);
+        // The output of the units is cached by content, a previous test run should not be seen
+        docExecutor.build().getCache().purgeAll();
 
         DocExecutorResultDocExecution result = docExecutor
                 .build()
@@ -163,4 +232,430 @@ public class DocCacheExecutionTest {
         Assertions.assertEquals(1, result.getExecutionCount(), "The code has still been executed once with the space");
     }
 
+    /**
+     * A doc whose stat data has not changed is fresh without reading it or its copy
+     */
+    @Test
+    public void statFastPathTest() throws IOException {
+
+        Path docPath = Files.createTempFile("doc-exec", ".txt");
+        Files.write(docPath, "<unit><code dos>echo First</code></unit>".getBytes());
+        // An old modification time so that the stat is not racy
+        Files.setLastModifiedTime(docPath, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        DocCache docCache = DocCache.get("statFastPath");
+        docCache.purgeAll();
+        docCache.store(docPath);
+        docCache.flush();
+
+        // The copy is changed, a hash comparison would see it
+        Files.write(docCache.getPathCacheFile(docPath), "changed".getBytes());
+        DocCache reloadedCache = DocCache.get("statFastPath");
+        Assertions.assertTrue(reloadedCache.isFresh(docPath), "The doc is fresh from the stat data of the index");
+
+        // Same size, other modification time: the doc is hashed
+        Files.write(docPath, "<unit><code dos>echo Other</code></unit>".getBytes());
+        Files.setLastModifiedTime(docPath, FileTime.fromMillis(System.currentTimeMillis() - 30_000));
+        Assertions.assertFalse(reloadedCache.isFresh(docPath), "The changed doc is not fresh");
+
+    }
+
+    /**
+     * The packed store finds its entries after a reopen, a purge and a compaction
+     */
+    @Test
+    public void packStoreTest() throws IOException {
+
+        String doc = "<unit><code dos>echo First</code><console>First</console></unit>";
+        Path docPath = Files.createTempFile("doc-exec", ".txt");
+        Files.write(docPath, doc.getBytes());
+        DocCache docCache = DocCache.get("packStore", true);
+        docCache.purgeAll();
+        docCache.store(docPath);
+        docCache.storeUnitConsole("key", "First");
+        Assertions.assertEquals(doc, new String(docCache.readEntry(docCache.getDocKey(docPath)), StandardCharsets.UTF_8), "Packed copy");
+        docCache.flush();
+        Assertions.assertFalse(Files.exists(docCache.getPathCacheFile(docPath)), "The copy is not a file");
+
+        DocCache reloadedCache = DocCache.get("packStore", true);
+        Assertions.assertTrue(reloadedCache.isFresh(docPath), "Fresh after reopen");
+        Assertions.assertEquals("First", reloadedCache.getUnitConsole("key"), "Console after reopen");
+        reloadedCache.purge(docPath);
+        Assertions.assertNull(reloadedCache.getMd5(docPath), "Purged");
+
+        // Replaced entries are garbage until the compaction
+        DocCachePack pack = DocCachePack.create(docCache.getDirectory());
+        for (int i = 0; i < 100; i++) {
+            pack.put("entry", ("value" + i).getBytes());
+        }
+        pack.put("other", "other".getBytes());
+        pack.flush();
+        Path dataPath = pack.getDataPath();
+        long sizeBeforeCompaction = Files.size(dataPath);
+        pack.compact();
+        Assertions.assertFalse(Files.exists(dataPath), "The old generation was deleted");
+        Assertions.assertTrue(Files.size(pack.getDataPath()) < sizeBeforeCompaction, "The garbage was removed");
+        Assertions.assertEquals("value99", new String(pack.get("entry")), "Last value after compaction");
+        Assertions.assertEquals("other", new String(pack.get("other")), "Other value after compaction");
+        Assertions.assertEquals("First", DocCache.get("packStore", true).getUnitConsole("key"), "Entries of the cache after compaction");
+
+        docCache.purgeAll();
+        Assertions.assertNull(DocCache.get("packStore", true).getUnitConsole("key"), "Purged all");
+
+    }
+
+    /**
+     * The least recently used entries are evicted when an entry is stored above the max size
+     * and the entries not accessed for the max age
+     */
+    @Test
+    public void evictionTest() throws IOException, InterruptedException {
+
+        DocCache docCache = DocCache.get("eviction", false, 30, null);
+        docCache.purgeAll();
+        docCache = DocCache.get("eviction", false, 30, null);
+        docCache.storeUnitConsole("first", "0123456789");
+        docCache.storeUnitConsole("second", "0123456789");
+        docCache.storeUnitConsole("third", "0123456789");
+        Assertions.assertEquals("0123456789", docCache.getUnitConsole("first"), "First accessed");
+        docCache.storeUnitConsole("fourth", "0123456789");
+        Assertions.assertNull(docCache.getUnitConsole("second"), "The least recently used was evicted");
+        Assertions.assertNotNull(docCache.getUnitConsole("first"), "The accessed entry was kept");
+        Assertions.assertEquals(3, docCache.getUsage().getEntryCount(), "Entry count");
+        Assertions.assertEquals(30, docCache.getUsage().getSize(), "Size");
+        docCache.flush();
+
+        DocCache agedCache = DocCache.get("eviction", false, Long.MAX_VALUE, Duration.ofMillis(1));
+        Assertions.assertEquals(3, agedCache.getUsage().getEntryCount(), "The usage was reloaded");
+        Thread.sleep(10);
+        agedCache.storeUnitConsole("fifth", "0123456789");
+        Assertions.assertEquals(1, agedCache.getUsage().getEntryCount(), "The expired entries were evicted");
+        long[] consoleCounts = agedCache.getUsage().getCounts().get("console");
+        Assertions.assertEquals(2, consoleCounts[0], "Console hits");
+        Assertions.assertEquals(1, consoleCounts[1], "Console misses");
+
+    }
+
+    /**
+     * Caches of the same namespace (as shards in different processes) write concurrently
+     * without losing the entries of the others
+     */
+    @Test
+    public void concurrentCacheTest() throws InterruptedException {
+
+        DocCache.get("concurrent", true).purgeAll();
+        int shardCount = 4;
+        int entryCount = 50;
+        List<Thread> shards = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < shardCount; i++) {
+            final int shard = i;
+            Thread thread = new Thread(() -> {
+                DocCache docCache = DocCache.get("concurrent", true);
+                for (int j = 0; j < entryCount; j++) {
+                    docCache.storeUnitConsole(shard + "-" + j, "console " + shard + "-" + j);
+                    if (j % 10 == 0) {
+                        docCache.flush();
+                    }
+                }
+                docCache.flush();
+            });
+            thread.setUncaughtExceptionHandler((t, e) -> errors.add(e));
+            shards.add(thread);
+            thread.start();
+        }
+        for (Thread shard : shards) {
+            shard.join();
+        }
+        Assertions.assertTrue(errors.isEmpty(), "No error: " + errors);
+
+        DocCache docCache = DocCache.get("concurrent", true);
+        for (int i = 0; i < shardCount; i++) {
+            for (int j = 0; j < entryCount; j++) {
+                Assertions.assertEquals("console " + i + "-" + j, docCache.getUnitConsole(i + "-" + j), "Entry " + i + "-" + j);
+            }
+        }
+        Assertions.assertEquals(shardCount * entryCount, docCache.getUsage().getEntryCount(), "The usage of the shards were merged");
+
+    }
+
+    /**
+     * A namespace can't be the directory of the class cache (a purge would delete it)
+     */
+    @Test
+    public void reservedNameTest() {
+
+        Assertions.assertTrue(DocClassCache.DIRECTORY_NAME.startsWith(DocCache.RESERVED_NAME_PREFIX));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> DocCache.get(DocClassCache.DIRECTORY_NAME));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> DocExecutor.create(DocClassCache.DIRECTORY_NAME).build());
+
+    }
+
+    /**
+     * The console output stored by a host is found by another host with the remote tier
+     */
+    @Test
+    public void remoteCacheTest() throws IOException {
+
+        Path serverDirectory = Files.createTempDirectory("doc-exec-remote");
+        // The keys are the SHA-256 of the unit inputs
+        String inputHash = Digest.createFromString(Digest.Algorithm.SHA256, "input").getHashHex();
+        String readOnlyHash = Digest.createFromString(Digest.Algorithm.SHA256, "readOnly").getHashHex();
+        try (DocCacheServer server = DocCacheServer.start(serverDirectory, 0)) {
+
+            DocCache firstHost = DocCache.get("remoteFirstHost");
+            firstHost.purgeAll();
+            firstHost.setRemote(DocCacheRemote.create(server.getUrl(), false));
+            firstHost.storeUnitConsole(inputHash, "Hello");
+            firstHost.flush();
+            Assertions.assertTrue(Files.exists(serverDirectory.resolve(DocCache.REMOTE_CONSOLES_KIND).resolve(inputHash)), "Uploaded");
+
+            DocCache secondHost = DocCache.get("remoteSecondHost");
+            secondHost.purgeAll();
+            secondHost.setRemote(DocCacheRemote.create(server.getUrl(), false));
+            Assertions.assertNull(secondHost.getUnitConsole("unknownHash"), "Unknown");
+            Assertions.assertEquals("Hello", secondHost.getUnitConsole(inputHash), "Downloaded");
+            Assertions.assertEquals("Hello", DocCache.get("remoteSecondHost").getUnitConsole(inputHash), "Stored locally (read-through)");
+
+            DocCache readOnlyHost = DocCache.get("remoteReadOnlyHost");
+            readOnlyHost.purgeAll();
+            readOnlyHost.setRemote(DocCacheRemote.create(server.getUrl(), true));
+            readOnlyHost.storeUnitConsole(readOnlyHash, "Bonjour");
+            readOnlyHost.flush();
+            Assertions.assertFalse(Files.exists(serverDirectory.resolve(DocCache.REMOTE_CONSOLES_KIND).resolve(readOnlyHash)), "Not uploaded");
+
+        }
+
+        // The server is stopped: a miss and no error
+        DocCache offlineHost = DocCache.get("remoteOfflineHost");
+        offlineHost.purgeAll();
+        offlineHost.setRemote(DocCacheRemote.create(URI.create("http://localhost:1/"), false));
+        Assertions.assertNull(offlineHost.getUnitConsole(inputHash), "Unreachable remote");
+        offlineHost.storeUnitConsole(inputHash, "Hello");
+        offlineHost.flush();
+
+    }
+
+    /**
+     * A unit executed in a checkout directory is not executed again in another checkout directory
+     * with another local cache (ie another host) that shares the remote tier
+     */
+    @Test
+    public void remoteCachePortableKeyTest() throws IOException {
+
+        String doc = "<unit><code dos>echo Portable</code><console></console></unit>";
+        Path serverDirectory = Files.createTempDirectory("doc-exec-remote");
+        try (DocCacheServer server = DocCacheServer.start(serverDirectory, 0)) {
+
+            CheckoutHost host = new CheckoutHost(server.getUrl(), doc);
+            DocExecutorResultDocExecution firstHost = host.run("remotePortableFirstHost");
+            Assertions.assertEquals(1, firstHost.getExecutionCount(), "Executed on the first host");
+            DocExecutorResultDocExecution secondHost = host.run("remotePortableSecondHost");
+            Assertions.assertEquals(0, secondHost.getExecutionCount(), "The console of the first host is used");
+
+        }
+
+    }
+
+    /**
+     * Run a doc in a new checkout directory with a local cache that has the remote tier
+     */
+    private static class CheckoutHost {
+
+        private final URI remoteUrl;
+        private final String doc;
+
+        private CheckoutHost(URI remoteUrl, String doc) {
+            this.remoteUrl = remoteUrl;
+            this.doc = doc;
+        }
+
+        private DocExecutorResultDocExecution run(String hostName) throws IOException {
+            Path docPath = Files.createTempDirectory("doc-exec-checkout").resolve("doc.txt");
+            Files.write(docPath, doc.getBytes(StandardCharsets.UTF_8));
+            DocExecutor docExecutor = DocExecutor.create(hostName)
+                    .setCacheRemoteUrl(remoteUrl)
+                    .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class);
+            DocExecutorInstance docExecutorInstance = docExecutor.build();
+            docExecutorInstance.getCache().purgeAll();
+            DocExecutorResultDocExecution result = docExecutorInstance
+                    .run(docPath)
+                    .getDocExecutionResults()
+                    .get(0);
+            Assertions.assertEquals(0, result.getErrorCount(), "No error on " + hostName);
+            Assertions.assertEquals("<unit><code dos>echo Portable</code><console>\nPortable\n</console></unit>", Fs.toString(docPath), "The console on " + hostName);
+            return result;
+        }
+
+    }
+
+    /**
+     * The cache server listens on the loopback address and rejects the invalid uploads
+     */
+    @Test
+    public void remoteCacheServerTest() throws IOException, InterruptedException {
+
+        Path serverDirectory = Files.createTempDirectory("doc-exec-remote");
+        try (DocCacheServer server = DocCacheServer.start(serverDirectory, InetAddress.getLoopbackAddress(), 0, 10)) {
+
+            Assertions.assertTrue(InetAddress.getByName(server.getUrl().getHost()).isLoopbackAddress(), "Loopback by default");
+            String hash = Digest.createFromString(Digest.Algorithm.SHA256, "input").getHashHex();
+            HttpClient httpClient = HttpClient.newHttpClient();
+            Assertions.assertEquals(413, put(httpClient, server.getUrl().resolve("consoles/" + hash), "More than 10 bytes"), "Too big");
+            Assertions.assertEquals(400, put(httpClient, server.getUrl().resolve("consoles/notAHash"), "Hello"), "Not a key");
+            Assertions.assertEquals(204, put(httpClient, server.getUrl().resolve("consoles/" + hash), "Hello"), "Stored");
+            try (Stream<Path> files = Files.walk(serverDirectory)) {
+                Assertions.assertEquals(1, files.filter(Files::isRegularFile).count(), "Only the valid entry is written");
+            }
+
+        }
+
+    }
+
+    private static int put(HttpClient httpClient, URI uri, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * A cache exported from a checkout directory is imported in another checkout directory
+     */
+    @Test
+    public void bundleTest() throws IOException {
+
+        Path firstCheckout = Files.createTempDirectory("doc-exec-checkout");
+        Path firstDoc = firstCheckout.resolve("docs").resolve("doc.txt");
+        Files.createDirectories(firstDoc.getParent());
+        Files.write(firstDoc, "Hello".getBytes(StandardCharsets.UTF_8));
+        Path outsideDoc = Files.createTempFile("doc-exec-outside", ".txt");
+
+        DocCache exportCache = DocCache.get("bundleExport");
+        exportCache.purgeAll();
+        exportCache.store(firstDoc);
+        exportCache.store(outsideDoc);
+        exportCache.storeUnitConsole("inputHash", "Hello");
+        Path bundle = Files.createTempDirectory("doc-exec-bundle").resolve("cache.bundle");
+        Assertions.assertEquals(2, DocCacheBundle.write(exportCache, bundle, firstCheckout), "The doc outside the doc path is not exported");
+
+        Path secondCheckout = Files.createTempDirectory("doc-exec-checkout");
+        Path secondDoc = secondCheckout.resolve("docs").resolve("doc.txt");
+        Files.createDirectories(secondDoc.getParent());
+        Files.copy(firstDoc, secondDoc);
+
+        DocCache importCache = DocCache.get("bundleImport");
+        importCache.purgeAll();
+        Assertions.assertEquals(2, DocCacheBundle.read(importCache, bundle, secondCheckout));
+        Assertions.assertTrue(importCache.isFresh(secondDoc), "Relocated in the second checkout");
+        Assertions.assertEquals("Hello", importCache.getUnitConsole("inputHash"), "Console imported");
+
+        // A corrupted bundle is rejected before any entry is restored
+        byte[] bytes = Files.readAllBytes(bundle);
+        bytes[bytes.length - 12] ^= 0xFF;
+        Files.write(bundle, bytes);
+        DocCache corruptedCache = DocCache.get("bundleCorrupted");
+        corruptedCache.purgeAll();
+        Assertions.assertThrows(RuntimeException.class, () -> DocCacheBundle.read(corruptedCache, bundle, secondCheckout));
+        Assertions.assertNull(corruptedCache.getUnitConsole("inputHash"), "Nothing restored");
+
+    }
+
+    /**
+     * The cache of a run is exported from a namespace and imported in another namespace
+     * for the same docs in another checkout directory
+     */
+    @Test
+    public void bundleRoundTripTest() throws IOException {
+
+        String doc = "<unit><code dos>echo Bundle</code><console></console></unit>";
+        Path firstCheckout = Files.createTempDirectory("doc-exec-checkout");
+        Path firstDoc = firstCheckout.resolve("doc.txt");
+        Files.write(firstDoc, doc.getBytes(StandardCharsets.UTF_8));
+        DocExecutorInstance firstInstance = DocExecutor.create("bundleRoundTripFirst")
+                .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class)
+                .build();
+        DocCache firstCache = firstInstance.getCache();
+        firstCache.purgeAll();
+        Assertions.assertEquals(1, firstInstance.run(firstDoc).getDocExecutionResults().get(0).getExecutionCount(), "Executed");
+        Path bundle = Files.createTempDirectory("doc-exec-bundle").resolve("cache.bundle");
+        Assertions.assertEquals(2, DocCacheBundle.write(firstCache, bundle, firstCheckout), "The doc copy and the console");
+
+        // The second namespace has an index entry for the doc with another copy
+        Path secondCheckout = Files.createTempDirectory("doc-exec-checkout");
+        Path secondDoc = secondCheckout.resolve("doc.txt");
+        Files.write(secondDoc, doc.getBytes(StandardCharsets.UTF_8));
+        DocExecutorInstance secondInstance = DocExecutor.create("bundleRoundTripSecond")
+                .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class)
+                .build();
+        DocCache secondCache = secondInstance.getCache();
+        secondCache.purgeAll();
+        secondCache.store(secondDoc);
+        Assertions.assertNotEquals(firstCache.getDirectory(), secondCache.getDirectory(), "Two namespaces");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> secondCache.writeEntry(secondCache.getDocKey(secondDoc), new byte[0]), "A doc copy is not written without its index");
+
+        Assertions.assertEquals(2, DocCacheBundle.read(secondCache, bundle, secondCheckout));
+        Assertions.assertFalse(secondCache.isFresh(secondDoc), "The index does not return the digest of the replaced copy");
+        DocExecutorResultDocExecution result = secondInstance.run(secondDoc).getDocExecutionResults().get(0);
+        Assertions.assertEquals(0, result.getExecutionCount(), "The console of the bundle is used");
+        Assertions.assertEquals(Fs.toString(firstDoc), Fs.toString(secondDoc), "Same doc");
+        Assertions.assertTrue(secondCache.isFresh(secondDoc), "The copy of the bundle is the executed doc");
+
+    }
+
+    /**
+     * A bundle is an untrusted input: an entry that would be written out of the cache is rejected
+     */
+    @Test
+    public void maliciousBundleTest() throws IOException {
+
+        DocCache cache = DocCache.get("bundleMalicious");
+        cache.purgeAll();
+        Path docPath = Files.createTempDirectory("doc-exec-checkout");
+        Path bundleDirectory = Files.createTempDirectory("doc-exec-bundle");
+        Path target = cache.getDirectory().resolve("../../doc-exec-evil.txt").normalize();
+        Files.deleteIfExists(target);
+
+        Path entryBundle = bundleDirectory.resolve("entry.bundle");
+        writeBundle(entryBundle, (byte) 2, "../../doc-exec-evil.txt");
+        Assertions.assertThrows(RuntimeException.class, () -> DocCacheBundle.read(cache, entryBundle, docPath));
+
+        Path docBundle = bundleDirectory.resolve("doc.bundle");
+        writeBundle(docBundle, (byte) 1, "../../doc-exec-evil.txt");
+        Assertions.assertThrows(RuntimeException.class, () -> DocCacheBundle.read(cache, docBundle, docPath));
+
+        Assertions.assertFalse(Files.exists(target), "Nothing written out of the cache");
+        Assertions.assertFalse(Files.exists(docPath.resolve("../../doc-exec-evil.txt").normalize()), "Nothing written out of the doc path");
+        Assertions.assertNull(cache.getUnitConsole("inputHash"), "The valid entry before the malicious one is not restored");
+
+    }
+
+    /**
+     * Write a valid bundle with a console entry followed by the given entry
+     */
+    private static void writeBundle(Path bundle, byte kind, String key) throws IOException {
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(Files.newOutputStream(bundle))) {
+            MessageDigest messageDigest;
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            DataOutputStream outputStream = new DataOutputStream(new DigestOutputStream(gzipOutputStream, messageDigest));
+            outputStream.writeInt(0x44454342);
+            outputStream.writeInt(1);
+            byte[] content = "Hello".getBytes(StandardCharsets.UTF_8);
+            outputStream.writeByte(2);
+            outputStream.writeUTF(DocCache.CONSOLES_DIRECTORY_NAME + "/inputHash.out");
+            outputStream.writeInt(content.length);
+            outputStream.write(content);
+            outputStream.writeByte(kind);
+            outputStream.writeUTF(key);
+            outputStream.writeInt(content.length);
+            outputStream.write(content);
+            outputStream.writeByte(0);
+            outputStream.flush();
+            gzipOutputStream.write(messageDigest.digest());
+        }
+    }
+
 }
@@ -0,0 +1,41 @@
+package com.combostrap.docExec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Test of the persistent cache of compiled Java units
+ */
+public class DocClassCacheTest {
+
+    @Test
+    public void storeAndGetTest() throws IOException {
+
+        String code = "public class DocClassCacheTest" + System.nanoTime() + " {}";
+        DocClassCache classCache = DocClassCache.get(Files.createTempDirectory("doc-exec-classes"), 10 * 1024 * 1024);
+        Assertions.assertNull(classCache.get(code), "Not in the cache");
+
+        byte[] bytes = new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE};
+        classCache.store(code, Map.of("Foo", bytes));
+        Map<String, byte[]> cachedClassBytes = classCache.get(code);
+        Assertions.assertNotNull(cachedClassBytes, "In the cache");
+        Assertions.assertArrayEquals(bytes, cachedClassBytes.get("Foo"));
+
+    }
+
+    @Test
+    public void evictionTest() throws IOException {
+
+        String code = "public class DocClassCacheEvictionTest" + System.nanoTime() + " {}";
+        DocClassCache classCache = DocClassCache.get(Files.createTempDirectory("doc-exec-classes"), 0);
+        classCache.store(code, Map.of("Foo", new byte[]{1, 2, 3}));
+        Assertions.assertNull(classCache.get(code), "The entry was evicted as the cache has no size");
+        Assertions.assertEquals(0, classCache.getSize());
+
+    }
+
+}
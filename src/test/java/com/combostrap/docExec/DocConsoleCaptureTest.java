@@ -0,0 +1,156 @@
+package com.combostrap.docExec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Test the capture of the console by thread
+ */
+public class DocConsoleCaptureTest {
+
+    /**
+     * Two threads that print at the same time
+     * should get only their own output
+     */
+    @Test
+    public void concurrentCaptureTest() throws Exception {
+
+        int threadCount = 4;
+        int lineCount = 200;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                String prefix = "thread" + i;
+                futures.add(executorService.submit(() -> {
+                    try (DocConsoleCapture capture = DocConsoleCapture.start(true)) {
+                        startLatch.await();
+                        for (int j = 0; j < lineCount; j++) {
+                            System.out.println(prefix);
+                            System.err.println(prefix);
+                        }
+                        return capture.getOutput();
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (int i = 0; i < threadCount; i++) {
+                String output = futures.get(i).get(1, TimeUnit.MINUTES);
+                String[] lines = output.split(System.lineSeparator());
+                Assertions.assertEquals(lineCount * 2, lines.length, "All lines were captured");
+                for (String line : lines) {
+                    Assertions.assertEquals("thread" + i, line, "Only the output of the thread was captured");
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+    }
+
+    /**
+     * A thread started during a capture is captured
+     * but not after the capture is closed
+     */
+    @Test
+    public void inheritedCaptureTest() throws Exception {
+
+        CountDownLatch closedLatch = new CountDownLatch(1);
+        CountDownLatch printedLatch = new CountDownLatch(1);
+        Thread thread;
+        String output;
+        try (DocConsoleCapture capture = DocConsoleCapture.start(false)) {
+            thread = new Thread(() -> {
+                System.out.println("During");
+                try {
+                    closedLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                System.out.println("After");
+                printedLatch.countDown();
+            });
+            thread.start();
+            // Wait for the first line
+            long start = System.currentTimeMillis();
+            while (capture.size() == 0 && System.currentTimeMillis() - start < 10000) {
+                Thread.sleep(10);
+            }
+            output = capture.getOutput();
+        }
+        closedLatch.countDown();
+        Assertions.assertTrue(printedLatch.await(10, TimeUnit.SECONDS), "The thread printed after the close without error");
+        thread.join();
+        Assertions.assertEquals("During", output.trim(), "The line printed during the capture only");
+
+    }
+
+    /**
+     * The std err is not captured if not asked
+     */
+    @Test
+    public void noStdErrCaptureTest() {
+        try (DocConsoleCapture capture = DocConsoleCapture.start(false)) {
+            System.out.print("out");
+            System.err.print("err");
+            Assertions.assertEquals("out", capture.getOutput());
+        }
+    }
+
+    /**
+     * A big output is spilled to a file and truncated with a marker
+     */
+    @Test
+    public void boundedCaptureTest() {
+        String output;
+        try (DocConsoleCapture capture = DocConsoleCapture.start(false, 100, 1000)) {
+            for (int i = 0; i < 1000; i++) {
+                System.out.print("0123456789");
+            }
+            Assertions.assertEquals(10000, capture.size(), "All bytes were counted");
+            output = capture.getOutput();
+        }
+        Assertions.assertTrue(output.startsWith("0123456789"), "The head is kept");
+        Assertions.assertTrue(output.endsWith(String.format(DocCaptureBuffer.TRUNCATION_MARKER, 1000, 10000)), "The marker was added");
+        Assertions.assertEquals(1001 + String.format(DocCaptureBuffer.TRUNCATION_MARKER, 1000, 10000).length(), output.length(), "The output was truncated");
+    }
+
+    /**
+     * Only the character cut at the truncation point is dropped,
+     * a replacement character of the output is kept
+     */
+    @Test
+    public void truncatedCharacterTest() {
+        try (DocCaptureBuffer buffer = DocCaptureBuffer.create(1000)) {
+            buffer.append("ab\uFFFD\u00e9", StandardCharsets.UTF_8);
+            // a, b, 3 bytes for the replacement character, 2 bytes for é
+            Assertions.assertEquals(7, buffer.size());
+            String marker = "\n" + String.format(DocCaptureBuffer.TRUNCATION_MARKER, 6, 7);
+            Assertions.assertEquals("ab\uFFFD" + marker, buffer.toText(6, StandardCharsets.UTF_8), "The cut character is dropped");
+            marker = "\n" + String.format(DocCaptureBuffer.TRUNCATION_MARKER, 5, 7);
+            Assertions.assertEquals("ab\uFFFD" + marker, buffer.toText(5, StandardCharsets.UTF_8), "The replacement character is kept");
+            marker = "\n" + String.format(DocCaptureBuffer.TRUNCATION_MARKER, 4, 7);
+            Assertions.assertEquals("ab" + marker, buffer.toText(4, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * The console is not truncated by default
+     */
+    @Test
+    public void noLimitByDefaultTest() {
+        long consoleMaxBytes = DocExecutor.create("test").getConsoleMaxBytes();
+        Assertions.assertEquals(Long.MAX_VALUE, consoleMaxBytes);
+        try (DocCaptureBuffer buffer = DocCaptureBuffer.create(1000)) {
+            buffer.append("Hello", StandardCharsets.UTF_8);
+            Assertions.assertEquals("Hello", buffer.toText(consoleMaxBytes, StandardCharsets.UTF_8));
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.TestUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static com.combostrap.docExec.DocExecutorCliCacheCommand.CACHE_COMMAND_NAME;
+import static com.combostrap.docExec.DocExecutorCliCacheStatsCommand.STATS_COMMAND_NAME;
+
+class DocExecutorCliCacheCommandTest {
+
+
+    @Test
+    void testCacheStats() {
+
+        DocCache cache = DocExecutorCli.toDocExecutor(new DocExecutorCli()).build().getCache();
+        cache.purgeAll();
+        cache.storeUnitConsole("key", "console");
+        cache.getUnitConsole("key");
+        cache.flush();
+
+        String output = TestUtil.runAndCaptureConsoleOutput(CACHE_COMMAND_NAME, STATS_COMMAND_NAME);
+        System.out.println(output);
+        Assertions.assertTrue(output.contains("Entries: 1"), "Entry count");
+        Assertions.assertTrue(output.contains("Size: 7 bytes"), "Size");
+        Assertions.assertTrue(output.contains("console    1 hits, 0 misses"), "Hits");
+
+    }
+
+
+}
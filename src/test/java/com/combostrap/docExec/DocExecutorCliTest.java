@@ -1,7 +1,9 @@
 package com.combostrap.docExec;
 
 import com.combostrap.docExec.util.TestUtil;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
 
 class DocExecutorCliTest {
 
@@ -10,6 +12,15 @@ class DocExecutorCliTest {
         DocExecutorCli.main(new String[]{"--help"});
     }
 
+    /**
+     * A negative duration is a parameter error (and not an immediate timeout)
+     */
+    @Test
+    void negativeDurationTest() {
+        int exitCode = DocExecutorCli.getCommandLine().execute("--unit-timeout=-5s", "env");
+        Assertions.assertEquals(CommandLine.ExitCode.USAGE, exitCode);
+    }
+
     @Test
     void versionTest() {
 
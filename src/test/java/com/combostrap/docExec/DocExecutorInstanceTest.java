@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
 public class DocExecutorInstanceTest {
@@ -238,4 +239,128 @@ public class DocExecutorInstanceTest {
 
     }
 
+    /**
+     * The docs are executed concurrently,
+     * but the results are in the order of the paths
+     */
+    @Test
+    public void parallelRunTest() throws IOException {
+
+        int docCount = 6;
+        Path[] docPaths = new Path[docCount];
+        for (int i = 0; i < docCount; i++) {
+            Path docPath = Files.createTempFile("doc-exec-parallel-" + i, ".txt");
+            Files.write(docPath, ("<unit><code dos>echo Doc " + i + "</code><console></console></unit>").getBytes());
+            docPaths[i] = docPath;
+        }
+
+        List<DocExecutorResultDocExecution> results = DocExecutor.create("parallel")
+                .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class)
+                .setEnableCache(false)
+                .setDryRun(true)
+                .setParallelism(3)
+                .build()
+                .run(docPaths)
+                .getDocExecutionResults();
+
+        Assertions.assertEquals(docCount, results.size());
+        for (int i = 0; i < docCount; i++) {
+            DocExecutorResultDocExecution result = results.get(i);
+            Assertions.assertEquals(docPaths[i], result.getPath(), "The results are in the order of the paths");
+            Assertions.assertEquals(0, result.getExitStatus());
+            String console = DocParser.getDocTests(result.getNewDoc(), null).get(0).getConsole();
+            Assertions.assertEquals("Doc " + i, console.trim());
+        }
+
+    }
+
+    /**
+     * A failure in a parallel run stops the run
+     * and all docs get a status
+     */
+    @Test
+    public void parallelRunStopAtFirstErrorTest() throws IOException {
+
+        Path badDoc = Files.createTempFile("doc-exec-parallel-bad", ".txt");
+        Files.write(badDoc, "<unit><code java>throw new RuntimeException(\"Bad\");</code></unit>".getBytes());
+        Path[] docPaths = new Path[]{badDoc, Paths.get("src/test/resources/docTest/withoutExpectation.txt")};
+
+        DocExecutorInstance docExecutorInstance = DocExecutor.create("parallel")
+                .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class)
+                .setEnableCache(false)
+                .setDryRun(true)
+                .setParallelism(2)
+                .build();
+        Assertions.assertThrows(DocFirstErrorOrWarning.class, () -> docExecutorInstance.run(docPaths));
+
+    }
+
+    /**
+     * A failure in a parallel run stops the docs that are running
+     * without waiting for the docs before it in the run order
+     */
+    @Test
+    public void parallelRunStopAtFirstErrorWithoutWaitTest() throws IOException {
+
+        Path slowDoc = Files.createTempFile("doc-exec-parallel-slow", ".txt");
+        Path badDoc = Files.createTempFile("doc-exec-parallel-bad", ".txt");
+        try {
+            StringBuilder slowUnits = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                slowUnits.append("<unit><code bash>sleep 0.5</code></unit>\n");
+            }
+            Files.write(slowDoc, slowUnits.toString().getBytes());
+            Files.write(badDoc, "<unit><code java>throw new RuntimeException(\"Bad\");</code></unit>".getBytes());
+
+            DocExecutorInstance docExecutorInstance = DocExecutor.create("parallel")
+                    .setEnableCache(false)
+                    .setDryRun(true)
+                    .setParallelism(2)
+                    .build();
+            long start = System.currentTimeMillis();
+            // The slow doc is the first in the run order
+            Assertions.assertThrows(DocFirstErrorOrWarning.class, () -> docExecutorInstance.run(slowDoc, badDoc));
+            Assertions.assertTrue(System.currentTimeMillis() - start < 5000, "The slow doc was cancelled at the failure");
+        } finally {
+            Files.deleteIfExists(slowDoc);
+            Files.deleteIfExists(badDoc);
+        }
+
+    }
+
+    /**
+     * A unit that exceeds its timeout is stopped
+     * and the doc has the timeout status
+     */
+    @Test
+    public void unitTimeoutTest() throws IOException {
+
+        Path docPath = Files.createTempFile("doc-exec-timeout", ".txt");
+        try {
+            Files.write(docPath, ("<unit timeout=500ms><code bash>sleep 30</code></unit>\n" +
+                    "<unit><code java>while (true) { try { Thread.sleep(100); } catch (InterruptedException e) { } }</code></unit>\n" +
+                    "<unit timeout=30s><code java>System.out.println(\"Ok\");</code><console></console></unit>").getBytes());
+
+            long start = System.currentTimeMillis();
+            DocExecutorResultDocExecution result = DocExecutor.create("timeout")
+                    .setEnableCache(false)
+                    .setDryRun(true)
+                    .setStopRunAtFirstErrorOrWarning(false)
+                    .setUnitTimeout(Duration.ofMillis(500))
+                    .build()
+                    .run(docPath)
+                    .getDocExecutionResults()
+                    .get(0);
+
+            Assertions.assertTrue(System.currentTimeMillis() - start < 20000, "The units were stopped");
+            Assertions.assertEquals("Timeout", result.getStatus());
+            Assertions.assertEquals(2, result.getErrorCount(), "The two hanging units have timed out");
+            String console = DocParser.getDocTests(result.getNewDoc(), null).get(2).getConsole();
+            Assertions.assertEquals("Ok", console.trim(), "The unit after the timeouts was executed");
+        } finally {
+            Files.deleteIfExists(docPath);
+        }
+
+    }
+
 }
@@ -122,5 +122,107 @@ class DocExecutorUnitTest {
 
     }
 
+    /**
+     * A command mapped to a main class is called directly
+     * with the arguments as they are and with the exit trapping
+     */
+    @Test
+    public void mainClassTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setShellCommandExecuteViaMainClass("echo", DocCommandEcho.class)
+                .setShellCommandExecuteViaMainClass("fail", DocCommandFail.class)
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit echoUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("echo Hello\necho World");
+        Assertions.assertEquals("Hello\nWorld", docExecutorUnit.run(echoUnit).trim().replace("\r", ""), "Every statement is executed");
+
+        DocUnit failUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("fail Bad");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(failUnit));
+        Assertions.assertTrue(exception.getMessage().contains("Bad"), "The console output is in the error");
+
+    }
+
+    /**
+     * The classes of the code source of a main class are loaded again with their exit calls rewritten
+     * and keep their package-private access (in the same code source or in a split package)
+     */
+    @Test
+    public void mainClassCodeSourceTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setShellCommandExecuteViaMainClass("helper-exit", DocCommandHelperExit.class)
+                .setShellCommandExecuteViaMainClass("package-private", DocCommandPackagePrivate.class)
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit exitUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("helper-exit Bye");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(exitUnit), "The exit of the helper is trapped");
+        Assertions.assertTrue(exception.getMessage().contains("Bye"), "The console output is in the error");
+
+        DocUnit packagePrivateUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("package-private Hello");
+        Assertions.assertEquals("Hello Hello", docExecutorUnit.run(packagePrivateUnit).trim(), "The package-private members are accessible");
+
+    }
+
+    /**
+     * A main class whose exit is in another class of its code source
+     */
+    public static class DocCommandHelperExit {
+
+        public static void main(String[] args) {
+            System.out.println(String.join(" ", args));
+            ExitHelper.exit(2);
+        }
+
+    }
+
+    static class ExitHelper {
+
+        static void exit(int status) {
+            System.exit(status);
+        }
+
+    }
+
+    /**
+     * A main class that uses a package-private class of its code source
+     */
+    public static class DocCommandPackagePrivate {
+
+        public static void main(String[] args) {
+            System.out.println(PackagePrivateHelper.repeat(String.join(" ", args)));
+        }
+
+    }
+
+    static class PackagePrivateHelper {
+
+        static String repeat(String text) {
+            return text + " " + text;
+        }
+
+    }
+
+    /**
+     * A main class that prints its arguments and exits with an error
+     */
+    public static class DocCommandFail {
+
+        public static void main(String[] args) {
+            System.out.println(String.join(" ", args));
+            System.exit(1);
+        }
+
+    }
 
-}
\ No newline at end of file
+}
@@ -1,8 +1,18 @@
 package com.combostrap.docExec;
 
+import com.combostrap.docExec.util.Fs;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
 public class DocJavaTest {
 
 
@@ -22,12 +32,11 @@ public class DocJavaTest {
                         "System.exit(0);")
                 .setConsoleContent(textToPrint);
 
-        DocExecutorUnit docExecUnit = DocExecutor.create("test")
-                .build()
-                .getDocExecutorUnit();
         // A runner
         boolean error = false;
-        try {
+        try (DocExecutorUnit docExecUnit = DocExecutor.create("test")
+                .build()
+                .getDocExecutorUnit()) {
             docExecUnit.run(docUnit);
         } catch (Exception e) {
             error = true;
@@ -52,13 +61,252 @@ public class DocJavaTest {
                 .setCode("throw new RuntimeException(\"Bad\");")
                 .setConsoleContent(textToPrint);
 
-        DocExecutorUnit docExec = DocExecutor.create("test").build().getDocExecutorUnit();
+        try (DocExecutorUnit docExec = DocExecutor.create("test").build().getDocExecutorUnit()) {
+            Assertions.assertThrows(
+                    RuntimeException.class,
+                    () -> docExec.run(docUnit)
+            );
+        }
+
+
+    }
+
+    /**
+     * Each code gets its own class so that units
+     * can be compiled and loaded concurrently
+     */
+    @Test
+    public void buildClassNameTest() {
+
+        String firstClassName = DocExecutorUnit.getBuildClassName("System.out.println(\"First\");");
+        String secondClassName = DocExecutorUnit.getBuildClassName("System.out.println(\"Second\");");
+        Assertions.assertNotEquals(firstClassName, secondClassName, "Two codes have two class names");
+        Assertions.assertEquals(firstClassName, DocExecutorUnit.getBuildClassName("System.out.println(\"First\");"), "The class name is derived from the code");
+
+    }
+
+    /**
+     * The code is compiled and run from a class directory
+     * when the in-memory compilation is disabled
+     */
+    @Test
+    public void compileOnDiskTest() {
+
+        DocUnit docUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"On disk\");");
+
+        try (DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setCompileInMemory(false)
+                .build()
+                .getDocExecutorUnit()) {
+            Assertions.assertEquals("On disk", docExecutorUnit.run(docUnit).trim());
+        }
+
+    }
+
+    /**
+     * The units of a run are compiled in one task
+     * and a unit with a compile error does not prevent the others from being compiled
+     */
+    @Test
+    public void batchCompileTest() {
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        String goodClassName = DocExecutorUnit.getBuildClassName("System.out.println(\"Good\");");
+        sources.put(goodClassName, DocExecutorUnit.getBuildClassSource(goodClassName, "System.out.println(\"Good\");"));
+        String badClassName = DocExecutorUnit.getBuildClassName("System.out.println(\"Bad\")");
+        sources.put(badClassName, DocExecutorUnit.getBuildClassSource(badClassName, "System.out.println(\"Bad\")"));
+
+        Map<String, List<Diagnostic<? extends JavaFileObject>>> errors = new HashMap<>();
+        try (DocJavaCompiler compiler = DocJavaCompiler.create(DocLog.build(DocExecutor.create("test")))) {
+            Map<String, Map<String, byte[]>> classBytes = compiler.compileInMemory(sources, errors);
+            Assertions.assertEquals(Collections.singleton(goodClassName), classBytes.keySet(), "The good unit is compiled");
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> compiler.compileInMemory(badClassName, sources.get(badClassName)));
+            Assertions.assertEquals(DocJavaCompiler.getCompileErrorMessage(errors.get(badClassName), sources.get(badClassName)), exception.getMessage(), "The single and the batch compilation have the same error");
+        }
+        Assertions.assertEquals(Collections.singleton(badClassName), errors.keySet(), "The bad unit has an error");
+
+    }
+
+    /**
+     * The compile error of a unit compiled with the doc units is reported once, at its execution
+     */
+    @Test
+    public void batchCompileErrorTest() throws IOException {
+
+        Path docPath = Files.createTempFile("doc-exec", ".txt");
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            Files.write(docPath, ("<unit><code java>System.out.println(\"Good\");</code><console></console></unit>\n"
+                    + "<unit><code java>System.out.println(\"Bad\")</code></unit>").getBytes());
+            DocExecutorInstance docExecutorInstance = DocExecutor.create("test")
+                    .setEnableCache(false)
+                    .setStopRunAtFirstErrorOrWarning(false)
+                    .build();
+            DocLog.LOGGER.addHandler(handler);
+            DocExecutorResultDocExecution result = docExecutorInstance
+                    .run(docPath)
+                    .getDocExecutionResults()
+                    .get(0);
+            Assertions.assertEquals(1, result.getErrorCount(), "The bad unit has an error");
+            Assertions.assertEquals(1, messages.stream().filter(m -> m.contains("Error during execute: Compile Error")).count(), "The compile error is the error of the unit");
+            Assertions.assertEquals(0, messages.stream()
+                    .filter(m -> m.contains("Compile Error"))
+                    .filter(m -> !m.contains("Error during execute") && !m.contains(RuntimeException.class.getName()))
+                    .count(), "The compile error is not logged by the compilation of the doc units");
+            Assertions.assertTrue(Fs.toString(docPath).contains("<console>\nGood\n</console>"), "The good unit was executed");
+        } finally {
+            DocLog.LOGGER.removeHandler(handler);
+            Files.deleteIfExists(docPath);
+        }
+
+    }
+
+    /**
+     * The code is run in a worker JVM
+     * and an exit does not end the worker
+     */
+    @Test
+    public void javaWorkerTest() {
+
+        DocExecutorInstance docExecutorInstance = DocExecutor.create("test")
+                .setJavaWorkers(1)
+                .build();
+        DocExecutorUnit docExecutorUnit = docExecutorInstance.getDocExecutorUnit();
+
+        DocUnit docUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"In a worker\");");
+        Assertions.assertEquals("In a worker", docExecutorUnit.run(docUnit).trim());
+
+        DocUnit exitUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Exit\");System.exit(1);");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(exitUnit));
+        Assertions.assertTrue(exception.getMessage().contains("Exit"), "The console output is in the error");
 
-        Assertions.assertThrows(
-                RuntimeException.class,
-                () -> docExec.run(docUnit)
-        );
+        Assertions.assertEquals("In a worker", docExecutorUnit.run(docUnit).trim(), "The worker is still running");
+
+        docExecutorUnit.close();
+
+    }
+
+    /**
+     * The exit calls via the runtime are also rewritten
+     */
+    @Test
+    public void runtimeExitTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit exitUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Runtime Exit\");Runtime.getRuntime().exit(1);");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(exitUnit));
+        Assertions.assertTrue(exception.getMessage().contains("Runtime Exit"), "The console output is in the error");
+
+        DocUnit haltUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Halt\");Runtime runtime = Runtime.getRuntime(); if (runtime != null) { runtime.halt(0); }");
+        Assertions.assertEquals("Halt", docExecutorUnit.run(haltUnit).trim(), "The halt with 0 is prevented");
+
+    }
+
+    /**
+     * The exit calls via a method reference are also rewritten
+     */
+    @Test
+    public void methodReferenceExitTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit boundUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Bound\");java.util.function.IntConsumer exit = Runtime.getRuntime()::exit; exit.accept(1);");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(boundUnit));
+        Assertions.assertTrue(exception.getMessage().contains("Bound"), "The console output is in the error");
+
+        DocUnit unboundUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Unbound\");java.util.function.ObjIntConsumer<Runtime> halt = Runtime::halt; halt.accept(Runtime.getRuntime(), 0);");
+        Assertions.assertEquals("Unbound", docExecutorUnit.run(unboundUnit).trim(), "The halt with 0 is prevented");
+
+        DocUnit systemUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"System\");java.util.function.IntConsumer exit = System::exit; exit.accept(2);");
+        exception = Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(systemUnit));
+        Assertions.assertTrue(exception.getMessage().contains("System"), "The console output is in the error");
+
+    }
+
+    /**
+     * The exit of a library is not rewritten (the library is not loaded by doc-exec)
+     * but a worker reports it and is replaced
+     */
+    @Test
+    public void libraryExitTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setJavaWorkers(1)
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit exitUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"Library\");" + ExitLibrary.class.getCanonicalName() + ".exit(3);");
+        Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(exitUnit));
+
+        DocUnit docUnit = DocUnit.get()
+                .setLanguage("java")
+                .setCode("System.out.println(\"After\");");
+        Assertions.assertEquals("After", docExecutorUnit.run(docUnit).trim(), "A new worker runs the next unit");
+
+        docExecutorUnit.close();
+
+    }
+
+    /**
+     * A library that exits
+     */
+    public static class ExitLibrary {
+
+        public static void exit(int status) {
+            System.exit(status);
+        }
+
+    }
+
+    /**
+     * A class whose bytecode can't be read is not loaded without its exit calls rewritten
+     */
+    @Test
+    public void rewriteFailureTest() {
 
+        // The magic, the version and a constant pool without its constants
+        byte[] truncated = new byte[]{(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 0, 0, 0, 55, 0, 10, 1};
+        Assertions.assertThrows(IllegalStateException.class, () -> DocExitRewriter.rewrite(truncated));
+        DocClassLoader classLoader = new DocClassLoader(Collections.singletonMap("Truncated", truncated), DocJavaTest.class.getClassLoader());
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> classLoader.loadClass("Truncated"));
+        Assertions.assertTrue(exception.getMessage().contains("Truncated"), "The class is in the error");
 
     }
 
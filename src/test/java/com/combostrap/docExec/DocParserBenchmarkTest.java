@@ -0,0 +1,268 @@
+package com.combostrap.docExec;
+
+import com.combostrap.docExec.util.Fs;
+import com.combostrap.docExec.util.Strings;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A benchmark of the doc tokenizer against the previous implementation
+ * (regular expressions by node)
+ * <p>
+ * The results are compared on the test docs and on a generated doc of several megabytes,
+ * the timings are printed.
+ * It runs only with the benchmark profile (mvn test -Pbenchmark).
+ */
+@Tag("benchmark")
+public class DocParserBenchmarkTest {
+
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void tokenizerBenchmarkTest() throws IOException {
+
+        try (DirectoryStream<Path> docs = Files.newDirectoryStream(Paths.get("./src/test/resources/docTest"))) {
+            for (Path doc : docs) {
+                String content = Fs.toString(doc);
+                Assertions.assertEquals(describe(content, DocParserBenchmarkTest::getDocTests), describe(content, DocParser::getDocTests), "The units are the same (" + doc + ")");
+            }
+        }
+
+        StringBuilder doc = new StringBuilder();
+        int i = 0;
+        while (doc.length() < 4 * 1024 * 1024) {
+            doc.append("Some text with a <b>tag</b> before the unit ").append(i).append("\n")
+                    .append("<unit envHOME=/home/").append(i).append(">\n")
+                    .append("<file txt docFile/file").append(i).append(".txt>\n")
+                    .append("The content of the file ").append(i).append("\n")
+                    .append("</file>\n")
+                    .append("<code java>\n")
+                    .append("System.out.println(\"Hello ").append(i).append("\");\n")
+                    .append("</code>\n")
+                    .append("<console>\n")
+                    .append("Hello ").append(i).append("\n")
+                    .append("</console>\n")
+                    .append("</unit>\n\n");
+            i++;
+        }
+        String content = doc.toString();
+        Assertions.assertEquals(describe(content, DocParserBenchmarkTest::getDocTests), describe(content, DocParser::getDocTests), "The units of the generated doc are the same");
+
+        long legacyDuration = time(() -> getDocTests(content, null));
+        long tokenizerDuration = time(() -> DocParser.getDocTests(content, null));
+        System.out.println("Doc parsing (" + content.length() / 1024 + "KB, " + i + " units, " + ITERATIONS + " iterations): previous " + legacyDuration / 1_000_000 + "ms, tokenizer " + tokenizerDuration / 1_000_000 + "ms");
+
+    }
+
+    private interface Parser {
+        List<DocUnit> parse(String s, Path path);
+    }
+
+    /**
+     * @return a description of the units (or of the error) to compare the parsers
+     */
+    private static String describe(String content, Parser parser) {
+        List<DocUnit> docUnits;
+        try {
+            docUnits = parser.parse(content, null);
+        } catch (RuntimeException e) {
+            return "Error: " + e.getMessage();
+        }
+        StringBuilder description = new StringBuilder();
+        for (DocUnit docUnit : docUnits) {
+            description.append("unit ").append(docUnit.getLocation())
+                    .append(" env ").append(docUnit.getEnv())
+                    .append(" timeout ").append(docUnit.getTimeout())
+                    .append(" language ").append(docUnit.getLanguage())
+                    .append(" code ").append(docUnit.getCode())
+                    .append(" codeLocation ").append(describe(docUnit.getCodeLocation()))
+                    .append(" console ").append(docUnit.getConsole())
+                    .append(" consoleLocation ").append(describe(docUnit.getConsoleLocation()))
+                    .append("\n");
+            for (DocFileBlock docFileBlock : docUnit.getFileBlocks()) {
+                description.append(" file ").append(docFileBlock.getLanguage())
+                        .append(" ").append(docFileBlock.getPath())
+                        .append(" ").append(docFileBlock.getContent())
+                        .append(" ").append(docFileBlock.getLocationStart())
+                        .append("-").append(docFileBlock.getLocationEnd())
+                        .append("\n");
+            }
+        }
+        return description.toString();
+    }
+
+    private static String describe(DocBlockLocation location) {
+        if (location == null) {
+            return "null";
+        }
+        return location.getStart() + "-" + location.getEnd();
+    }
+
+    private static long time(Runnable runnable) {
+        // warm up
+        for (int i = 0; i < ITERATIONS / 5; i++) {
+            runnable.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The previous implementation
+     */
+    static List<DocUnit> getDocTests(String s, Path path) {
+
+        if (s == null) {
+            throw new RuntimeException("The content is null");
+        }
+
+        List<DocUnit> docUnits = new ArrayList<>();
+
+
+        final String unitTestNode = "unit";
+        final String codeNodeName = "code";
+        final String fileNodeName = "file";
+        final String consoleNodeName = "console";
+
+
+        Pattern unitTestNodePattern = Pattern.compile("<" + unitTestNode + "(.*?)>(.*?)</" + unitTestNode + ">", Pattern.DOTALL);
+        Pattern codeTestNodePattern = Pattern.compile("<" + codeNodeName + "(.*?)>(.*?)</" + codeNodeName + ">", Pattern.DOTALL);
+        Pattern consolePattern = Pattern.compile("<" + consoleNodeName + "(.*?)>(.*?)</" + consoleNodeName + ">", Pattern.DOTALL);
+        Pattern filePattern = Pattern.compile("<" + fileNodeName + "(.*?)>(.*?)</" + fileNodeName + ">", Pattern.DOTALL);
+
+
+        Matcher unitTestMatcher = unitTestNodePattern.matcher(s);
+        while (unitTestMatcher.find()) {
+
+            DocUnit docUnit = DocUnit.get();
+            docUnit.setLocation(unitTestMatcher.start());
+            docUnit.setPath(path);
+            docUnits.add(docUnit);
+            String unitTestProperties = unitTestMatcher.group(1);
+            docUnit.setProperty(unitTestProperties);
+            String unitTestDefinition = unitTestMatcher.group(2);
+            final int unitTestStartLocation = unitTestMatcher.start() + 1 + unitTestNode.length() + unitTestProperties.length() + 1;
+
+            // Try to find the code
+            Matcher codeTestMatcher = codeTestNodePattern.matcher(unitTestDefinition);
+            boolean unitFound = codeTestMatcher.find();
+            if (unitFound) {
+
+                // Properties of the node is now only the language
+                String codeProperties = codeTestMatcher.group(1).trim();
+                final int i = codeProperties.indexOf(" ");
+                if (i == -1) {
+                    docUnit.setLanguage(codeProperties);
+                } else {
+                    docUnit.setLanguage(codeProperties.substring(0, i));
+                }
+
+                // The code
+                String codeDefinition = codeTestMatcher.group(2);
+                docUnit.setCode(codeDefinition);
+
+
+                int start = codeTestMatcher.start() + unitTestStartLocation + 1 + codeNodeName.length() + 1;
+                int end = codeTestMatcher.end() + unitTestStartLocation - 2 - codeNodeName.length() - 1;
+                docUnit.setCodeLocation(new DocBlockLocation(start, end));
+
+            }
+
+            // Try to find the console
+            Matcher consoleMatcher = consolePattern.matcher(unitTestDefinition);
+            boolean codeFound = consoleMatcher.find();
+            if (codeFound) {
+                String fileProperties = consoleMatcher.group(1);
+                String consoleContent = consoleMatcher.group(2);
+                int start = consoleMatcher.start() + unitTestStartLocation + 1 + consoleNodeName.length() + fileProperties.length() + 1;
+                int end = consoleMatcher.end() + unitTestStartLocation - 2 - consoleNodeName.length() - 1;
+                docUnit.setConsoleLocation(new DocBlockLocation(start, end));
+                docUnit.setConsoleContent(consoleContent);
+            }
+
+            // Try to find the file
+            Matcher fileMatcher = filePattern.matcher(unitTestDefinition);
+            boolean fileFound = fileMatcher.find();
+            if (fileFound) {
+
+                DocFileBlock docFileBlock = DocFileBlock.get(docUnit);
+                docUnit.addFileBlock(docFileBlock);
+                String fileProperties = fileMatcher.group(1);
+                String[] properties = fileProperties.trim().split(" ");
+                if (properties.length >= 1) {
+                    docFileBlock.setLanguage(properties[0]);
+                }
+                if (properties.length >= 2) {
+                    docFileBlock.setPath(properties[1]);
+                }
+
+                String fileContent = fileMatcher.group(2).trim();
+                docFileBlock.setContent(fileContent);
+
+                int startLocation = fileMatcher.start() + unitTestStartLocation + 1 + fileNodeName.length() + fileProperties.length() + 1;
+                int locationEnd = fileMatcher.end() + unitTestStartLocation - 2 - fileNodeName.length() - 1;
+                docFileBlock.setLocationStart(startLocation);
+                docFileBlock.setLocationEnd(locationEnd);
+
+            }
+
+            // Test that the file node is before the console node
+            for (DocFileBlock docFileBlock : docUnit.getFileBlocks()) {
+
+                // Console is not mandatory
+                final DocBlockLocation consoleLocation = docUnit.getConsoleLocation();
+                if (consoleLocation != null) {
+                    if (docFileBlock.getLocationStart() > consoleLocation.getStart()) {
+                        throw new RuntimeException("Order is not good, the console node must be after the file node");
+                    }
+                }
+
+                // Code is then we have a location
+                if (docUnit.getCodeLocation() != null) {
+                    if (docFileBlock.getLocationStart() > docUnit.getCodeLocation().getStart()) {
+                        throw new RuntimeException("Order is not good, the file node must be before the code node in the doc test file " + docUnit.getPath());
+                    }
+                }
+
+            }
+
+        }
+
+
+        // Test that all nodes are closed
+        final Integer numberOfUnitTestNode = Strings.numberOfOccurrences(s, "<" + unitTestNode);
+        if (docUnits.size() != numberOfUnitTestNode) {
+            String message = "A " + unitTestNode + " node seems not to be closed in the file (" + path + "). There is " + numberOfUnitTestNode + " unit test node with the name (" + unitTestNode + ") but we parsed only " + docUnits.size() + " doc unit test code. This unit test is not closed ?:\n";
+            message += Stream.of(docUnits.get(docUnits.size() - 1)).map(d -> {
+                if (d.getCodeLocation() != null) {
+                    return "Code unit: " + d.getCode();
+                }
+                if (!d.getFileBlocks().isEmpty()) {
+                    return "File unit: " + d.getFileBlocks().get(0).toString();
+                }
+                return "unknown";
+            }).collect(Collectors.joining("\n"));
+            throw new RuntimeException(message);
+        }
+
+
+        return docUnits;
+    }
+
+}
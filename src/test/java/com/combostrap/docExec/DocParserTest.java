@@ -37,4 +37,23 @@ public class DocParserTest {
 
   }
 
+  /**
+   * The blocks are views on the doc content
+   */
+  @Test
+  public void blockViewTest() {
+
+    String doc = "<unit>\n<file txt file.txt>\n  content \n</file>\n<code bash>\necho hello\n</code>\n<console>\nhello\n</console>\n</unit>";
+    DocUnit docUnit = DocParser.getDocTests(doc, null).get(0);
+    Assertions.assertTrue(docUnit.getCodeText() instanceof DocText, "The code is a view");
+    Assertions.assertEquals("\necho hello\n", docUnit.getCode(), "Code");
+    Assertions.assertSame(docUnit.getCode(), docUnit.getCode(), "The code is copied once");
+    Assertions.assertEquals("\nhello\n", docUnit.getConsole(), "Console");
+    DocFileBlock docFileBlock = docUnit.getFileBlocks().get(0);
+    Assertions.assertTrue(docFileBlock.getContentText() instanceof DocText, "The file content is a view");
+    Assertions.assertEquals("content", docFileBlock.getContent(), "The file content is trimmed");
+    Assertions.assertEquals("ell", docUnit.getConsoleText().subSequence(2, 5).toString(), "Sub sequence");
+
+  }
+
 }
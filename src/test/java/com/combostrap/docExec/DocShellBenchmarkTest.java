@@ -0,0 +1,226 @@
+package com.combostrap.docExec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A benchmark of the shell lexer against the previous implementation
+ * (expansion by replacement for each env variable and each arg)
+ * <p>
+ * The results are compared and the timings are printed.
+ * It runs only with the benchmark profile (mvn test -Pbenchmark).
+ */
+@Tag("benchmark")
+public class DocShellBenchmarkTest {
+
+    private static final int ITERATIONS = 500;
+
+    @Test
+    public void lexerBenchmarkTest() {
+
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            code.append("echo \"Hello ${GREETING}\" $HOME foo")
+                    .append(i)
+                    .append(" bar\n")
+                    .append("# a comment\n");
+        }
+        DocUnit bashUnit = DocUnit.get()
+                .setLanguage(DocShell.BASH_LANG)
+                .setCode(code.toString());
+        bashUnit.getEnv().put("GREETING", "World");
+        DocUnit dosUnit = DocUnit.get()
+                .setLanguage(DocShell.DOS_LANG)
+                .setCode(code.toString().replace("${GREETING}", "%GREETING%").replace("$HOME", "%HOME%").replace("#", "::"));
+        dosUnit.getEnv().put("GREETING", "World");
+
+        for (DocUnit docUnit : new DocUnit[]{bashUnit, dosUnit}) {
+
+            String lang = docUnit.getLanguage();
+            List<String[]> expected = parseShellCommand(docUnit, lang);
+            List<String[]> actual = DocShell.parseShellCommand(docUnit, lang);
+            Assertions.assertEquals(expected.size(), actual.size(), "The number of commands is the same (" + lang + ")");
+            for (int i = 0; i < expected.size(); i++) {
+                Assertions.assertArrayEquals(expected.get(i), actual.get(i), "The command " + i + " is the same (" + lang + ")");
+            }
+
+            long legacyDuration = time(() -> parseShellCommand(docUnit, lang));
+            long lexerDuration = time(() -> DocShell.parseShellCommand(docUnit, lang));
+            System.out.println("Shell parsing (" + lang + ", " + ITERATIONS + " iterations, " + System.getenv().size() + " env variables): previous " + legacyDuration / 1_000_000 + "ms, lexer " + lexerDuration / 1_000_000 + "ms");
+
+        }
+
+    }
+
+    private static long time(Runnable runnable) {
+        // warm up
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            runnable.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The previous implementation
+     */
+    static List<String[]> parseShellCommand(DocUnit docUnit, String shellLang) {
+
+        final int defaultState = 1;
+        final int spaceCapture = 2;
+        final int quoteCapture = 3;
+        final char spaceChar = ' ';
+        final char continuationChar;
+        final char quoteChar = '"';
+        char[] comments;
+        switch (shellLang) {
+            case DocShell.DOS_LANG:
+                comments = new char[]{':', ':'};
+                continuationChar = '^';
+                break;
+            case DocShell.BASH_LANG:
+                comments = new char[]{'#'};
+                continuationChar = '\\';
+                break;
+            default:
+                throw new RuntimeException("Unsupported lang " + shellLang);
+
+        }
+
+
+        List<String[]> commands = new ArrayList<>();
+        String[] lines = docUnit.getCode().trim().split("\n|\r\n");
+        for (String line : lines) {
+
+            line = line.trim();
+
+            // Comments skipping
+            if (line.length() >= comments.length) {
+                if (line.trim().substring(0, comments.length).equals(new String(comments))) {
+                    continue;
+                }
+            }
+
+            int state = defaultState;
+            char[] dst = new char[line.length()];
+            line.getChars(0, line.length(), dst, 0);
+            StringBuilder arg = new StringBuilder();
+            List<String> args = new ArrayList<>();
+            for (char c : dst) {
+                switch (state) {
+                    case defaultState:
+                        switch (c) {
+                            case spaceChar:
+                                state = spaceCapture;
+                                continue;
+                            case quoteChar:
+                                state = quoteCapture;
+                                break;
+                            default:
+                                arg.append(c);
+                                state = spaceCapture;
+                                break;
+                        }
+                        break;
+                    case spaceCapture:
+                        switch (c) {
+                            case spaceChar:
+                                if (!arg.toString().isEmpty()) {
+                                    args.add(arg.toString());
+                                    arg = new StringBuilder();
+                                }
+                                state = defaultState;
+                                break;
+                            case quoteChar:
+                                if (!arg.toString().isEmpty()) {
+                                    arg.append(c);
+                                } else {
+                                    state = quoteCapture;
+                                }
+                                break;
+                            default:
+                                arg.append(c);
+                                break;
+                        }
+                        break;
+                    case quoteCapture:
+                        switch (c) {
+                            case quoteChar:
+                                if (!arg.toString().isEmpty()) {
+                                    args.add(arg.toString());
+                                    arg = new StringBuilder();
+                                }
+                                state = defaultState;
+                                break;
+                            default:
+                                arg.append(c);
+                                break;
+                        }
+                        break;
+
+                }
+            }
+
+            // Arg normalized
+            String argTrimmed = arg.toString().trim();
+
+            // A command may be broken in multiple lines
+            if (argTrimmed.length() == 1 && argTrimmed.charAt(0) == continuationChar) {
+                continue;
+            }
+
+            if (!argTrimmed.isEmpty()) {
+                args.add(arg.toString());
+            }
+            commands.add(args.toArray(new String[0]));
+        }
+
+        for (String[] args : commands) {
+
+            // Env variable expansion
+            // Declared
+            for (Map.Entry<String, String> entry : docUnit.getEnv().entrySet()) {
+                for (int i = 0; i < args.length; i++) {
+                    if (shellLang.equals(DocShell.DOS_LANG)) {
+                        args[i] = args[i].replace("%" + entry.getKey() + "%", entry.getValue());
+                    }
+                    if (shellLang.equals(DocShell.BASH_LANG)) {
+                        args[i] = args[i].replace("$" + entry.getKey(), entry.getValue());
+                        args[i] = args[i].replace("${" + entry.getKey() + "}", entry.getValue());
+                    }
+                }
+            }
+            // Env
+            for (String envName : System.getenv().keySet()) {
+                for (int i = 0; i < args.length; i++) {
+                    if (shellLang.equals(DocShell.DOS_LANG)) {
+                        args[i] = args[i].replace("%" + envName + "%", System.getenv().get(envName));
+                    }
+                    if (shellLang.equals(DocShell.BASH_LANG)) {
+                        args[i] = args[i].replace("$" + envName, System.getenv().get(envName));
+                        args[i] = args[i].replace("${" + envName + "}", System.getenv().get(envName));
+                    }
+                }
+            }
+
+            // Escaping (after env expansion)
+            for (int i = 0; i < args.length; i++) {
+
+                // Path in DOS must have two slash in the code to escape it
+                args[i] = args[i].replace("\\", "\\\\");
+
+            }
+
+        }
+        return commands;
+    }
+
+}
@@ -4,9 +4,20 @@ package com.combostrap.docExec;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.stream.NullOutputStream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -116,4 +127,189 @@ public class DocShellTest {
         Assertions.assertEquals(System.getenv().get("HOME"), userProfileExpansion, "contains the user directory");
 
     }
+
+    /**
+     * The bash units are executed in the same bash process
+     * and the state is kept from one unit to another
+     */
+    @Test
+    public void shellSessionTest() {
+
+        DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setShellSession(true)
+                .build()
+                .getDocExecutorUnit();
+
+        DocUnit firstUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("cd /\nexport GREETING=Hello\necho first");
+        Assertions.assertEquals("first", docExecutorUnit.run(firstUnit).trim());
+
+        DocUnit secondUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("echo $GREETING\npwd");
+        Assertions.assertEquals("Hello\n/", docExecutorUnit.run(secondUnit).trim(), "The variable and the working directory are kept");
+
+        DocUnit errorUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("ls /doc-exec-does-not-exist");
+        Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(errorUnit), "The exit status of a unit is checked");
+
+        DocUnit exitUnit = DocUnit.get()
+                .setLanguage("bash")
+                .setCode("exit 3");
+        Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(exitUnit), "An exit ends the session");
+        Assertions.assertEquals("first", docExecutorUnit.run(firstUnit).trim(), "A new session is started");
+
+        docExecutorUnit.close();
+
+    }
+
+    /**
+     * The output of a session is read by chunk:
+     * a long line is spilled and truncated and the marker may be cut between two chunks
+     */
+    @Test
+    public void shellSessionLongLineTest() {
+
+        try (DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setShellSession(true)
+                .setConsoleMemoryMaxBytes(1000)
+                .setConsoleMaxBytes(5000)
+                .build()
+                .getDocExecutorUnit()) {
+
+            DocUnit longLineUnit = DocUnit.get()
+                    .setLanguage("bash")
+                    .setCode("head -c 1000000 /dev/zero | tr '\\0' 'a'");
+            String output = docExecutorUnit.run(longLineUnit);
+            Assertions.assertTrue(output.startsWith("a".repeat(5000) + "\n"), "The head is kept");
+            Assertions.assertTrue(output.endsWith(String.format(DocCaptureBuffer.TRUNCATION_MARKER, 5000, 1000000)), "The line was truncated");
+
+        }
+
+        try (DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setShellSession(true)
+                .build()
+                .getDocExecutorUnit()) {
+            // The marker starts around the end of the first chunk
+            for (int size = 8100; size < 8200; size++) {
+                DocUnit unit = DocUnit.get()
+                        .setLanguage("bash")
+                        .setCode("printf '%" + size + "s' x");
+                Assertions.assertEquals(" ".repeat(size - 1) + "x", docExecutorUnit.run(unit), "The output without new line ends before the marker");
+            }
+        }
+
+    }
+
+    /**
+     * A bash unit has the same console with and without session:
+     * the commands with a qualified path are resolved in the same way and the std err is not in the console.
+     * The env of a unit is not kept for the next units and an isolated session keeps no state.
+     */
+    @Test
+    public void shellSessionSameConsoleTest() throws IOException {
+
+        Path command = Files.createTempFile("doc-exec-greet", ".sh");
+        try {
+            Files.write(command, "#!/bin/bash\necho \"greet $*\"\necho err >&2".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertTrue(command.toFile().setExecutable(true));
+            DocUnit greetUnit = DocUnit.get().setLanguage("bash").setCode("doc-exec-greet world");
+            String withoutSession = DocExecutor.create("test")
+                    .setShellCommandQualifiedPath("doc-exec-greet", command)
+                    .setShellCommandExecuteViaShellBinary("doc-exec-greet", false)
+                    .build()
+                    .getDocExecutorUnit()
+                    .run(greetUnit);
+            Assertions.assertEquals("greet world", withoutSession.trim());
+
+            DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                    .setShellCommandQualifiedPath("doc-exec-greet", command)
+                    .setShellCommandExecuteViaShellBinary("doc-exec-greet", false)
+                    .setShellSession(true)
+                    .build()
+                    .getDocExecutorUnit();
+            Assertions.assertEquals(withoutSession.trim(), docExecutorUnit.run(greetUnit).trim(), "Same console");
+            DocUnit envUnit = DocUnit.get().setLanguage("bash").setCode("echo \"[$DOC_EXEC_UNIT_VAR]\"");
+            envUnit.getEnv().put("DOC_EXEC_UNIT_VAR", "unit");
+            Assertions.assertEquals("[unit]", docExecutorUnit.run(envUnit).trim());
+            Assertions.assertEquals("[]", docExecutorUnit.run(DocUnit.get().setLanguage("bash").setCode("echo \"[$DOC_EXEC_UNIT_VAR]\"")).trim(), "The env of a unit is not kept");
+            docExecutorUnit.close();
+
+            DocExecutorUnit isolatedExecutorUnit = DocExecutor.create("test")
+                    .setShellSession(true)
+                    .setShellSessionIsolated(true)
+                    .build()
+                    .getDocExecutorUnit();
+            isolatedExecutorUnit.run(DocUnit.get().setLanguage("bash").setCode("{ export DOC_EXEC_VAR=1; }"));
+            Assertions.assertEquals("[]", isolatedExecutorUnit.run(DocUnit.get().setLanguage("bash").setCode("echo \"[$DOC_EXEC_VAR]\"")).trim(), "Isolated session");
+            isolatedExecutorUnit.close();
+        } finally {
+            Files.deleteIfExists(command);
+        }
+
+    }
+
+    /**
+     * The commands executed in parallel with the event loop pump
+     * have the same output as with zt-exec
+     */
+    @Test
+    public void processPumpTest() throws Exception {
+
+        String code = "bash -c \"seq 1 20000; printf 'héllo wörld ✓'; echo err >&2\"";
+        String expected = new ProcessExecutor()
+                .command("bash", "-c", "seq 1 20000; printf 'héllo wörld ✓'; echo err >&2")
+                .readOutput(true)
+                .redirectError(NullOutputStream.NULL_OUTPUT_STREAM)
+                .execute()
+                .outputUTF8();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setCaptureStdErr(false)
+                .setProcessPumpThreads(1)
+                .build()
+                .getDocExecutorUnit()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executorService.submit(() -> docExecutorUnit.run(DocUnit.get().setLanguage("bash").setCode(code))));
+            }
+            for (Future<String> future : futures) {
+                Assertions.assertEquals(expected, future.get(1, TimeUnit.MINUTES), "The output is the same as zt-exec");
+            }
+
+            DocUnit errorUnit = DocUnit.get()
+                    .setLanguage("bash")
+                    .setCode("ls /doc-exec-does-not-exist");
+            Assertions.assertThrows(RuntimeException.class, () -> docExecutorUnit.run(errorUnit), "The exit value is checked");
+        } finally {
+            executorService.shutdownNow();
+        }
+
+    }
+
+    /**
+     * A background process that was reparented keeps the pipe open
+     * but should not stall the pump loop
+     */
+    @Test
+    public void processPumpReparentedChildTest() throws Exception {
+
+        try (DocExecutorUnit docExecutorUnit = DocExecutor.create("test")
+                .setCaptureStdErr(false)
+                .setProcessPumpThreads(1)
+                .build()
+                .getDocExecutorUnit()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                String output = docExecutorUnit.run(DocUnit.get().setLanguage("bash").setCode("echo hello; (sleep 5 &)"));
+                Assertions.assertEquals("hello", output.trim());
+            }
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "The pipes were not waited until the end of the background process");
+        }
+
+    }
+
 }